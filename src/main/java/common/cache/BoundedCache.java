@@ -0,0 +1,751 @@
+package common.cache;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongBiFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread safe cache bounded by a maximum weight, where entries may expire a fixed time
+ * after they are written or last read. Lookups only read a
+ * {@linkplain ConcurrentHashMap}.
+ *
+ * <p>
+ * A value is loaded once per key: threads asking for a key that is being loaded wait
+ * for the load instead of starting their own. A failed load is not cached; its
+ * exception is thrown to the loading thread and to the waiting ones.</p>
+ *
+ * <p>
+ * Loaded entries are queued in insertion order. Once the total weight exceeds the
+ * maximum, entries are evicted from the head of the queue, except those read since they
+ * were last checked, which are queued again (the CLOCK, or second chance,
+ * algorithm).</p>
+ *
+ * <p>
+ * Entries that expire, are invalidated or are replaced by a refresh stay in the queue
+ * until they are polled. The queue is compacted once it holds more of them than there
+ * are mapped entries, so it stays bounded while the weight is under the maximum.</p>
+ *
+ * <p>
+ * With refresh after write, reading an entry older than the refresh time returns it
+ * and reloads it in the background, so hot entries are replaced before they expire.</p>
+ *
+ * <p>
+ * Values loaded as futures, see {@linkplain #getAsync}, are cached once they
+ * complete.</p>
+ *
+ * @author Ricardo Marquez
+ * @param <K>
+ * @param <V>
+ */
+public class BoundedCache<K, V> {
+
+  private static final int LOADING = 0;
+  private static final int LIVE = 1;
+  private static final int RETIRED = 2;
+  private static final int MIN_RETIRED_TO_COMPACT = 64;
+
+  private final long maxWeight;
+  private final long expireAfterWriteNanos;
+  private final long expireAfterAccessNanos;
+  private final long refreshAfterWriteNanos;
+  private final ToLongBiFunction<? super K, ? super V> weigher;
+  private final Executor executor;
+  private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final AtomicLong weight = new AtomicLong();
+  private final AtomicInteger queuedRetired = new AtomicInteger();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder loadSuccesses = new LongAdder();
+  private final LongAdder loadFailures = new LongAdder();
+  private final LongAdder totalLoadNanos = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+  private final LongAdder refreshes = new LongAdder();
+
+  /**
+   * Creates a cache of at most the number of entries, which never expire.
+   *
+   * @param maxEntries
+   */
+  public BoundedCache(long maxEntries) {
+    this(maxEntries, 0, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Creates a cache of at most the number of entries.
+   *
+   * @param maxEntries
+   * @param expireAfterWrite zero for entries that never expire.
+   * @param unit
+   */
+  public BoundedCache(long maxEntries, long expireAfterWrite, TimeUnit unit) {
+    this(maxEntries, expireAfterWrite, unit, (k, v) -> 1L);
+  }
+
+  /**
+   *
+   * @param maxWeight
+   * @param expireAfterWrite zero for entries that never expire.
+   * @param unit
+   * @param weigher the weight of an entry, at least zero.
+   */
+  public BoundedCache(long maxWeight, long expireAfterWrite, TimeUnit unit,
+          ToLongBiFunction<? super K, ? super V> weigher) {
+    this(new Builder<K, V>().maximumWeight(maxWeight).expireAfterWrite(expireAfterWrite, unit).weigher(weigher));
+  }
+
+  /**
+   *
+   * @param builder
+   */
+  private BoundedCache(Builder<K, V> builder) {
+    this.maxWeight = builder.maxWeight;
+    this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+    this.expireAfterAccessNanos = builder.expireAfterAccessNanos;
+    this.refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+    this.weigher = builder.weigher;
+    this.executor = builder.executor;
+  }
+
+  /**
+   * Returns the cached value for the key, or loads and caches it.
+   *
+   * @param key
+   * @param loader called at most once at a time per key.
+   * @return
+   * @throws Exception the exception thrown by the loader.
+   */
+  public V get(K key, Callable<? extends V> loader) throws Exception {
+    Objects.requireNonNull(key, "key cannot be null");
+    long now = System.nanoTime();
+    Node<K, V> node = this.current(key, now);
+    if (node == null) {
+      Node<K, V> created = new Node<>(key);
+      node = this.map.putIfAbsent(key, created);
+      if (node == null) {
+        this.misses.increment();
+        return this.load(created, loader);
+      }
+    }
+    Node<K, V> hit = node;
+    if (this.hit(hit, now)) {
+      this.submit(hit, () -> this.refresh(hit, loader));
+    }
+    return join(hit.future);
+  }
+
+  /**
+   * Returns the cached value for the key as a future, or loads it asynchronously. The
+   * future of a key being loaded is shared by all the callers, and the value is cached
+   * once the future completes. A future completing exceptionally is not cached.
+   *
+   * <p>
+   * A refresh keeps the current value until the future of the refresh completes, so
+   * callers never wait for it. The loader of a refresh is called on the executor.</p>
+   *
+   * @param key
+   * @param loader called at most once at a time per key.
+   * @return the shared future of the value, which callers should not complete.
+   */
+  public CompletableFuture<V> getAsync(K key, Callable<? extends CompletionStage<? extends V>> loader) {
+    Objects.requireNonNull(key, "key cannot be null");
+    long now = System.nanoTime();
+    Node<K, V> node = this.current(key, now);
+    if (node == null) {
+      Node<K, V> created = new Node<>(key);
+      node = this.map.putIfAbsent(key, created);
+      if (node == null) {
+        this.misses.increment();
+        this.loadAsync(created, loader);
+        return created.future;
+      }
+    }
+    Node<K, V> hit = node;
+    if (this.hit(hit, now)) {
+      this.submit(hit, () -> this.refreshAsync(hit, loader));
+    }
+    return hit.future;
+  }
+
+  /**
+   *
+   * @param key
+   * @param now
+   * @return the node of the key, or null if there is none or it expired.
+   */
+  private Node<K, V> current(K key, long now) {
+    Node<K, V> node = this.map.get(key);
+    if (node != null && this.isExpired(node, now)) {
+      this.remove(node, this.expirations);
+      node = null;
+    }
+    return node;
+  }
+
+  /**
+   * Records a hit on a node.
+   *
+   * @param node
+   * @param now
+   * @return true if the caller must refresh the node.
+   */
+  private boolean hit(Node<K, V> node, long now) {
+    this.hits.increment();
+    node.referenced = true;
+    node.accessNanos = now;
+    return now - node.writeNanos >= this.refreshAfterWriteNanos && node.state.get() == LIVE
+            && node.refreshing.compareAndSet(false, true);
+  }
+
+  /**
+   *
+   * @param node
+   * @param refresh
+   */
+  private void submit(Node<K, V> node, Runnable refresh) {
+    try {
+      this.executor.execute(refresh);
+    } catch (RejectedExecutionException ex) {
+      node.refreshing.set(false);
+    }
+  }
+
+  /**
+   *
+   * @param key
+   * @return the cached value, or null if the key is not cached or still loading.
+   */
+  public V getIfPresent(K key) {
+    Node<K, V> node = this.map.get(key);
+    if (node == null || node.state.get() != LIVE || this.isExpired(node, System.nanoTime())) {
+      return null;
+    }
+    node.referenced = true;
+    return node.future.getNow(null);
+  }
+
+  /**
+   *
+   * @param node
+   * @param loader
+   * @return
+   * @throws Exception
+   */
+  private V load(Node<K, V> node, Callable<? extends V> loader) throws Exception {
+    long start = System.nanoTime();
+    V value;
+    try {
+      value = loader.call();
+    } catch (Exception | Error ex) {
+      this.failed(node, ex, start);
+      throw ex;
+    }
+    this.loaded(node, value, start);
+    return value;
+  }
+
+  /**
+   *
+   * @param node
+   * @param loader
+   */
+  private void loadAsync(Node<K, V> node, Callable<? extends CompletionStage<? extends V>> loader) {
+    long start = System.nanoTime();
+    CompletionStage<? extends V> stage;
+    try {
+      stage = Objects.requireNonNull(loader.call(), "loader returned a null future");
+    } catch (Exception | Error ex) {
+      this.failed(node, ex, start);
+      return;
+    }
+    stage.whenComplete((value, ex) -> {
+      if (ex == null) {
+        this.loaded(node, value, start);
+      } else {
+        this.failed(node, unwrap(ex), start);
+      }
+    });
+  }
+
+  /**
+   *
+   * @param node
+   * @param value
+   * @param start
+   */
+  private void loaded(Node<K, V> node, V value, long start) {
+    long end = System.nanoTime();
+    this.totalLoadNanos.add(end - start);
+    this.loadSuccesses.increment();
+    node.weight = this.weigher.applyAsLong(node.key, value);
+    node.writeNanos = end;
+    node.accessNanos = end;
+    if (node.state.compareAndSet(LOADING, LIVE)) {
+      this.weight.addAndGet(node.weight);
+      this.clock.offer(node);
+    }
+    node.future.complete(value);
+    this.evict();
+  }
+
+  /**
+   *
+   * @param node
+   * @param ex
+   * @param start
+   */
+  private void failed(Node<K, V> node, Throwable ex, long start) {
+    this.totalLoadNanos.add(System.nanoTime() - start);
+    this.loadFailures.increment();
+    this.remove(node, null);
+    node.future.completeExceptionally(ex);
+  }
+
+  /**
+   * Reloads the value of a node and replaces the node if it is still mapped. The node
+   * keeps its value if the reload fails.
+   *
+   * @param node
+   * @param loader
+   */
+  private void refresh(Node<K, V> node, Callable<? extends V> loader) {
+    long start = System.nanoTime();
+    V value;
+    try {
+      value = loader.call();
+    } catch (Exception | Error ex) {
+      this.refreshFailed(node, ex, start);
+      return;
+    }
+    this.refreshed(node, value, start);
+  }
+
+  /**
+   *
+   * @param node
+   * @param loader
+   */
+  private void refreshAsync(Node<K, V> node, Callable<? extends CompletionStage<? extends V>> loader) {
+    long start = System.nanoTime();
+    CompletionStage<? extends V> stage;
+    try {
+      stage = Objects.requireNonNull(loader.call(), "loader returned a null future");
+    } catch (Exception | Error ex) {
+      this.refreshFailed(node, ex, start);
+      return;
+    }
+    stage.whenComplete((value, ex) -> {
+      if (ex == null) {
+        this.refreshed(node, value, start);
+      } else {
+        this.refreshFailed(node, unwrap(ex), start);
+      }
+    });
+  }
+
+  /**
+   *
+   * @param node
+   * @param value
+   * @param start
+   */
+  private void refreshed(Node<K, V> node, V value, long start) {
+    long end = System.nanoTime();
+    this.totalLoadNanos.add(end - start);
+    this.loadSuccesses.increment();
+    Node<K, V> fresh = new Node<>(node.key);
+    fresh.weight = this.weigher.applyAsLong(node.key, value);
+    fresh.writeNanos = end;
+    fresh.accessNanos = end;
+    fresh.state.set(LIVE);
+    fresh.future.complete(value);
+    if (this.map.replace(node.key, node, fresh)) {
+      this.weight.addAndGet(fresh.weight);
+      this.clock.offer(fresh);
+      this.remove(node, null);
+      this.refreshes.increment();
+      this.evict();
+    }
+  }
+
+  /**
+   *
+   * @param node
+   * @param ex
+   * @param start
+   */
+  private void refreshFailed(Node<K, V> node, Throwable ex, long start) {
+    this.totalLoadNanos.add(System.nanoTime() - start);
+    this.loadFailures.increment();
+    node.refreshing.set(false);
+    Logger.getLogger(BoundedCache.class.getName())
+            .log(Level.WARNING, "Failed to refresh key: " + node.key, ex);
+  }
+
+  /**
+   *
+   * @param ex
+   * @return the cause of a completion exception.
+   */
+  private static Throwable unwrap(Throwable ex) {
+    return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+  }
+
+  /**
+   *
+   * @param <V>
+   * @param future
+   * @return
+   * @throws Exception
+   */
+  private static <V> V join(CompletableFuture<V> future) throws Exception {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   *
+   * @param node
+   * @param now
+   * @return
+   */
+  private boolean isExpired(Node<K, V> node, long now) {
+    return node.state.get() == LIVE && (now - node.writeNanos >= this.expireAfterWriteNanos
+            || now - node.accessNanos >= this.expireAfterAccessNanos);
+  }
+
+  /**
+   * Removes the node if it is still mapped, and retires it. A live node is still in the
+   * queue, which is compacted if it holds too many retired nodes.
+   *
+   * @param node
+   * @param counter counts the removal if the node was mapped.
+   */
+  private void remove(Node<K, V> node, LongAdder counter) {
+    if (this.retire(node, counter)) {
+      this.queuedRetired.incrementAndGet();
+      this.compact();
+    }
+  }
+
+  /**
+   *
+   * @param node
+   * @param counter counts the removal if the node was mapped.
+   * @return true if the node was live.
+   */
+  private boolean retire(Node<K, V> node, LongAdder counter) {
+    if (this.map.remove(node.key, node) && counter != null) {
+      counter.increment();
+    }
+    if (node.state.getAndSet(RETIRED) == LIVE) {
+      this.weight.addAndGet(-node.weight);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Drops the retired nodes from the queue once there are more of them than mapped
+   * entries, so the cost is amortized over the removals. Skipped if another thread
+   * holds the eviction lock.
+   */
+  private void compact() {
+    int retired = this.queuedRetired.get();
+    if (retired < MIN_RETIRED_TO_COMPACT || retired <= this.map.size() || !this.evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      int dropped = 0;
+      for (Iterator<Node<K, V>> it = this.clock.iterator(); it.hasNext();) {
+        if (it.next().state.get() == RETIRED) {
+          // only the holder of the lock takes nodes out of the queue.
+          it.remove();
+          dropped++;
+        }
+      }
+      this.queuedRetired.addAndGet(-dropped);
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Evicts entries until the weight is back under the maximum. Only one thread evicts
+   * at a time; the others go on.
+   */
+  private void evict() {
+    if (this.weight.get() <= this.maxWeight || !this.evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      long now = System.nanoTime();
+      Node<K, V> node;
+      while (this.weight.get() > this.maxWeight && (node = this.clock.poll()) != null) {
+        if (node.state.get() != LIVE) {
+          this.queuedRetired.decrementAndGet();
+          continue;
+        }
+        // the node is out of the queue, so it is retired without counting it, and a
+        // thread retiring it meanwhile counted it once too many.
+        boolean retiredElsewhere = false;
+        if (this.isExpired(node, now)) {
+          retiredElsewhere = !this.retire(node, this.expirations);
+        } else if (node.referenced) {
+          node.referenced = false;
+          this.clock.offer(node);
+        } else {
+          retiredElsewhere = !this.retire(node, this.evictions);
+        }
+        if (retiredElsewhere) {
+          this.queuedRetired.decrementAndGet();
+        }
+      }
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  /**
+   *
+   * @param key
+   */
+  public void invalidate(K key) {
+    Node<K, V> node = this.map.get(key);
+    if (node != null) {
+      this.remove(node, null);
+    }
+  }
+
+  /**
+   *
+   */
+  public void invalidateAll() {
+    for (Node<K, V> node : this.map.values()) {
+      this.remove(node, null);
+    }
+  }
+
+  /**
+   *
+   * @return the number of cached and loading entries.
+   */
+  public int size() {
+    return this.map.size();
+  }
+
+  /**
+   *
+   * @return
+   */
+  public long getWeight() {
+    return this.weight.get();
+  }
+
+  /**
+   *
+   * @return the number of live and retired nodes in the queue.
+   */
+  int getQueueSize() {
+    return this.clock.size();
+  }
+
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  public long getLoadSuccessCount() {
+    return this.loadSuccesses.sum();
+  }
+
+  public long getLoadFailureCount() {
+    return this.loadFailures.sum();
+  }
+
+  public long getTotalLoadTimeNanos() {
+    return this.totalLoadNanos.sum();
+  }
+
+  public long getEvictionCount() {
+    return this.evictions.sum();
+  }
+
+  public long getExpirationCount() {
+    return this.expirations.sum();
+  }
+
+  public long getRefreshCount() {
+    return this.refreshes.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "BoundedCache{" + "size=" + size() + ", weight=" + weight + ", hits=" + hits + ", misses=" + misses
+            + ", loadSuccesses=" + loadSuccesses + ", loadFailures=" + loadFailures
+            + ", totalLoadNanos=" + totalLoadNanos + ", evictions=" + evictions
+            + ", expirations=" + expirations + ", refreshes=" + refreshes + '}';
+  }
+
+  /**
+   * Settings of a {@linkplain BoundedCache}. By default a cache has no maximum weight,
+   * entries weigh one, never expire and are never refreshed.
+   *
+   * @param <K>
+   * @param <V>
+   */
+  public static final class Builder<K, V> {
+
+    private long maxWeight = Long.MAX_VALUE;
+    private long expireAfterWriteNanos = Long.MAX_VALUE;
+    private long expireAfterAccessNanos = Long.MAX_VALUE;
+    private long refreshAfterWriteNanos = Long.MAX_VALUE;
+    private ToLongBiFunction<? super K, ? super V> weigher = (k, v) -> 1L;
+    private Executor executor = ForkJoinPool.commonPool();
+
+    /**
+     *
+     * @param maxWeight
+     * @return
+     */
+    public Builder<K, V> maximumWeight(long maxWeight) {
+      if (maxWeight < 1) {
+        throw new IllegalArgumentException("max weight must be greater than zero");
+      }
+      this.maxWeight = maxWeight;
+      return this;
+    }
+
+    /**
+     *
+     * @param weigher the weight of an entry, at least zero.
+     * @return
+     */
+    public Builder<K, V> weigher(ToLongBiFunction<? super K, ? super V> weigher) {
+      this.weigher = Objects.requireNonNull(weigher, "weigher cannot be null");
+      return this;
+    }
+
+    /**
+     *
+     * @param duration zero for entries that never expire.
+     * @param unit
+     * @return
+     */
+    public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+      this.expireAfterWriteNanos = toNanos(duration, unit, "expire after write");
+      return this;
+    }
+
+    /**
+     *
+     * @param duration zero for entries that never expire.
+     * @param unit
+     * @return
+     */
+    public Builder<K, V> expireAfterAccess(long duration, TimeUnit unit) {
+      this.expireAfterAccessNanos = toNanos(duration, unit, "expire after access");
+      return this;
+    }
+
+    /**
+     *
+     * @param duration zero for entries that are never refreshed.
+     * @param unit
+     * @return
+     */
+    public Builder<K, V> refreshAfterWrite(long duration, TimeUnit unit) {
+      this.refreshAfterWriteNanos = toNanos(duration, unit, "refresh after write");
+      return this;
+    }
+
+    /**
+     *
+     * @param executor runs the refreshes, the common pool by default.
+     * @return
+     */
+    public Builder<K, V> executor(Executor executor) {
+      this.executor = Objects.requireNonNull(executor, "executor cannot be null");
+      return this;
+    }
+
+    /**
+     *
+     * @param duration
+     * @param unit
+     * @param name
+     * @return
+     */
+    private static long toNanos(long duration, TimeUnit unit, String name) {
+      if (duration < 0) {
+        throw new IllegalArgumentException(name + " cannot be negative");
+      }
+      Objects.requireNonNull(unit, "time unit cannot be null");
+      return duration == 0 ? Long.MAX_VALUE : unit.toNanos(duration);
+    }
+
+    /**
+     *
+     * @param <K1>
+     * @param <V1>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <K1 extends K, V1 extends V> BoundedCache<K1, V1> build() {
+      return new BoundedCache<>((Builder<K1, V1>) this);
+    }
+  }
+
+  /**
+   *
+   * @param <K>
+   * @param <V>
+   */
+  private static final class Node<K, V> {
+
+    private final K key;
+    private final CompletableFuture<V> future = new CompletableFuture<>();
+    private final AtomicInteger state = new AtomicInteger(LOADING);
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile long writeNanos;
+    private volatile long accessNanos;
+    private volatile boolean referenced = false;
+    private long weight;
+
+    Node(K key) {
+      this.key = key;
+    }
+  }
+}
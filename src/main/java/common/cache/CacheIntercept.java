@@ -4,14 +4,63 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Marks a method whose results are cached by {@linkplain CacheInterceptUtil}, and the
+ * policy of its cache. Durations of zero turn the policy off.
+ *
+ * <p>
+ * Each method has its own cache, unless it names a region: the methods of a proxy with
+ * the same region share one cache, and must declare the same policy.</p>
  *
  * @author Ricardo Marquez
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface CacheIntercept {
-  
-  
+
+  /**
+   *
+   * @return the maximum number of cached results.
+   */
+  long maxEntries() default MethodCacheInterceptor.DEFAULT_MAX_ENTRIES;
+
+  /**
+   *
+   * @return the time after which a result is loaded again, in {@linkplain #timeUnit()}.
+   */
+  long expireAfterWrite() default 0;
+
+  /**
+   *
+   * @return the time after which a result not read is dropped, in
+   * {@linkplain #timeUnit()}.
+   */
+  long expireAfterAccess() default 0;
+
+  /**
+   *
+   * @return the time after which reading a result reloads it in the background, in
+   * {@linkplain #timeUnit()}.
+   */
+  long refreshAfterWrite() default 0;
+
+  /**
+   *
+   * @return
+   */
+  TimeUnit timeUnit() default TimeUnit.SECONDS;
+
+  /**
+   *
+   * @return the indexes of the arguments making up the cache key, all of them if empty.
+   */
+  int[] keyArgs() default {};
+
+  /**
+   *
+   * @return the name of the cache shared with other methods, none if empty.
+   */
+  String region() default "";
 }
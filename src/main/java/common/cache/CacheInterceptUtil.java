@@ -15,11 +15,15 @@ public class CacheInterceptUtil {
   }
   
   /**
-   * 
+   * Creates a proxy caching the results of the methods of the object annotated with
+   * {@linkplain CacheIntercept}, each as its annotation declares.
+   *
    * @param <T>
    * @param a
    * @param interfaceClass
    * @return 
+   * @throws IllegalArgumentException if a key argument is out of range, or if methods of
+   * a region declare different policies.
    */
   public static <T> T intercept(Object a, Class<T> interfaceClass) {
     Method[] methods = a.getClass().getDeclaredMethods();
@@ -1,26 +1,102 @@
 package common.cache;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
+ * Caches the results of the methods of an object, by method and arguments. Exceptions
+ * thrown by the object are thrown as is and are not cached.
+ *
+ * <p>
+ * The cache of each method follows its {@linkplain CacheIntercept} annotation, if
+ * any.</p>
+ *
+ * <p>
+ * Methods returning a {@linkplain CompletableFuture} or a {@linkplain CompletionStage}
+ * cache the value of the future once it completes, with
+ * {@linkplain BoundedCache#getAsync}. Concurrent calls share the future of a call in
+ * progress, futures completing exceptionally are not cached, and refreshes do not make
+ * callers wait. Each caller gets its own dependent future, so cancelling it does not
+ * affect the others.</p>
  *
  * @author Ricardo Marquez
  */
 public class MethodCacheInterceptor implements InvocationHandler {
 
+  /**
+   * The default maximum number of cached results.
+   */
+  public static final long DEFAULT_MAX_ENTRIES = 10_000;
+
+  private static final Target NOT_CACHED = new Target(null, null, false);
+
   private final Object t;
-  private final List<Method> methods;
-  private final Map<MethodAndArgs, Object> cache = new HashMap<>();
-    
+  private final Map<Method, Target> declared = new LinkedHashMap<>();
+  private final Map<Method, Target> targets = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a cache per method, or per region, as annotated.
+   *
+   * @param t
+   * @param method the methods to cache, matched by name and parameter types.
+   */
   public MethodCacheInterceptor(Object t, List<Method> method) {
     this.t = t;
-    this.methods = method;
+    Map<String, CacheIntercept> regionPolicies = new HashMap<>();
+    Map<String, BoundedCache<Object, Object>> regions = new HashMap<>();
+    for (Method m : method) {
+      CacheIntercept policy = m.getAnnotation(CacheIntercept.class);
+      BoundedCache<Object, Object> cache;
+      if (policy == null || policy.region().isEmpty()) {
+        cache = createCache(policy);
+      } else {
+        CacheIntercept regionPolicy = regionPolicies.putIfAbsent(policy.region(), policy);
+        if (regionPolicy != null && !samePolicy(regionPolicy, policy)) {
+          throw new IllegalArgumentException(String.format(
+                  "Method '%s' declares a different policy than the other methods of region '%s'",
+                  m.getName(), policy.region()));
+        }
+        cache = regions.computeIfAbsent(policy.region(), r -> createCache(policy));
+      }
+      this.declared.put(m, new Target(cache, keyArgs(m, policy), isAsync(m)));
+    }
+  }
+
+  /**
+   * Caches the results of all the methods in one cache.
+   *
+   * @param t
+   * @param method the methods to cache, matched by name and parameter types.
+   * @param cache
+   */
+  public MethodCacheInterceptor(Object t, List<Method> method, BoundedCache<Object, Object> cache) {
+    Objects.requireNonNull(cache, "cache cannot be null");
+    this.t = t;
+    for (Method m : method) {
+      this.declared.put(m, new Target(cache, keyArgs(m, m.getAnnotation(CacheIntercept.class)), isAsync(m)));
+    }
+  }
+
+  /**
+   *
+   * @param method
+   * @return the cache of the method, or null if the method is not cached.
+   */
+  public BoundedCache<Object, Object> getCache(Method method) {
+    return this.targets.computeIfAbsent(method, this::target).cache;
   }
 
   /**
@@ -34,19 +110,64 @@ public class MethodCacheInterceptor implements InvocationHandler {
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
     Object result;
-    if (this.methods.stream().anyMatch(m -> matches(m, method))) {
-      MethodAndArgs methodAndArgs = new MethodAndArgs(method, args);
-      if (!this.cache.containsKey(methodAndArgs)) {
-        Object r = method.invoke(t, args);
-        this.cache.put(methodAndArgs, r);
-      } 
-      result = this.cache.get(methodAndArgs);
+    Target target = this.targets.computeIfAbsent(method, this::target);
+    if (target == NOT_CACHED) {
+      result = this.call(method, args);
+    } else if (target.async) {
+      result = target.cache.getAsync(new MethodAndArgs(method, target.select(args)),
+              () -> (CompletionStage<?>) this.call(method, args))
+              .thenApply(Function.identity());
     } else {
-      result = method.invoke(t, args);
+      result = target.cache.get(new MethodAndArgs(method, target.select(args)), () -> this.call(method, args));
     }
     return result;
   }
 
+  /**
+   *
+   * @param method
+   * @param args
+   * @return
+   * @throws Exception the exception thrown by the method.
+   */
+  private Object call(Method method, Object[] args) throws Exception {
+    try {
+      return method.invoke(this.t, args);
+    } catch (InvocationTargetException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new UndeclaredThrowableException(cause);
+    }
+  }
+
+  /**
+   *
+   * @param method
+   * @return
+   */
+  private Target target(Method method) {
+    return this.declared.entrySet().stream()
+            .filter(e -> matches(e.getKey(), method))
+            .map(Map.Entry::getValue)
+            .findFirst()
+            .orElse(NOT_CACHED);
+  }
+
+  /**
+   *
+   * @param method
+   * @return true if the method returns a future.
+   */
+  private static boolean isAsync(Method method) {
+    Class<?> type = method.getReturnType();
+    return type == CompletableFuture.class || type == CompletionStage.class;
+  }
+
   /**
    *
    * @param m
@@ -54,24 +175,111 @@ public class MethodCacheInterceptor implements InvocationHandler {
    * @return
    */
   private static boolean matches(Method m, Method method) {
-    return m.getName().equals(method.getName());
+    return m.getName().equals(method.getName())
+            && Arrays.equals(m.getParameterTypes(), method.getParameterTypes());
+  }
+
+  /**
+   *
+   * @param policy null for the default policy.
+   * @return
+   */
+  private static BoundedCache<Object, Object> createCache(CacheIntercept policy) {
+    BoundedCache.Builder<Object, Object> builder = new BoundedCache.Builder<>();
+    if (policy == null) {
+      builder.maximumWeight(DEFAULT_MAX_ENTRIES);
+    } else {
+      TimeUnit unit = policy.timeUnit();
+      builder.maximumWeight(policy.maxEntries())
+              .expireAfterWrite(policy.expireAfterWrite(), unit)
+              .expireAfterAccess(policy.expireAfterAccess(), unit)
+              .refreshAfterWrite(policy.refreshAfterWrite(), unit);
+    }
+    return builder.build();
+  }
+
+  /**
+   *
+   * @param a
+   * @param b
+   * @return true if both policies create the same cache, whatever their key arguments.
+   */
+  private static boolean samePolicy(CacheIntercept a, CacheIntercept b) {
+    return a.maxEntries() == b.maxEntries()
+            && a.timeUnit().toNanos(a.expireAfterWrite()) == b.timeUnit().toNanos(b.expireAfterWrite())
+            && a.timeUnit().toNanos(a.expireAfterAccess()) == b.timeUnit().toNanos(b.expireAfterAccess())
+            && a.timeUnit().toNanos(a.refreshAfterWrite()) == b.timeUnit().toNanos(b.refreshAfterWrite());
+  }
+
+  /**
+   *
+   * @param method
+   * @param policy
+   * @return the indexes of the key arguments, or null for all of them.
+   */
+  private static int[] keyArgs(Method method, CacheIntercept policy) {
+    if (policy == null || policy.keyArgs().length == 0) {
+      return null;
+    }
+    int[] result = policy.keyArgs().clone();
+    for (int index : result) {
+      if (index < 0 || index >= method.getParameterCount()) {
+        throw new IllegalArgumentException(String.format(
+                "Key argument %d out of range for method '%s' with %d parameters",
+                index, method.getName(), method.getParameterCount()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The cache of a method, the arguments making up its keys and whether it returns a
+   * future.
+   */
+  private static class Target {
+
+    private final BoundedCache<Object, Object> cache;
+    private final int[] keyArgs;
+    private final boolean async;
+
+    Target(BoundedCache<Object, Object> cache, int[] keyArgs, boolean async) {
+      this.cache = cache;
+      this.keyArgs = keyArgs;
+      this.async = async;
+    }
+
+    /**
+     *
+     * @param args
+     * @return
+     */
+    Object[] select(Object[] args) {
+      if (this.keyArgs == null || args == null) {
+        return args;
+      }
+      Object[] result = new Object[this.keyArgs.length];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = args[this.keyArgs[i]];
+      }
+      return result;
+    }
   }
 
   private static class MethodAndArgs {
+
     private final Method method;
     private final Object[] args;
+    private final int hash;
 
     public MethodAndArgs(Method method, Object[] args) {
       this.method = method;
-      this.args = args;
+      this.args = args == null ? new Object[0] : args.clone();
+      this.hash = 41 * (41 * 5 + Objects.hashCode(this.method)) + Arrays.deepHashCode(this.args);
     }
 
     @Override
     public int hashCode() {
-      int hash = 5;
-      hash = 41 * hash + Objects.hashCode(this.method);
-      hash = 41 * hash + Arrays.deepHashCode(this.args);
-      return hash;
+      return this.hash;
     }
 
     @Override
@@ -94,6 +302,6 @@ public class MethodCacheInterceptor implements InvocationHandler {
       }
       return true;
     }
-    
+
   }
 }
@@ -0,0 +1,236 @@
+package common.db;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Asynchronous facade over a {@linkplain DbConnection}. Every call is run on a bounded
+ * executor and returns a {@linkplain CompletableFuture}, so independent queries can
+ * overlap instead of running one after another.
+ *
+ * <p>
+ * When the JVM supports virtual threads every call gets its own virtual thread and the
+ * number of calls using a connection at the same time is capped by a semaphore.
+ * Otherwise a fixed pool of platform threads of that size is used. The cap defaults to
+ * the maximum size of a {@linkplain HikariConnectionPool}, so callers queue here rather
+ * than on the pool.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class AsyncDbConnection implements Closeable {
+
+  private final DbConnection db;
+  private final ExecutorService executor;
+  private final Semaphore permits;
+
+  /**
+   *
+   * @param db
+   */
+  public AsyncDbConnection(DbConnection db) {
+    this(db, defaultConcurrency(db));
+  }
+
+  /**
+   *
+   * @param db
+   * @param maxConcurrency the maximum number of calls running at the same time.
+   */
+  public AsyncDbConnection(DbConnection db, int maxConcurrency) {
+    Objects.requireNonNull(db, "db cannot be null");
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("max concurrency must be greater than zero");
+    }
+    this.db = db;
+    ExecutorService virtual = newVirtualThreadExecutor();
+    if (virtual != null) {
+      this.executor = virtual;
+      this.permits = new Semaphore(maxConcurrency);
+    } else {
+      AtomicInteger count = new AtomicInteger();
+      this.executor = Executors.newFixedThreadPool(maxConcurrency, (r) -> {
+        Thread thread = new Thread(r, "async-db-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.permits = null;
+    }
+  }
+
+  /**
+   *
+   * @param db
+   * @return
+   */
+  private static int defaultConcurrency(DbConnection db) {
+    ConnectionPool pool = db.getConnPool();
+    int result;
+    if (pool instanceof HikariConnectionPool) {
+      result = ((HikariConnectionPool) pool).getMaximumPoolSize();
+    } else {
+      result = Runtime.getRuntime().availableProcessors();
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @return a virtual thread per task executor, or null if the JVM does not have
+   * virtual threads.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    ExecutorService result;
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      result = (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      result = null;
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public DbConnection getDbConnection() {
+    return this.db;
+  }
+
+  /**
+   * Runs any {@linkplain DbConnection} call asynchronously.
+   *
+   * @param <T>
+   * @param call
+   * @return
+   */
+  public <T> CompletableFuture<T> supplyAsync(Function<DbConnection, T> call) {
+    return CompletableFuture.supplyAsync(() -> {
+      if (this.permits == null) {
+        return call.apply(this.db);
+      }
+      try {
+        this.permits.acquire();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(ex);
+      }
+      try {
+        return call.apply(this.db);
+      } finally {
+        this.permits.release();
+      }
+    }, this.executor);
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param sql
+   * @param mapper
+   * @return
+   */
+  public <T> CompletableFuture<List<T>> executeQuery(String sql, ResultMapper<T> mapper) {
+    return this.supplyAsync((db) -> db.executeQuery(sql, mapper));
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param sql
+   * @param mapper
+   * @return
+   */
+  public <T> CompletableFuture<T> executeSingleResultQuery(String sql, ResultMapper<T> mapper) {
+    return this.supplyAsync((db) -> db.executeSingleResultQuery(sql, mapper));
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param sql
+   * @param column
+   * @param clazz
+   * @return
+   */
+  public <T> CompletableFuture<T> executeSingleResultQuery(String sql, String column, Class<T> clazz) {
+    return this.supplyAsync((db) -> db.executeSingleResultQuery(sql, column, clazz));
+  }
+
+  /**
+   *
+   * @param sql
+   * @param schema
+   * @return
+   */
+  public CompletableFuture<ColumnarResult> executeColumnarQuery(String sql, ColumnarResult.Schema schema) {
+    return this.supplyAsync((db) -> db.executeColumnarQuery(sql, schema));
+  }
+
+  /**
+   *
+   * @param statement
+   * @return
+   */
+  public CompletableFuture<Integer> executeStatement(String statement) {
+    return this.supplyAsync((db) -> db.executeStatement(statement));
+  }
+
+  /**
+   *
+   * @param statements
+   * @return
+   */
+  public CompletableFuture<int[]> executeStatements(String... statements) {
+    return this.supplyAsync((db) -> db.executeStatements(statements));
+  }
+
+  /**
+   *
+   * @param table
+   * @param record
+   * @return
+   */
+  public CompletableFuture<Integer> executeInsert(String table, RecordValue record) {
+    return this.supplyAsync((db) -> db.executeInsert(table, record));
+  }
+
+  /**
+   *
+   * @param table
+   * @param record
+   * @param pk
+   * @return
+   */
+  public CompletableFuture<Integer> executeUpsert(String table, RecordValue record, String... pk) {
+    return this.supplyAsync((db) -> db.executeUpsert(table, record, pk));
+  }
+
+  /**
+   *
+   * @param table
+   * @param records
+   * @param pk
+   * @return
+   */
+  public CompletableFuture<Integer> executeUpsert(String table, List<RecordValue> records, String... pk) {
+    return this.supplyAsync((db) -> db.executeUpsert(table, records, pk));
+  }
+
+  /**
+   * Stops accepting calls. Calls already submitted are completed. The underlying
+   * {@linkplain DbConnection} is not closed.
+   */
+  @Override
+  public void close() {
+    this.executor.shutdown();
+  }
+}
@@ -0,0 +1,383 @@
+package common.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Bulk <code>insert ... on conflict do update</code> of {@linkplain RecordValue}s.
+ *
+ * <p>
+ * In {@linkplain Mode#PREPARED} mode the records are bound to a multi-row insert of
+ * <code>chunkSize</code> rows. The statement text only depends on the table, the column
+ * set and the chunk size, so it is built once and the driver can reuse the server side
+ * plan across chunks and calls. The rows that do not fill a complete chunk are sent as a
+ * batch of single-row inserts, so at most two statements exist per column set.</p>
+ *
+ * <p>
+ * Numbers, booleans and date times are bound with their own type. Any other value is
+ * bound as untyped text, as literals were before the values were bound, so the server
+ * still converts it to the type of its column (e.g. numeric, date or geometry from a
+ * string, or a JTS geometry from its WKT) and both modes accept the same values.</p>
+ *
+ * <p>
+ * In {@linkplain Mode#COPY_STAGING} mode the records are copied into a temporary table
+ * which is then merged into the target with a single statement.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class BatchUpsert {
+
+  /**
+   *
+   */
+  public static enum Mode {
+    PREPARED, COPY_STAGING
+  }
+
+  /**
+   * Default number of rows per multi-row insert.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 500;
+
+  /**
+   * Maximum number of bind parameters in a single statement.
+   */
+  private static final int MAX_PARAMETERS = 32767;
+  private static final int MAX_CACHED_STATEMENTS = 256;
+  private static final Map<String, String> STATEMENTS = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return this.size() > MAX_CACHED_STATEMENTS;
+    }
+  };
+
+  private final DbConnection db;
+  private final String table;
+  private final Mode mode;
+  private final int chunkSize;
+  private final String[] pk;
+
+  /**
+   *
+   * @param db
+   * @param table
+   * @param mode
+   * @param chunkSize
+   * @param pk
+   */
+  public BatchUpsert(DbConnection db, String table, Mode mode, int chunkSize, String... pk) {
+    Objects.requireNonNull(db, "Db connection cannot be null");
+    Objects.requireNonNull(pk, "Primary key field name cannot be null");
+    Objects.requireNonNull(table, "table cannot be null");
+    Objects.requireNonNull(mode, "mode cannot be null");
+    if (pk.length == 0) {
+      throw new IllegalArgumentException("No primary key field names specified cannot be empty");
+    }
+    if (table.trim().isEmpty()) {
+      throw new IllegalArgumentException("table string cannot be empty");
+    }
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("chunk size must be greater than zero");
+    }
+    this.db = db;
+    this.table = table;
+    this.mode = mode;
+    this.chunkSize = chunkSize;
+    this.pk = pk;
+  }
+
+  /**
+   *
+   * @param records
+   * @return the number of affected rows.
+   */
+  public int execute(List<RecordValue> records) {
+    Objects.requireNonNull(records, "Records cannot be null");
+    if (records.isEmpty()) {
+      return 0;
+    }
+    List<String> columns = new ArrayList<>(new TreeSet<>(records.get(0).keySet()));
+    List<String> updateColumns = new ArrayList<>(new TreeSet<>(records.get(0).keySetNoPk()));
+    int result;
+    Connection conn = this.db.getConnection();
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      conn.setAutoCommit(false);
+      if (this.mode == Mode.COPY_STAGING) {
+        result = this.executeStaged(conn, records, columns, updateColumns);
+      } else {
+        result = this.executePrepared(conn, records, columns, updateColumns);
+      }
+      conn.commit();
+      success = true;
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException rollbackEx) {
+        throw new RuntimeException("Rollback failed: " + rollbackEx.getMessage(), rollbackEx);
+      }
+      throw new RuntimeException(String.format("Upsert into '%s' failed: %s", this.table, ex.getMessage()), ex);
+    } finally {
+      this.db.getConnPool().getMetrics().statementExecuted("upsert into " + this.table,
+              System.nanoTime() - start, success ? records.size() : -1, -1, success);
+      try {
+        conn.close();
+      } catch (SQLException ex) {
+        Logger.getLogger(BatchUpsert.class.getName())
+                .log(Level.SEVERE, "An error occurred while closing the connection. ", ex);
+      }
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param conn
+   * @param records
+   * @param columns
+   * @param updateColumns
+   * @return
+   * @throws SQLException
+   */
+  private int executePrepared(Connection conn, List<RecordValue> records,
+          List<String> columns, List<String> updateColumns) throws SQLException {
+    int rowsPerChunk = Math.max(1, Math.min(this.chunkSize, MAX_PARAMETERS / columns.size()));
+    int fullChunks = records.size() / rowsPerChunk;
+    int result = 0;
+    int index = 0;
+    if (fullChunks > 0 && rowsPerChunk > 1) {
+      String sql = getStatement(this.table, this.pk, columns, updateColumns, rowsPerChunk);
+      try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        for (int chunk = 0; chunk < fullChunks; chunk++) {
+          int param = 1;
+          for (int i = 0; i < rowsPerChunk; i++) {
+            param = this.bind(statement, param, records.get(index++), columns);
+          }
+          statement.addBatch();
+        }
+        result += sum(statement.executeBatch());
+      }
+    }
+    if (index < records.size()) {
+      String sql = getStatement(this.table, this.pk, columns, updateColumns, 1);
+      try (PreparedStatement statement = conn.prepareStatement(sql)) {
+        while (index < records.size()) {
+          this.bind(statement, 1, records.get(index++), columns);
+          statement.addBatch();
+        }
+        result += sum(statement.executeBatch());
+      }
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param conn
+   * @param records
+   * @param columns
+   * @param updateColumns
+   * @return
+   * @throws SQLException
+   */
+  private int executeStaged(Connection conn, List<RecordValue> records,
+          List<String> columns, List<String> updateColumns) throws SQLException {
+    String columnList = String.join(", ", columns);
+    String stage = "upsert_stage_" + Long.toHexString(System.nanoTime());
+    try (Statement stmt = conn.createStatement()) {
+      stmt.execute(String.format("create temp table %s on commit drop as select %s from %s with no data",
+              stage, columnList, this.table));
+    }
+    CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+    String copySql = String.format("COPY %s (%s) FROM STDIN (FORMAT csv)", stage, columnList);
+    CopyInBuffer buffer = new CopyInBuffer(copyManager.copyIn(copySql), CopyInBuffer.DEFAULT_SIZE, null);
+    try {
+      StringBuilder line = new StringBuilder();
+      for (RecordValue record : records) {
+        line.setLength(0);
+        for (int i = 0; i < columns.size(); i++) {
+          if (i > 0) {
+            line.append(',');
+          }
+          appendCsv(line, record.get(columns.get(i)));
+        }
+        buffer.writeRow(line);
+      }
+      buffer.endCopy();
+    } catch (SQLException | RuntimeException ex) {
+      buffer.cancel();
+      throw ex;
+    }
+    String merge = String.format("insert into %s (%s) select %s from %s %s",
+            this.table, columnList, columnList, stage, getConflictClause(this.pk, updateColumns));
+    try (Statement stmt = conn.createStatement()) {
+      return stmt.executeUpdate(merge);
+    }
+  }
+
+  /**
+   *
+   * @param table
+   * @param pk
+   * @param columns
+   * @param updateColumns
+   * @param rows
+   * @return the statement, built once per table, column set and number of rows and kept
+   * while it is among the most recently used.
+   */
+  static String getStatement(String table, String[] pk, List<String> columns, List<String> updateColumns, int rows) {
+    String key = table + "|" + columns + "|" + Arrays.toString(pk) + "|" + rows;
+    String result;
+    synchronized (STATEMENTS) {
+      result = STATEMENTS.get(key);
+    }
+    if (result == null) {
+      String sql = buildStatement(table, pk, columns, updateColumns, rows);
+      synchronized (STATEMENTS) {
+        result = STATEMENTS.putIfAbsent(key, sql);
+      }
+      if (result == null) {
+        result = sql;
+      }
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param table
+   * @param pk
+   * @param columns
+   * @param updateColumns
+   * @param rows
+   * @return
+   */
+  private static String buildStatement(String table, String[] pk, List<String> columns,
+          List<String> updateColumns, int rows) {
+    StringBuilder row = new StringBuilder("(");
+    for (int i = 0; i < columns.size(); i++) {
+      row.append(i == 0 ? "?" : ", ?");
+    }
+    row.append(")");
+    StringBuilder sql = new StringBuilder("insert into ")
+            .append(table)
+            .append(" (").append(String.join(", ", columns)).append(")")
+            .append(" values ");
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(row);
+    }
+    sql.append(" ").append(getConflictClause(pk, updateColumns));
+    return sql.toString();
+  }
+
+  /**
+   *
+   * @param pk
+   * @param updateColumns
+   * @return
+   */
+  private static String getConflictClause(String[] pk, List<String> updateColumns) {
+    String conflict = "on conflict (" + String.join(",", pk) + ")";
+    String result;
+    if (updateColumns.isEmpty()) {
+      result = conflict + " do nothing";
+    } else if (updateColumns.size() == 1) {
+      String column = updateColumns.get(0);
+      result = conflict + " do update set " + column + " = excluded." + column;
+    } else {
+      List<String> excluded = new ArrayList<>();
+      for (String column : updateColumns) {
+        excluded.add("excluded." + column);
+      }
+      result = String.format("%s do update set (%s) = (%s)", conflict,
+              String.join(", ", updateColumns), String.join(", ", excluded));
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param statement
+   * @param param
+   * @param record
+   * @param columns
+   * @return the next parameter index.
+   * @throws SQLException
+   */
+  private int bind(PreparedStatement statement, int param, RecordValue record, List<String> columns)
+          throws SQLException {
+    for (String column : columns) {
+      Object value = record.get(column);
+      if (value == null || value instanceof Number || value instanceof Boolean
+              || value instanceof ZonedDateTime) {
+        DbConnection.setParamValue(statement, param++, value);
+      } else {
+        statement.setObject(param++, String.valueOf(value), Types.OTHER);
+      }
+    }
+    return param;
+  }
+
+  /**
+   *
+   * @param line
+   * @param value
+   */
+  static void appendCsv(StringBuilder line, Object value) {
+    if (value == null) {
+      return;
+    }
+    if (value instanceof Number || value instanceof Boolean) {
+      line.append(value);
+      return;
+    }
+    String text = value instanceof ZonedDateTime
+            ? DateTimeFormatter.ISO_OFFSET_DATE_TIME.format((ZonedDateTime) value)
+            : String.valueOf(value);
+    boolean quote = text.isEmpty();
+    for (int i = 0; i < text.length() && !quote; i++) {
+      char c = text.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (quote) {
+      line.append('"').append(text.replace("\"", "\"\"")).append('"');
+    } else {
+      line.append(text);
+    }
+  }
+
+  /**
+   *
+   * @param counts
+   * @return
+   */
+  private static int sum(int[] counts) {
+    int result = 0;
+    for (int count : counts) {
+      if (count > 0) {
+        result += count;
+      }
+    }
+    return result;
+  }
+}
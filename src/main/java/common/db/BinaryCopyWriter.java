@@ -0,0 +1,527 @@
+package common.db;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.WKBWriter;
+
+/**
+ * Encodes rows in the PostgreSQL binary COPY format. Values are written field by field
+ * directly into a {@linkplain CopyInBuffer}, so numbers, timestamps and arrays are never
+ * formatted as text on the client nor parsed on the server.
+ *
+ * <p>
+ * Each row is started by the caller of the mapper with {@linkplain #startRow(int)}; the
+ * mapper then writes exactly one value per column, in the order of the COPY target
+ * columns. Column types must match the table types (e.g. {@linkplain #writeInt(int)}
+ * for int4, {@linkplain #writeDouble(double)} for float8).</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class BinaryCopyWriter {
+
+  private static final byte[] SIGNATURE = {
+    'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0
+  };
+  private static final long POSTGRES_EPOCH_MICROS = 946684800000000L;
+  private static final int INT4_OID = 23;
+  private static final int INT8_OID = 20;
+  private static final int FLOAT8_OID = 701;
+
+  private final CopyInBuffer buffer;
+  private WKBWriter wkbWriter2d;
+  private WKBWriter wkbWriter3d;
+  private int columns = 0;
+  private int written = 0;
+
+  /**
+   *
+   * @param buffer
+   */
+  BinaryCopyWriter(CopyInBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   *
+   * @throws SQLException
+   */
+  void writeHeader() throws SQLException {
+    this.buffer.write(SIGNATURE, 0, SIGNATURE.length);
+    this.buffer.writeInt(0);
+    this.buffer.writeInt(0);
+  }
+
+  /**
+   *
+   * @throws SQLException
+   */
+  void writeTrailer() throws SQLException {
+    this.buffer.writeShort(-1);
+  }
+
+  /**
+   * Starts a new row with the given number of columns.
+   *
+   * @param columns
+   * @return
+   */
+  public BinaryCopyWriter startRow(int columns) {
+    if (this.written != this.columns) {
+      throw new IllegalStateException(String.format(
+              "Previous row has %d values but %d columns were declared", this.written, this.columns));
+    }
+    this.columns = columns;
+    this.written = 0;
+    try {
+      this.buffer.writeShort(columns);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Completes the current row.
+   */
+  void endRow() {
+    if (this.written != this.columns) {
+      throw new IllegalStateException(String.format(
+              "Row has %d values but %d columns were declared", this.written, this.columns));
+    }
+    this.buffer.endRow();
+  }
+
+  /**
+   *
+   * @return
+   */
+  public BinaryCopyWriter writeNull() {
+    try {
+      this.next();
+      this.buffer.writeInt(-1);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a bool value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeBoolean(boolean value) {
+    try {
+      this.next();
+      this.buffer.writeInt(1);
+      this.buffer.writeByte(value ? 1 : 0);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes an int2 value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeShort(short value) {
+    try {
+      this.next();
+      this.buffer.writeInt(2);
+      this.buffer.writeShort(value);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes an int4 value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeInt(int value) {
+    try {
+      this.next();
+      this.buffer.writeInt(4);
+      this.buffer.writeInt(value);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes an int8 value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeLong(long value) {
+    try {
+      this.next();
+      this.buffer.writeInt(8);
+      this.buffer.writeLong(value);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a float4 value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeFloat(float value) {
+    try {
+      this.next();
+      this.buffer.writeInt(4);
+      this.buffer.writeInt(Float.floatToIntBits(value));
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a float8 value. NaN is written as the float8 NaN value, use
+   * {@linkplain #writeDoubleOrNull(double)} to store it as null instead.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeDouble(double value) {
+    try {
+      this.next();
+      this.buffer.writeInt(8);
+      this.buffer.writeLong(Double.doubleToLongBits(value));
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a float8 value, or null if the value is NaN.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeDoubleOrNull(double value) {
+    return Double.isNaN(value) ? this.writeNull() : this.writeDouble(value);
+  }
+
+  /**
+   * Writes a numeric value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeNumeric(BigDecimal value) {
+    if (value == null) {
+      return this.writeNull();
+    }
+    BigDecimal v = value.scale() < 0 ? value.setScale(0) : value;
+    String plain = v.abs().toPlainString();
+    int dot = plain.indexOf('.');
+    String intPart = dot < 0 ? plain : plain.substring(0, dot);
+    String fracPart = dot < 0 ? "" : plain.substring(dot + 1);
+    int intGroups = (intPart.length() + 3) / 4;
+    int fracGroups = (fracPart.length() + 3) / 4;
+    short[] digits = new short[intGroups + fracGroups];
+    int pad = intGroups * 4 - intPart.length();
+    for (int i = 0; i < intPart.length(); i++) {
+      int g = (i + pad) / 4;
+      digits[g] = (short) (digits[g] * 10 + (intPart.charAt(i) - '0'));
+    }
+    for (int i = 0; i < fracGroups * 4; i++) {
+      int g = intGroups + i / 4;
+      int d = i < fracPart.length() ? fracPart.charAt(i) - '0' : 0;
+      digits[g] = (short) (digits[g] * 10 + d);
+    }
+    int first = 0;
+    int weight = intGroups - 1;
+    while (first < digits.length && digits[first] == 0) {
+      first++;
+      weight--;
+    }
+    int last = digits.length;
+    while (last > first && digits[last - 1] == 0) {
+      last--;
+    }
+    int ndigits = last - first;
+    if (ndigits == 0) {
+      weight = 0;
+    }
+    try {
+      this.next();
+      this.buffer.writeInt(8 + 2 * ndigits);
+      this.buffer.writeShort(ndigits);
+      this.buffer.writeShort(weight);
+      this.buffer.writeShort(v.signum() < 0 ? 0x4000 : 0x0000);
+      this.buffer.writeShort(v.scale());
+      for (int i = first; i < last; i++) {
+        this.buffer.writeShort(digits[i]);
+      }
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a timestamptz value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeTimestamp(ZonedDateTime value) {
+    if (value == null) {
+      return this.writeNull();
+    }
+    long micros = value.toEpochSecond() * 1000000L + value.getNano() / 1000;
+    return this.writeTimestampMicros(micros);
+  }
+
+  /**
+   * Writes a timestamptz value given in epoch milliseconds.
+   *
+   * @param epochMillis
+   * @return
+   */
+  public BinaryCopyWriter writeTimestampMillis(long epochMillis) {
+    return this.writeTimestampMicros(epochMillis * 1000L);
+  }
+
+  /**
+   * Writes a timestamp (without time zone) value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeTimestamp(LocalDateTime value) {
+    if (value == null) {
+      return this.writeNull();
+    }
+    long micros = value.toEpochSecond(ZoneOffset.UTC) * 1000000L + value.getNano() / 1000;
+    return this.writeTimestampMicros(micros);
+  }
+
+  /**
+   *
+   * @param epochMicros
+   * @return
+   */
+  private BinaryCopyWriter writeTimestampMicros(long epochMicros) {
+    try {
+      this.next();
+      this.buffer.writeInt(8);
+      this.buffer.writeLong(epochMicros - POSTGRES_EPOCH_MICROS);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a text or varchar value.
+   *
+   * @param value
+   * @return
+   */
+  public BinaryCopyWriter writeText(String value) {
+    if (value == null) {
+      return this.writeNull();
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    try {
+      this.next();
+      this.buffer.writeInt(bytes.length);
+      this.buffer.write(bytes, 0, bytes.length);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a float8[] value.
+   *
+   * @param values
+   * @return
+   */
+  public BinaryCopyWriter writeDoubleArray(double[] values) {
+    if (values == null) {
+      return this.writeNull();
+    }
+    try {
+      this.startArray(values.length, FLOAT8_OID, 8);
+      for (double value : values) {
+        this.buffer.writeInt(8);
+        this.buffer.writeLong(Double.doubleToLongBits(value));
+      }
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes an int4[] value.
+   *
+   * @param values
+   * @return
+   */
+  public BinaryCopyWriter writeIntArray(int[] values) {
+    if (values == null) {
+      return this.writeNull();
+    }
+    try {
+      this.startArray(values.length, INT4_OID, 4);
+      for (int value : values) {
+        this.buffer.writeInt(4);
+        this.buffer.writeInt(value);
+      }
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes an int8[] value.
+   *
+   * @param values
+   * @return
+   */
+  public BinaryCopyWriter writeLongArray(long[] values) {
+    if (values == null) {
+      return this.writeNull();
+    }
+    try {
+      this.startArray(values.length, INT8_OID, 8);
+      for (long value : values) {
+        this.buffer.writeInt(8);
+        this.buffer.writeLong(value);
+      }
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   * Writes the field length and the header of a one dimensional array without nulls.
+   *
+   * @param length
+   * @param elementOid
+   * @param elementSize
+   * @throws SQLException
+   */
+  private void startArray(int length, int elementOid, int elementSize) throws SQLException {
+    this.next();
+    if (length == 0) {
+      this.buffer.writeInt(12);
+      this.buffer.writeInt(0);
+      this.buffer.writeInt(0);
+      this.buffer.writeInt(elementOid);
+    } else {
+      this.buffer.writeInt(20 + length * (4 + elementSize));
+      this.buffer.writeInt(1);
+      this.buffer.writeInt(0);
+      this.buffer.writeInt(elementOid);
+      this.buffer.writeInt(length);
+      this.buffer.writeInt(1);
+    }
+  }
+
+  /**
+   * Writes a PostGIS geometry value as EWKB. The SRID of the geometry is included, and
+   * the Z ordinates if any coordinate has one.
+   *
+   * @param geometry
+   * @return
+   * @throws IllegalArgumentException if the geometry has M ordinates, which the WKB
+   * writer of JTS cannot write.
+   */
+  public BinaryCopyWriter writeGeometry(Geometry geometry) {
+    if (geometry == null) {
+      return this.writeNull();
+    }
+    byte[] wkb;
+    if (hasZ(geometry)) {
+      if (this.wkbWriter3d == null) {
+        this.wkbWriter3d = new WKBWriter(3, ByteOrderValues.BIG_ENDIAN, true);
+      }
+      wkb = this.wkbWriter3d.write(geometry);
+    } else {
+      if (this.wkbWriter2d == null) {
+        this.wkbWriter2d = new WKBWriter(2, ByteOrderValues.BIG_ENDIAN, true);
+      }
+      wkb = this.wkbWriter2d.write(geometry);
+    }
+    try {
+      this.next();
+      this.buffer.writeInt(wkb.length);
+      this.buffer.write(wkb, 0, wkb.length);
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+    return this;
+  }
+
+  /**
+   *
+   * @param geometry
+   * @return true if any coordinate of the geometry has a Z ordinate.
+   */
+  private static boolean hasZ(Geometry geometry) {
+    boolean[] result = {false};
+    geometry.apply(new CoordinateSequenceFilter() {
+      @Override
+      public void filter(CoordinateSequence seq, int i) {
+        if (seq.hasM()) {
+          throw new IllegalArgumentException("Geometries with M ordinates are not supported: " + geometry);
+        }
+        result[0] |= !Double.isNaN(seq.getZ(i));
+      }
+
+      @Override
+      public boolean isDone() {
+        return false;
+      }
+
+      @Override
+      public boolean isGeometryChanged() {
+        return false;
+      }
+    });
+    return result[0];
+  }
+
+  /**
+   *
+   */
+  private void next() {
+    if (this.written >= this.columns) {
+      throw new IllegalStateException(String.format(
+              "Row already has the %d declared values", this.columns));
+    }
+    this.written++;
+  }
+}
@@ -0,0 +1,381 @@
+package common.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads a record source into a table with several COPY workers running on separate
+ * pooled connections. The source is read on the calling thread and split into
+ * partitions of a fixed number of records. At most <code>parallelism</code> partitions
+ * are copied at the same time and at most <code>maxPendingPartitions</code> wait for a
+ * worker, after that the caller blocks until a worker becomes free.
+ *
+ * <p>
+ * In {@linkplain Mode#INDEPENDENT} mode every partition is copied into the target table
+ * and committed on its own; if a partition fails the partitions already committed stay
+ * in the table. In {@linkplain Mode#ALL_OR_NOTHING} mode the partitions are copied into
+ * an unlogged staging table which is merged into the target in a single transaction
+ * once every partition has succeeded, and dropped otherwise.</p>
+ *
+ * <p>
+ * The loader writes through its own connection, so the results of the target table
+ * cached by other connections are only dropped if their {@linkplain QueryCache} is set
+ * on the builder.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class BulkLoader {
+
+  /**
+   *
+   */
+  public static enum Mode {
+    ALL_OR_NOTHING, INDEPENDENT
+  }
+
+  private final DbConnection db;
+  private final int parallelism;
+  private final int partitionSize;
+  private final int maxPendingPartitions;
+  private final int bufferSize;
+  private final Mode mode;
+  private final QueryCache queryCache;
+
+  /**
+   *
+   * @param pool
+   * @param parallelism
+   * @param partitionSize
+   * @param maxPendingPartitions
+   * @param bufferSize
+   * @param mode
+   * @param queryCache
+   */
+  private BulkLoader(ConnectionPool pool, int parallelism, int partitionSize,
+          int maxPendingPartitions, int bufferSize, Mode mode, QueryCache queryCache) {
+    this.db = new DbConnection(pool);
+    this.parallelism = parallelism;
+    this.partitionSize = partitionSize;
+    this.maxPendingPartitions = maxPendingPartitions;
+    this.bufferSize = bufferSize;
+    this.mode = mode;
+    this.queryCache = queryCache;
+  }
+
+  /**
+   * Loads the records using the CSV COPY format.
+   *
+   * @param <R>
+   * @param table the target table.
+   * @param columns the comma separated target columns.
+   * @param records
+   * @param recordToCsvLine converts a record into a CSV line (no trailing newline).
+   * @return the number of rows copied for each partition, in source order.
+   */
+  public <R> long[] load(String table, String columns, Iterator<R> records,
+          Function<R, ? extends CharSequence> recordToCsvLine) {
+    return this.load(table, columns, records, (target, partition) -> {
+      return this.db.executeDirectCopyToTable(null, null, target,
+              partition.iterator(), recordToCsvLine, this.bufferSize, null)[0];
+    });
+  }
+
+  /**
+   * Loads the records using the binary COPY format.
+   *
+   * @param <R>
+   * @param table the target table.
+   * @param columns the comma separated target columns.
+   * @param columnCount the number of target columns.
+   * @param records
+   * @param recordToColumns writes the column values of a record.
+   * @return the number of rows copied for each partition, in source order.
+   */
+  public <R> long[] loadBinary(String table, String columns, int columnCount, Iterator<R> records,
+          BiConsumer<R, BinaryCopyWriter> recordToColumns) {
+    return this.load(table, columns, records, (target, partition) -> {
+      return this.db.executeBinaryCopyToTable(null, null, target,
+              partition.iterator(), columnCount, recordToColumns, this.bufferSize, null)[0];
+    });
+  }
+
+  /**
+   *
+   * @param <R>
+   * @param table
+   * @param columns
+   * @param records
+   * @param copier
+   * @return
+   */
+  private <R> long[] load(String table, String columns, Iterator<R> records,
+          PartitionCopier<R> copier) {
+    Objects.requireNonNull(table, "table cannot be null");
+    Objects.requireNonNull(columns, "columns cannot be null");
+    Objects.requireNonNull(records, "records cannot be null");
+    String stage = this.mode == Mode.ALL_OR_NOTHING
+            ? stagingTable(table, "_bulk_" + Long.toHexString(System.nanoTime()))
+            : null;
+    if (stage != null) {
+      this.db.executeStatement(String.format(
+              "create unlogged table %s (like %s including defaults)", stage, table));
+    }
+    String target = (stage != null ? stage : table) + " (" + columns + ")";
+    long[] result;
+    try {
+      result = this.copyPartitions(records, (partition) -> {
+        long rows = copier.copy(target, partition);
+        if (this.mode == Mode.INDEPENDENT) {
+          // independent partitions are visible once committed.
+          this.invalidate(table);
+        }
+        return rows;
+      });
+      if (stage != null) {
+        this.db.executeStatements(
+                String.format("insert into %s (%s) select %s from %s", table, columns, columns, stage),
+                String.format("drop table %s", stage));
+        stage = null;
+      }
+    } finally {
+      this.invalidate(table);
+      if (stage != null) {
+        try {
+          this.db.executeStatement("drop table if exists " + stage);
+        } catch (RuntimeException ex) {
+          Logger.getLogger(BulkLoader.class.getName())
+                  .log(Level.SEVERE, "Could not drop staging table " + stage, ex);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Names the staging table of a target table, in the schema of the target. The name is
+   * the unquoted relation name, lower case unless it was quoted, followed by the suffix,
+   * and is quoted.
+   *
+   * @param table a possibly schema qualified and quoted table name.
+   * @param suffix
+   * @return
+   */
+  static String stagingTable(String table, String suffix) {
+    String name = table.trim();
+    int dot = -1;
+    boolean quoted = false;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      } else if (c == '.' && !quoted) {
+        dot = i;
+      }
+    }
+    String schema = dot < 0 ? null : name.substring(0, dot).trim();
+    String relation = name.substring(dot + 1).trim();
+    if (relation.length() > 1 && relation.startsWith("\"") && relation.endsWith("\"")) {
+      relation = relation.substring(1, relation.length() - 1).replace("\"\"", "\"");
+    } else {
+      relation = relation.toLowerCase(Locale.ROOT);
+    }
+    // identifiers are truncated to 63 bytes by the server.
+    int maxLength = 63 - suffix.length();
+    while (relation.getBytes(StandardCharsets.UTF_8).length > maxLength) {
+      relation = relation.substring(0, relation.length() - 1);
+    }
+    String result = "\"" + (relation + suffix).replace("\"", "\"\"") + "\"";
+    return schema == null ? result : schema + "." + result;
+  }
+
+  /**
+   * Drops the cached results of the table.
+   *
+   * @param table
+   */
+  private void invalidate(String table) {
+    if (this.queryCache != null) {
+      this.queryCache.invalidateTables(Collections.singletonList(table));
+    }
+  }
+
+  /**
+   *
+   * @param <R>
+   * @param records
+   * @param copier
+   * @return
+   */
+  private <R> long[] copyPartitions(Iterator<R> records, ToLongFunction<List<R>> copier) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(this.parallelism, (r) -> {
+      Thread thread = new Thread(r, "bulk-loader-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    Semaphore permits = new Semaphore(this.parallelism + this.maxPendingPartitions);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Future<Long>> futures = new ArrayList<>();
+    try {
+      while (records.hasNext() && failure.get() == null) {
+        List<R> partition = new ArrayList<>(this.partitionSize);
+        while (records.hasNext() && partition.size() < this.partitionSize) {
+          partition.add(records.next());
+        }
+        permits.acquire();
+        futures.add(executor.submit(() -> {
+          try {
+            return copier.applyAsLong(partition);
+          } catch (RuntimeException | Error ex) {
+            failure.compareAndSet(null, ex);
+            throw ex;
+          } finally {
+            permits.release();
+          }
+        }));
+      }
+      long[] result = new long[futures.size()];
+      for (int i = 0; i < result.length; i++) {
+        try {
+          result[i] = futures.get(i).get();
+        } catch (ExecutionException ex) {
+          failure.compareAndSet(null, ex.getCause());
+        }
+      }
+      if (failure.get() != null) {
+        throw new RuntimeException("Bulk load failed: " + failure.get().getMessage(), failure.get());
+      }
+      return result;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ex);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   *
+   * @param <R>
+   */
+  @FunctionalInterface
+  private static interface PartitionCopier<R> {
+
+    long copy(String target, List<R> partition);
+  }
+
+  /**
+   *
+   */
+  public static class Builder {
+
+    private ConnectionPool pool;
+    private Integer parallelism;
+    private int partitionSize = 100000;
+    private Integer maxPendingPartitions;
+    private int bufferSize = CopyInBuffer.DEFAULT_SIZE;
+    private Mode mode = Mode.ALL_OR_NOTHING;
+    private QueryCache queryCache;
+
+    public Builder setPool(ConnectionPool pool) {
+      this.pool = pool;
+      return this;
+    }
+
+    /**
+     * The number of partitions copied at the same time. Defaults to the maximum pool
+     * size of a {@linkplain HikariConnectionPool}, or the number of processors.
+     *
+     * @param parallelism
+     * @return
+     */
+    public Builder setParallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    public Builder setPartitionSize(int partitionSize) {
+      this.partitionSize = partitionSize;
+      return this;
+    }
+
+    /**
+     * The number of partitions that can wait for a worker before the source stops being
+     * read. Defaults to the parallelism.
+     *
+     * @param maxPendingPartitions
+     * @return
+     */
+    public Builder setMaxPendingPartitions(int maxPendingPartitions) {
+      this.maxPendingPartitions = maxPendingPartitions;
+      return this;
+    }
+
+    public Builder setBufferSize(int bufferSize) {
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    public Builder setMode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    /**
+     * The cache whose results of the target table are dropped by the load, e.g.
+     * <code>db.getQueryCache()</code>.
+     *
+     * @param queryCache
+     * @return
+     */
+    public Builder setQueryCache(QueryCache queryCache) {
+      this.queryCache = queryCache;
+      return this;
+    }
+
+    public BulkLoader build() {
+      Objects.requireNonNull(this.pool, "pool cannot be null");
+      Objects.requireNonNull(this.mode, "mode cannot be null");
+      int _parallelism;
+      if (this.parallelism != null) {
+        _parallelism = this.parallelism;
+      } else if (this.pool instanceof HikariConnectionPool) {
+        _parallelism = ((HikariConnectionPool) this.pool).getMaximumPoolSize();
+      } else {
+        _parallelism = Runtime.getRuntime().availableProcessors();
+      }
+      if (_parallelism < 1) {
+        throw new IllegalArgumentException("parallelism must be greater than zero");
+      }
+      if (this.partitionSize < 1) {
+        throw new IllegalArgumentException("partition size must be greater than zero");
+      }
+      int _maxPending = this.maxPendingPartitions != null ? this.maxPendingPartitions : _parallelism;
+      if (_maxPending < 0) {
+        throw new IllegalArgumentException("max pending partitions cannot be negative");
+      }
+      if (this.bufferSize < 16) {
+        throw new IllegalArgumentException("buffer size must be at least 16 bytes");
+      }
+      return new BulkLoader(this.pool, _parallelism, this.partitionSize, _maxPending, this.bufferSize, this.mode,
+              this.queryCache);
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package common.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Query result stored column by column in primitive arrays. Each column of the
+ * {@linkplain Schema} is read from the result set with the primitive getter of its
+ * {@linkplain Type} and appended to a growable array, together with a null bitmap, so
+ * reading a row does not allocate any objects (except for timestamps, which the driver
+ * returns as {@linkplain Timestamp}s).
+ *
+ * <p>
+ * Null doubles are stored as NaN, other null values as zero; use
+ * {@linkplain #isNull(int, int)} to tell them apart from real values.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class ColumnarResult {
+
+  /**
+   *
+   */
+  public static enum Type {
+    /**
+     * Read with {@linkplain ResultSet#getDouble(int)}.
+     */
+    DOUBLE,
+    /**
+     * Read with {@linkplain ResultSet#getLong(int)}.
+     */
+    LONG,
+    /**
+     * Read with {@linkplain ResultSet#getInt(int)}.
+     */
+    INT,
+    /**
+     * Read with {@linkplain ResultSet#getTimestamp(int)} and stored as epoch millis in a
+     * long array.
+     */
+    EPOCH_MILLIS
+  }
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final String[] names;
+  private final Type[] types;
+  private final double[][] doubles;
+  private final long[][] longs;
+  private final int[][] ints;
+  private final long[][] nulls;
+  private int[] indexes;
+  private int capacity = INITIAL_CAPACITY;
+  private int size = 0;
+
+  /**
+   *
+   * @param schema
+   */
+  ColumnarResult(Schema schema) {
+    int n = schema.names.size();
+    this.names = schema.names.toArray(new String[n]);
+    this.types = schema.types.toArray(new Type[n]);
+    this.doubles = new double[n][];
+    this.longs = new long[n][];
+    this.ints = new int[n][];
+    this.nulls = new long[n][];
+    for (int c = 0; c < n; c++) {
+      switch (this.types[c]) {
+        case DOUBLE:
+          this.doubles[c] = new double[this.capacity];
+          break;
+        case INT:
+          this.ints[c] = new int[this.capacity];
+          break;
+        default:
+          this.longs[c] = new long[this.capacity];
+      }
+      this.nulls[c] = new long[(this.capacity + 63) >>> 6];
+    }
+  }
+
+  /**
+   * Appends the current row of the result set.
+   *
+   * @param rs
+   */
+  void readRow(ResultSet rs) {
+    try {
+      if (this.indexes == null) {
+        this.indexes = new int[this.names.length];
+        for (int c = 0; c < this.names.length; c++) {
+          this.indexes[c] = rs.findColumn(this.names[c]);
+        }
+      }
+      if (this.size == this.capacity) {
+        this.grow();
+      }
+      int row = this.size;
+      for (int c = 0; c < this.names.length; c++) {
+        int index = this.indexes[c];
+        boolean isNull;
+        switch (this.types[c]) {
+          case DOUBLE:
+            double d = rs.getDouble(index);
+            isNull = rs.wasNull();
+            this.doubles[c][row] = isNull ? Double.NaN : d;
+            break;
+          case INT:
+            this.ints[c][row] = rs.getInt(index);
+            isNull = rs.wasNull();
+            break;
+          case LONG:
+            this.longs[c][row] = rs.getLong(index);
+            isNull = rs.wasNull();
+            break;
+          default:
+            Timestamp t = rs.getTimestamp(index);
+            isNull = t == null;
+            this.longs[c][row] = isNull ? 0L : t.getTime();
+        }
+        if (isNull) {
+          this.nulls[c][row >>> 6] |= 1L << row;
+        }
+      }
+      this.size++;
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   *
+   */
+  private void grow() {
+    int newCapacity = this.capacity << 1;
+    for (int c = 0; c < this.names.length; c++) {
+      if (this.doubles[c] != null) {
+        this.doubles[c] = Arrays.copyOf(this.doubles[c], newCapacity);
+      }
+      if (this.longs[c] != null) {
+        this.longs[c] = Arrays.copyOf(this.longs[c], newCapacity);
+      }
+      if (this.ints[c] != null) {
+        this.ints[c] = Arrays.copyOf(this.ints[c], newCapacity);
+      }
+      this.nulls[c] = Arrays.copyOf(this.nulls[c], (newCapacity + 63) >>> 6);
+    }
+    this.capacity = newCapacity;
+  }
+
+  /**
+   *
+   * @return the number of rows.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   *
+   * @param name
+   * @return the position of the column in the schema.
+   */
+  public int getColumnIndex(String name) {
+    for (int c = 0; c < this.names.length; c++) {
+      if (this.names[c].equals(name)) {
+        return c;
+      }
+    }
+    throw new IllegalArgumentException("Column '" + name + "' is not in the schema");
+  }
+
+  /**
+   *
+   * @param column
+   * @param row
+   * @return
+   */
+  public boolean isNull(int column, int row) {
+    this.checkRow(row);
+    return (this.nulls[column][row >>> 6] & (1L << row)) != 0;
+  }
+
+  /**
+   *
+   * @param column
+   * @param row
+   * @return
+   */
+  public double getDouble(int column, int row) {
+    this.checkRow(row);
+    return this.column(this.doubles, column, Type.DOUBLE)[row];
+  }
+
+  /**
+   *
+   * @param column
+   * @param row
+   * @return
+   */
+  public long getLong(int column, int row) {
+    this.checkRow(row);
+    return this.column(this.longs, column, null)[row];
+  }
+
+  /**
+   *
+   * @param column
+   * @param row
+   * @return
+   */
+  public int getInt(int column, int row) {
+    this.checkRow(row);
+    return this.column(this.ints, column, Type.INT)[row];
+  }
+
+  /**
+   *
+   * @param name
+   * @return a copy of the values of a {@linkplain Type#DOUBLE} column, trimmed to the
+   * number of rows.
+   */
+  public double[] getDoubles(String name) {
+    return Arrays.copyOf(this.column(this.doubles, this.getColumnIndex(name), Type.DOUBLE), this.size);
+  }
+
+  /**
+   *
+   * @param name
+   * @return a copy of the values of a {@linkplain Type#LONG} or
+   * {@linkplain Type#EPOCH_MILLIS} column, trimmed to the number of rows.
+   */
+  public long[] getLongs(String name) {
+    return Arrays.copyOf(this.column(this.longs, this.getColumnIndex(name), null), this.size);
+  }
+
+  /**
+   *
+   * @param name
+   * @return a copy of the values of a {@linkplain Type#INT} column, trimmed to the
+   * number of rows.
+   */
+  public int[] getInts(String name) {
+    return Arrays.copyOf(this.column(this.ints, this.getColumnIndex(name), Type.INT), this.size);
+  }
+
+  /**
+   *
+   * @param <A>
+   * @param arrays
+   * @param column
+   * @param type
+   * @return
+   */
+  private <A> A column(A[] arrays, int column, Type type) {
+    A result = arrays[column];
+    if (result == null) {
+      throw new IllegalArgumentException(String.format("Column '%s' is of type %s, not %s",
+              this.names[column], this.types[column], type == null ? "LONG or EPOCH_MILLIS" : type));
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param row
+   */
+  private void checkRow(int row) {
+    if (row < 0 || row >= this.size) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for size " + this.size);
+    }
+  }
+
+  /**
+   * The columns to read from a query, in order.
+   */
+  public static class Schema {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Type> types = new ArrayList<>();
+
+    /**
+     *
+     * @param name the result set column label.
+     * @param type
+     * @return
+     */
+    public Schema add(String name, Type type) {
+      Objects.requireNonNull(name, "name cannot be null");
+      Objects.requireNonNull(type, "type cannot be null");
+      if (this.names.contains(name)) {
+        throw new IllegalArgumentException("Column '" + name + "' already added");
+      }
+      this.names.add(name);
+      this.types.add(type);
+      return this;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package common.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named parameter query parsed once and shared by every
+ * {@linkplain NamedParamStatement} created with the same SQL text. Holds the JDBC SQL
+ * (parameters replaced by <code>?</code>) and the positions of each parameter name.
+ * The most recently used queries are kept.
+ *
+ * <p>
+ * A parameter is a colon followed by a letter or an underscore and word characters.
+ * Colons inside quoted literals, quoted identifiers and line comments, and the
+ * <code>::</code> of casts, are not parameters.</p>
+ *
+ * <p>
+ * Because the JDBC SQL of a compiled query is always the same string, the driver can
+ * reuse the server side prepared statement it keeps for each pooled connection.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public final class CompiledQuery {
+
+  private static final int MAX_CACHED_QUERIES = 2048;
+  private static final Map<String, CompiledQuery> CACHE = new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+      return this.size() > MAX_CACHED_QUERIES;
+    }
+  };
+  private static final int[] NO_INDEXES = new int[0];
+
+  private final String sql;
+  private final Map<String, int[]> indexes;
+  private final AtomicLong uses = new AtomicLong();
+
+  /**
+   *
+   * @param sql
+   * @param indexes
+   */
+  private CompiledQuery(String sql, Map<String, int[]> indexes) {
+    this.sql = sql;
+    this.indexes = indexes;
+  }
+
+  /**
+   * Returns the compiled form of the named parameter query, parsing it only the first
+   * time it is seen.
+   *
+   * @param namedSql
+   * @return
+   */
+  public static CompiledQuery compile(String namedSql) {
+    CompiledQuery result;
+    synchronized (CACHE) {
+      result = CACHE.get(namedSql);
+    }
+    if (result == null) {
+      CompiledQuery parsed = parse(namedSql);
+      synchronized (CACHE) {
+        result = CACHE.putIfAbsent(namedSql, parsed);
+      }
+      if (result == null) {
+        result = parsed;
+      }
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param namedSql
+   * @return
+   */
+  static CompiledQuery parse(String namedSql) {
+    Map<String, List<Integer>> positions = new LinkedHashMap<>();
+    StringBuilder jdbcSql = new StringBuilder(namedSql.length());
+    int index = 0;
+    int n = namedSql.length();
+    int pos = 0;
+    while (pos < n) {
+      char c = namedSql.charAt(pos);
+      int end;
+      if (c == '\'' || c == '"') {
+        // a doubled quote inside the literal is part of it.
+        end = namedSql.indexOf(c, pos + 1);
+        while (end >= 0 && end + 1 < n && namedSql.charAt(end + 1) == c) {
+          end = namedSql.indexOf(c, end + 2);
+        }
+        end = end < 0 ? n : end + 1;
+      } else if (c == '-' && pos + 1 < n && namedSql.charAt(pos + 1) == '-') {
+        end = namedSql.indexOf('\n', pos);
+        end = end < 0 ? n : end;
+      } else if (c == ':' && pos + 1 < n && namedSql.charAt(pos + 1) == ':') {
+        end = pos + 2;
+      } else if (c == ':' && pos + 1 < n
+              && (Character.isLetter(namedSql.charAt(pos + 1)) || namedSql.charAt(pos + 1) == '_')) {
+        end = pos + 2;
+        while (end < n && (Character.isLetterOrDigit(namedSql.charAt(end)) || namedSql.charAt(end) == '_')) {
+          end++;
+        }
+        index++;
+        positions.computeIfAbsent(namedSql.substring(pos + 1, end), (k) -> new ArrayList<>()).add(index);
+        jdbcSql.append('?');
+        pos = end;
+        continue;
+      } else {
+        end = pos + 1;
+      }
+      jdbcSql.append(namedSql, pos, end);
+      pos = end;
+    }
+    Map<String, int[]> indexes = new HashMap<>();
+    for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+      List<Integer> list = entry.getValue();
+      int[] arr = new int[list.size()];
+      for (int i = 0; i < arr.length; i++) {
+        arr[i] = list.get(i);
+      }
+      indexes.put(entry.getKey(), arr);
+    }
+    return new CompiledQuery(jdbcSql.toString(), Collections.unmodifiableMap(indexes));
+  }
+
+  /**
+   *
+   * @return the SQL with the named parameters replaced by <code>?</code>.
+   */
+  public String getSql() {
+    return this.sql;
+  }
+
+  /**
+   *
+   * @param name
+   * @return the 1-based JDBC parameter indexes of the named parameter. Empty if the
+   * name is not used in the query.
+   */
+  public int[] getIndexes(String name) {
+    int[] result = this.indexes.get(name);
+    return result == null ? NO_INDEXES : result;
+  }
+
+  /**
+   *
+   * @return the number of statements created from this query so far.
+   */
+  long markUsed() {
+    return this.uses.incrementAndGet();
+  }
+}
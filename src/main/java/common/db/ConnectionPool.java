@@ -36,4 +36,22 @@ public interface ConnectionPool extends Closeable {
   public String getUser();
 
   public String getPassword();
+
+  /**
+   * The metrics receiving the connection and statement timings of this pool.
+   *
+   * @return
+   */
+  public default PoolMetrics getMetrics() {
+    return PoolMetrics.NONE;
+  }
+
+  /**
+   * Sets the metrics receiving the timings of this pool. Does nothing by default, for
+   * pools that do not record timings, whose metrics are {@linkplain PoolMetrics#NONE}.
+   *
+   * @param metrics
+   */
+  public default void setMetrics(PoolMetrics metrics) {
+  }
 }
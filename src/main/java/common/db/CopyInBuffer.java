@@ -0,0 +1,253 @@
+package common.db;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.function.LongConsumer;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Fixed size write buffer on top of a {@linkplain CopyIn} handle. Rows are encoded
+ * straight into a reusable byte array which is pushed to the server every time it fills
+ * up, so the memory used by a COPY does not depend on the number of rows being loaded.
+ *
+ * @author Ricardo Marquez
+ */
+public class CopyInBuffer {
+
+  /**
+   * Default buffer size (64 KB).
+   */
+  public static final int DEFAULT_SIZE = 1 << 16;
+
+  private final CopyIn copyIn;
+  private final byte[] buffer;
+  private final ByteBuffer byteBuffer;
+  private final CharsetEncoder encoder;
+  private final LongConsumer onFlush;
+  private int position = 0;
+  private long rows = 0;
+  private long bytes = 0;
+
+  /**
+   *
+   * @param copyIn
+   * @param size
+   * @param onFlush called after every flush with the number of rows whose values were
+   * all written before the flush, including a row whose trailing new line is written
+   * right after it. May be null.
+   */
+  public CopyInBuffer(CopyIn copyIn, int size, LongConsumer onFlush) {
+    if (size < 16) {
+      throw new IllegalArgumentException("Buffer size must be at least 16 bytes");
+    }
+    this.copyIn = copyIn;
+    this.buffer = new byte[size];
+    this.byteBuffer = ByteBuffer.wrap(this.buffer);
+    this.encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    this.onFlush = onFlush;
+  }
+
+  /**
+   * Writes a text row followed by a new line character.
+   *
+   * @param line the row without the trailing new line.
+   * @throws SQLException
+   */
+  public void writeRow(CharSequence line) throws SQLException {
+    int length = line.length();
+    for (int i = 0; i < length; i++) {
+      char c = line.charAt(i);
+      if (c < 0x80) {
+        if (this.position == this.buffer.length) {
+          this.flush();
+        }
+        this.buffer[this.position++] = (byte) c;
+      } else {
+        this.encode(line, i);
+        break;
+      }
+    }
+    // the row is complete once its values are written, so a flush made room for its new
+    // line reports it.
+    this.rows++;
+    this.writeByte('\n');
+  }
+
+  /**
+   * Encodes the non-ascii remainder of a line.
+   *
+   * @param line
+   * @param start
+   * @throws SQLException
+   */
+  private void encode(CharSequence line, int start) throws SQLException {
+    CharBuffer in = CharBuffer.wrap(line, start, line.length());
+    this.encoder.reset();
+    while (true) {
+      this.byteBuffer.limit(this.buffer.length).position(this.position);
+      CoderResult r = this.encoder.encode(in, this.byteBuffer, true);
+      this.position = this.byteBuffer.position();
+      if (r.isOverflow()) {
+        this.flush();
+      } else {
+        break;
+      }
+    }
+    this.byteBuffer.limit(this.buffer.length).position(this.position);
+    while (this.encoder.flush(this.byteBuffer).isOverflow()) {
+      this.position = this.byteBuffer.position();
+      this.flush();
+      this.byteBuffer.limit(this.buffer.length).position(this.position);
+    }
+    this.position = this.byteBuffer.position();
+  }
+
+  /**
+   *
+   * @param b
+   * @throws SQLException
+   */
+  public void writeByte(int b) throws SQLException {
+    if (this.position == this.buffer.length) {
+      this.flush();
+    }
+    this.buffer[this.position++] = (byte) b;
+  }
+
+  /**
+   *
+   * @param b
+   * @param offset
+   * @param length
+   * @throws SQLException
+   */
+  public void write(byte[] b, int offset, int length) throws SQLException {
+    while (length > 0) {
+      if (this.position == this.buffer.length) {
+        this.flush();
+      }
+      int n = Math.min(length, this.buffer.length - this.position);
+      System.arraycopy(b, offset, this.buffer, this.position, n);
+      this.position += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Writes a big-endian 16 bit integer.
+   *
+   * @param v
+   * @throws SQLException
+   */
+  public void writeShort(int v) throws SQLException {
+    if (this.buffer.length - this.position < 2) {
+      this.flush();
+    }
+    this.buffer[this.position++] = (byte) (v >>> 8);
+    this.buffer[this.position++] = (byte) v;
+  }
+
+  /**
+   * Writes a big-endian 32 bit integer.
+   *
+   * @param v
+   * @throws SQLException
+   */
+  public void writeInt(int v) throws SQLException {
+    if (this.buffer.length - this.position < 4) {
+      this.flush();
+    }
+    this.buffer[this.position++] = (byte) (v >>> 24);
+    this.buffer[this.position++] = (byte) (v >>> 16);
+    this.buffer[this.position++] = (byte) (v >>> 8);
+    this.buffer[this.position++] = (byte) v;
+  }
+
+  /**
+   * Writes a big-endian 64 bit integer.
+   *
+   * @param v
+   * @throws SQLException
+   */
+  public void writeLong(long v) throws SQLException {
+    if (this.buffer.length - this.position < 8) {
+      this.flush();
+    }
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      this.buffer[this.position++] = (byte) (v >>> shift);
+    }
+  }
+
+  /**
+   * Counts a row written through the primitive write methods.
+   */
+  void endRow() {
+    this.rows++;
+  }
+
+  /**
+   * Pushes the buffered bytes to the server.
+   *
+   * @throws SQLException
+   */
+  public void flush() throws SQLException {
+    if (this.position > 0) {
+      this.copyIn.writeToCopy(this.buffer, 0, this.position);
+      this.bytes += this.position;
+      this.position = 0;
+      if (this.onFlush != null) {
+        this.onFlush.accept(this.rows);
+      }
+    }
+  }
+
+  /**
+   * Flushes the remaining bytes and completes the copy.
+   *
+   * @return the number of rows reported by the server.
+   * @throws SQLException
+   */
+  public long endCopy() throws SQLException {
+    this.flush();
+    return this.copyIn.endCopy();
+  }
+
+  /**
+   * Cancels the copy if it is still active. Errors are ignored, since this is meant to
+   * be called while handling another failure.
+   */
+  public void cancel() {
+    try {
+      if (this.copyIn.isActive()) {
+        this.copyIn.cancelCopy();
+      }
+    } catch (SQLException ex) {
+      // the original failure is more relevant to the caller.
+    }
+  }
+
+  /**
+   *
+   * @return the number of rows written by the client.
+   */
+  public long getRows() {
+    return this.rows;
+  }
+
+  /**
+   *
+   * @return the number of bytes sent to the server.
+   */
+  public long getBytes() {
+    return this.bytes;
+  }
+
+}
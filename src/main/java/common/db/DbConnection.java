@@ -1,11 +1,9 @@
 package common.db;
 
 import common.process.ProcessFacade;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -18,16 +16,20 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.mutable.MutableObject;
 import org.apache.commons.lang3.tuple.Pair;
@@ -44,16 +46,14 @@ public class DbConnection implements Serializable {
 
   private Connection connection;
   private final ConnectionPool connPool;
-  private final Converters converters;
+  private transient QueryCache queryCache;
 
   public DbConnection(String user, String password, String databaseName, String url, Integer port) {
     this.connPool = new DefaultConnectionPool(user, password, databaseName, url, port);
-    this.converters = new Converters();
   }
 
   public DbConnection(ConnectionPool connPool) {
     this.connPool = connPool;
-    this.converters = new Converters();
   }
 
   /**
@@ -64,6 +64,26 @@ public class DbConnection implements Serializable {
     return connPool;
   }
 
+  /**
+   *
+   * @return the query result cache, or null if results are not cached.
+   */
+  public QueryCache getQueryCache() {
+    return queryCache;
+  }
+
+  /**
+   * Sets the cache used by {@linkplain #executeCachedQuery(String, String, ResultMapper)}
+   * and {@linkplain #executeSingleResultQuery(String, String, Class)}. Other queries are
+   * not cached. Writes made through this connection invalidate the entries of the tables
+   * they touch.
+   *
+   * @param queryCache the cache, or null to disable caching.
+   */
+  public void setQueryCache(QueryCache queryCache) {
+    this.queryCache = queryCache;
+  }
+
   /**
    * The parent database. <code> new DbConnection(user, password, url, port);
    * </code>
@@ -102,13 +122,18 @@ public class DbConnection implements Serializable {
     int effectedRows;
     Connection conn = this.getConnection();
     PreparedStatement statement;
+    long start = System.nanoTime();
+    long rows = -1;
     try {
       statement = conn.prepareStatement(sql);
       this.setParamValues(values, statement);
       effectedRows = statement.executeUpdate();
+      rows = effectedRows;
     } catch (SQLException ex) {
       throw new RuntimeException(ex);
     } finally {
+      this.recordStatement(sql, start, rows, -1);
+      this.invalidateTables(table);
       try {
         conn.close();
       } catch (SQLException ex) {
@@ -155,13 +180,16 @@ public class DbConnection implements Serializable {
    * @return
    */
   public <T> T executeSingleResultQuery(String sql, String column, Class<T> clazz) {
-    List<T> list = this.executeQuery(sql, (ResultSet rs) -> {
+    ResultMapper<T> mapper = (ResultSet rs) -> {
       try {
         return (T) rs.getObject(column);
       } catch (SQLException ex) {
         throw new RuntimeException(ex);
       }
-    });
+    };
+    List<T> list = this.queryCache == null
+            ? this.executeUncachedQuery(sql, mapper)
+            : this.queryCache.get(sql, Arrays.asList(column, clazz), () -> this.executeUncachedQuery(sql, mapper));
     if (list.size() > 1) {
       throw new RuntimeException("Query returned more than 1 result.");
     }
@@ -177,6 +205,42 @@ public class DbConnection implements Serializable {
    * @return
    */
   public <T> List<T> executeQuery(String sql, ResultMapper<T> mapper) {
+    return this.executeUncachedQuery(sql, mapper);
+  }
+
+  /**
+   * Executes a query through the query cache, if any. Results are keyed by the SQL and
+   * the mapper key, since a mapper instance is not a stable key: capturing lambdas are
+   * new instances on every call.
+   *
+   * @param <T>
+   * @param sql
+   * @param mapperKey identifies what the mapper returns, e.g. "station by id". Mappers
+   * returning different values for the same SQL must have different keys.
+   * @param mapper
+   * @return
+   */
+  public <T> List<T> executeCachedQuery(String sql, String mapperKey, ResultMapper<T> mapper) {
+    Objects.requireNonNull(mapperKey, "mapper key cannot be null");
+    List<T> result;
+    if (this.queryCache == null) {
+      result = this.executeUncachedQuery(sql, mapper);
+    } else {
+      List<T> cached = this.queryCache.get(sql, Arrays.asList(mapperKey),
+              () -> this.executeUncachedQuery(sql, mapper));
+      result = new ArrayList<>(cached);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param sql
+   * @param mapper
+   * @return
+   */
+  private <T> List<T> executeUncachedQuery(String sql, ResultMapper<T> mapper) {
     List<T> result = new ArrayList<>();
     this.executeQuery(sql, (rs) -> {
       result.add(mapper.map(rs));
@@ -243,17 +307,22 @@ public class DbConnection implements Serializable {
    */
   public void executeQuery(Application application, String sql, int fetchSize, Consumer<ResultSet> consumer) {
     Connection conn = this.getConnection();
-
+    long start = System.nanoTime();
+    long rows = 0;
+    boolean success = false;
     try (PreparedStatement statement = conn.prepareCall(sql)) {
       statement.setFetchSize(fetchSize);
       conn.setAutoCommit(false);
       ResultSet resultSet = statement.executeQuery();
       while (resultSet.next()) {
         consumer.accept(resultSet);
+        rows++;
       }
+      success = true;
     } catch (SQLException ex) {
       throw new RuntimeException(ex);
     } finally {
+      this.recordStatement(sql, start, success ? rows : -1, -1);
       try {
         conn.close();
       } catch (SQLException ex) {
@@ -262,6 +331,99 @@ public class DbConnection implements Serializable {
     }
   }
 
+  /**
+   * Returns the rows of the query as a lazily fetched stream. The rows are read from a
+   * server side cursor, <code>fetchSize</code> rows at a time, and mapped as the stream
+   * is consumed, so the whole result is never held in memory. The connection is held
+   * until the stream is closed or fully consumed, so use try-with-resources:
+   *
+   * <pre>
+   * try (Stream&lt;String&gt; names = db.stream("select name from station", (rs) -&gt; ..., 1000)) {
+   *   names.limit(10).forEach(System.out::println);
+   * }
+   * </pre>
+   *
+   * @param <T>
+   * @param sql
+   * @param mapper
+   * @param fetchSize the number of rows fetched per round trip. Must be positive,
+   * otherwise the driver reads the whole result at once.
+   * @return
+   */
+  public <T> Stream<T> stream(String sql, ResultMapper<T> mapper, int fetchSize) {
+    return this.stream(null, sql, mapper, fetchSize);
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param application
+   * @param sql
+   * @param mapper
+   * @param fetchSize
+   * @return
+   * @see #stream(String, ResultMapper, int)
+   */
+  public <T> Stream<T> stream(Application application, String sql, ResultMapper<T> mapper, int fetchSize) {
+    Objects.requireNonNull(mapper, "mapper cannot be null");
+    if (fetchSize < 1) {
+      throw new IllegalArgumentException("fetch size must be greater than zero");
+    }
+    Connection conn = application == null ? this.getConnection() : this.getConnection(application);
+    long start = System.nanoTime();
+    PreparedStatement statement = null;
+    ResultSetSpliterator<T> spliterator;
+    try {
+      // the driver only uses a cursor outside of autocommit.
+      conn.setAutoCommit(false);
+      statement = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      statement.setFetchSize(fetchSize);
+      ResultSet resultSet = statement.executeQuery();
+      spliterator = new ResultSetSpliterator<>(conn, statement, resultSet, mapper, sql,
+              this.connPool.getMetrics(), start);
+    } catch (SQLException ex) {
+      this.recordStatement(sql, start, -1, -1);
+      try {
+        if (statement != null) {
+          statement.close();
+        }
+        conn.close();
+      } catch (SQLException closeEx) {
+        ex.addSuppressed(closeEx);
+      }
+      throw new RuntimeException(ex);
+    }
+    return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+  }
+
+  /**
+   * Reads the columns of the schema into primitive arrays.
+   *
+   * @param sql
+   * @param schema
+   * @return
+   */
+  public ColumnarResult executeColumnarQuery(String sql, ColumnarResult.Schema schema) {
+    return this.executeColumnarQuery(null, sql, DEFAULT_FETCHSIZE, schema);
+  }
+
+  /**
+   * Reads the columns of the schema into primitive arrays.
+   *
+   * @param application
+   * @param sql
+   * @param fetchSize
+   * @param schema
+   * @return
+   */
+  public ColumnarResult executeColumnarQuery(Application application, String sql, int fetchSize,
+          ColumnarResult.Schema schema) {
+    Objects.requireNonNull(schema, "schema cannot be null");
+    ColumnarResult result = new ColumnarResult(schema);
+    this.executeQuery(application, sql, fetchSize, result::readRow);
+    return result;
+  }
+
   @Override
   public int hashCode() {
     int hash = 7;
@@ -456,6 +618,8 @@ public class DbConnection implements Serializable {
 
     Connection conn = this.getConnection();
     int effectedRows;
+    long start = System.nanoTime();
+    long rows = -1;
     try {
       PreparedStatement statement = conn.prepareStatement(sql);
       List<Object> allValues = new ArrayList<>();
@@ -463,9 +627,12 @@ public class DbConnection implements Serializable {
       allValues.addAll(values_no_pk);
       this.setParamValues(allValues, statement);
       effectedRows = statement.executeUpdate();
+      rows = effectedRows;
     } catch (SQLException ex) {
       throw new RuntimeException(ex);
     } finally {
+      this.recordStatement(sql, start, rows, -1);
+      this.invalidateTables(table);
       try {
         conn.close();
       } catch (SQLException ex) {
@@ -477,6 +644,8 @@ public class DbConnection implements Serializable {
   }
 
   /**
+   * Upserts the records in chunks of {@linkplain BatchUpsert#DEFAULT_CHUNK_SIZE} rows
+   * using prepared statements.
    *
    * @param table
    * @param records
@@ -484,73 +653,26 @@ public class DbConnection implements Serializable {
    * @return
    */
   public int executeUpsert(String table, List<RecordValue> records, String... pk) {
-    Objects.requireNonNull(pk, "Primary key field name cannot be null");
+    return this.executeUpsert(table, records, BatchUpsert.Mode.PREPARED, BatchUpsert.DEFAULT_CHUNK_SIZE, pk);
+  }
+
+  /**
+   *
+   * @param table
+   * @param records
+   * @param mode
+   * @param chunkSize the number of rows bound to each multi-row insert.
+   * @param pk
+   * @return
+   */
+  public int executeUpsert(String table, List<RecordValue> records, BatchUpsert.Mode mode, int chunkSize, String... pk) {
     Objects.requireNonNull(records, "Records cannot be null");
-    Objects.requireNonNull(table, "table cannot be null");
-    if (pk.length == 0) {
-      throw new IllegalArgumentException("No primary key field names specified cannot be empty");
-    }
-    if (table.trim().isEmpty()) {
-      throw new IllegalArgumentException("table string cannot be empty");
-    }
-    int effectedRows;
-    if (!records.isEmpty()) {
-      Set<String> keySet = records.get(0).keySet();
-      String separator = ", ";
-      String columns = String.join(separator, keySet);
-      String valuePlaceHolders = records.stream()
-              .map(
-                      (r) -> keySet
-                              .stream()
-                              .map((k) -> this.converters.convert(r.get(k)))
-                              .collect(Collectors.joining(","))
-              ).collect(Collectors.joining(")\n" + separator + "("));
-      Set<String> keySetNoPk = records.get(0).keySetNoPk();
-      List<String> keySetNoPkWithExcludePrefix = keySetNoPk
-              .stream()
-              .map((e) -> "excluded." + e)
-              .collect(Collectors.toList());
-      String columns_no_pk = String.join(separator, keySetNoPkWithExcludePrefix);
-
-      String sql = String.format("insert into %s \n(%s) \n values (%s) \n"
-              + " on conflict (%s) do update\n ",
-              new Object[]{
-                table,
-                columns,
-                valuePlaceHolders,
-                String.join(",", pk)
-              });
-      String set;
-      if (keySetNoPkWithExcludePrefix.size() < 2) {
-        set = String.format(" set %s = %s",
-                String.join(",", keySetNoPk),
-                columns_no_pk);
-      } else {
-        set = String.format(" set (%s) = (%s)",
-                String.join(",", keySetNoPk),
-                columns_no_pk);
-      }
-      sql = sql + "\n " + set;
-      Connection conn = this.getConnection();
-      try {
-        PreparedStatement statement = conn.prepareStatement(sql);
-        effectedRows = statement.executeUpdate();
-      } catch (SQLException ex) {
-        throw new RuntimeException(
-                String.format("Error running statement: '%s'", sql), // 
-                ex);
-      } finally {
-        try {
-          conn.close();
-        } catch (SQLException ex) {
-          Logger.getLogger(DbConnection.class.getName())
-                  .log(Level.SEVERE, "An error occurred while closing the connection. ", ex);
-        }
-      }
-    } else {
-      effectedRows = 0;
+    BatchUpsert upsert = new BatchUpsert(this, table, mode, chunkSize, pk);
+    try {
+      return upsert.execute(records);
+    } finally {
+      this.invalidateTables(table);
     }
-    return effectedRows;
   }
 
   /**
@@ -561,17 +683,27 @@ public class DbConnection implements Serializable {
    */
   private void setParamValues(List<Object> values, PreparedStatement statement) throws SQLException {
     for (int columnIndex = 1; columnIndex <= values.size(); columnIndex++) {
-      Object objectValue = values.get(columnIndex - 1);
-      if (objectValue instanceof ZonedDateTime) {
-        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(((ZonedDateTime) objectValue).getZone()));
-        ZonedDateTime withZoneSameInstant = ((ZonedDateTime) objectValue);
-        long epochMilli = withZoneSameInstant.toInstant()
-                .toEpochMilli();
-        Timestamp p = new Timestamp(epochMilli);
-        statement.setTimestamp(columnIndex, p, cal);
-      } else {
-        statement.setObject(columnIndex, objectValue);
-      }
+      setParamValue(statement, columnIndex, values.get(columnIndex - 1));
+    }
+  }
+
+  /**
+   *
+   * @param statement
+   * @param columnIndex
+   * @param objectValue
+   * @throws SQLException
+   */
+  static void setParamValue(PreparedStatement statement, int columnIndex, Object objectValue) throws SQLException {
+    if (objectValue instanceof ZonedDateTime) {
+      Calendar cal = Calendar.getInstance(TimeZone.getTimeZone(((ZonedDateTime) objectValue).getZone()));
+      ZonedDateTime withZoneSameInstant = ((ZonedDateTime) objectValue);
+      long epochMilli = withZoneSameInstant.toInstant()
+              .toEpochMilli();
+      Timestamp p = new Timestamp(epochMilli);
+      statement.setTimestamp(columnIndex, p, cal);
+    } else {
+      statement.setObject(columnIndex, objectValue);
     }
   }
 
@@ -622,8 +754,10 @@ public class DbConnection implements Serializable {
    * @param statement
    * @return
    */
-  public synchronized int executeStatement(String statement) {
+  public int executeStatement(String statement) {
     int result;
+    long start = System.nanoTime();
+    long rows = -1;
     try (Connection conn = this.getConnection()) {
       PreparedStatement preparedStatement;
       try {
@@ -633,11 +767,15 @@ public class DbConnection implements Serializable {
       }
       try {
         result = preparedStatement.executeUpdate();
+        rows = result;
       } catch (SQLException ex) {
         throw new RuntimeException(ex);
       }
     } catch (Exception ex) {
       throw new RuntimeException(ex);
+    } finally {
+      this.recordStatement(statement, start, rows, -1);
+      this.invalidateStatements(statement);
     }
     return result;
   }
@@ -648,8 +786,10 @@ public class DbConnection implements Serializable {
    * @param statement
    * @return 
    */
-  public synchronized int executeStatement(Application application, String statement) {
+  public int executeStatement(Application application, String statement) {
     int result;
+    long start = System.nanoTime();
+    long rows = -1;
     try (Connection conn = this.getConnection(application)) {
       PreparedStatement preparedStatement;
       try {
@@ -659,11 +799,15 @@ public class DbConnection implements Serializable {
       }
       try {
         result = preparedStatement.executeUpdate();
+        rows = result;
       } catch (SQLException ex) {
         throw new RuntimeException(ex);
       }
     } catch (Exception ex) {
       throw new RuntimeException(ex);
+    } finally {
+      this.recordStatement(statement, start, rows, -1);
+      this.invalidateStatements(statement);
     }
     return result;
   }
@@ -713,6 +857,8 @@ public class DbConnection implements Serializable {
     Connection conn = this.getConnection();
 
     int[] result;
+    long start = System.nanoTime();
+    long rows = -1;
 
     try (PreparedStatement statement = conn.prepareStatement(statementTemplate)) {
 
@@ -739,6 +885,7 @@ public class DbConnection implements Serializable {
       } catch (SQLException ex) {
         throw new RuntimeException();
       }
+      rows = updateCount(result);
     } catch (SQLException ex) {
       try {
         conn.rollback();
@@ -747,6 +894,8 @@ public class DbConnection implements Serializable {
       }
       throw new RuntimeException("Batch execution failed: " + ex.getMessage(), ex);
     } finally {
+      this.recordStatement(statementTemplate, start, rows, -1);
+      this.invalidateStatements(preStatement, statementTemplate, postStatement);
       try {
         conn.close();
       } catch (SQLException ex) {
@@ -769,8 +918,8 @@ public class DbConnection implements Serializable {
    * @param records the data objects you want to copy
    * @param recordToCsvLine a function that converts each record into a CSV line
    * (no trailing newline)
-   * @return long[] with [0] = the count of rows copied, [1] = any other measure
-   * (you can refine)
+   * @return long[] with [0] = the count of rows copied, [1] = the number of bytes
+   * sent to the server.
    */
   public <R> long[] executeDirectCopyToTable(
           String preStatement,
@@ -779,44 +928,174 @@ public class DbConnection implements Serializable {
           List<R> records,
           Function<R, String> recordToCsvLine
   ) {
-    // We'll return how many rows got copied, possibly more details if you like
-    long[] result = new long[2];
-    Connection conn = this.getConnection();    
-    try {
-      conn.setAutoCommit(false);
+    return this.executeDirectCopyToTable(preStatement, postStatement, copyTarget,
+            records.iterator(), recordToCsvLine, CopyInBuffer.DEFAULT_SIZE, null);
+  }
 
-      // 1. Execute preStatement (e.g. create temp table)
-      try (Statement stmt = conn.createStatement()) {
-        stmt.execute(preStatement);
-      }
-      
-      // 2. Prepare CSV data in memory
-      StringBuilder sb = new StringBuilder();
-      for (R record : records) {
-        sb.append(recordToCsvLine.apply(record)).append("\n");
+  /**
+   * Streaming variant of
+   * {@linkplain #executeDirectCopyToTable(String, String, String, List, Function)}. The
+   * stream is consumed lazily and closed when the copy completes.
+   *
+   * @param preStatement a SQL statement to run before COPY. Skipped if null or empty.
+   * @param postStatement a SQL statement to run after COPY. Skipped if null or empty.
+   * @param copyTarget the COPY command target
+   * @param records the data objects you want to copy
+   * @param recordToCsvLine a function that converts each record into a CSV line
+   * (no trailing newline)
+   * @param bufferSize the size in bytes of the buffer used to send rows.
+   * @param progress called with the number of rows sent so far each time the buffer is
+   * flushed. May be null.
+   * @return long[] with [0] = the count of rows copied, [1] = the number of bytes sent
+   * to the server.
+   */
+  public <R> long[] executeDirectCopyToTable(
+          String preStatement,
+          String postStatement,
+          String copyTarget,
+          Stream<R> records,
+          Function<R, ? extends CharSequence> recordToCsvLine,
+          int bufferSize,
+          LongConsumer progress
+  ) {
+    try (Stream<R> s = records) {
+      return this.executeDirectCopyToTable(preStatement, postStatement, copyTarget,
+              s.iterator(), recordToCsvLine, bufferSize, progress);
+    }
+  }
+
+  /**
+   * Streaming variant of
+   * {@linkplain #executeDirectCopyToTable(String, String, String, List, Function)}.
+   * Records are pulled from the iterator one at a time and encoded into a fixed size
+   * buffer, so the memory used does not depend on the number of records.
+   *
+   * @param preStatement a SQL statement to run before COPY. Skipped if null or empty.
+   * @param postStatement a SQL statement to run after COPY. Skipped if null or empty.
+   * @param copyTarget the COPY command target
+   * @param records the data objects you want to copy
+   * @param recordToCsvLine a function that converts each record into a CSV line
+   * (no trailing newline)
+   * @param bufferSize the size in bytes of the buffer used to send rows.
+   * @param progress called with the number of rows sent so far each time the buffer is
+   * flushed. May be null.
+   * @return long[] with [0] = the count of rows copied, [1] = the number of bytes sent
+   * to the server.
+   */
+  public <R> long[] executeDirectCopyToTable(
+          String preStatement,
+          String postStatement,
+          String copyTarget,
+          Iterator<R> records,
+          Function<R, ? extends CharSequence> recordToCsvLine,
+          int bufferSize,
+          LongConsumer progress
+  ) {
+    String copySql = "COPY " + copyTarget + " FROM STDIN (FORMAT csv)";
+    return this.executeCopyIn(preStatement, postStatement, copySql, bufferSize, progress, (buffer) -> {
+      while (records.hasNext()) {
+        buffer.writeRow(recordToCsvLine.apply(records.next()));
       }
-      byte[] csvBytes = sb.toString().getBytes(StandardCharsets.UTF_8);
-      ByteArrayInputStream bais = new ByteArrayInputStream(csvBytes);
-      
-      // 3. Use CopyManager to COPY the data into the table
-      PGConnection pgConn = conn.unwrap(PGConnection.class);
-      CopyManager copyManager = pgConn.getCopyAPI();
-      // e.g. "COPY temp_table (col1, col2, col3) FROM STDIN (FORMAT csv)"
-      String copySql = "COPY " + copyTarget + " FROM STDIN (FORMAT csv)";
-      
-      // do the copy
-      long rowCount = copyManager.copyIn(copySql, bais);
-      result[0] = rowCount;  // number of rows copied
-      
-      // 4. Execute postStatement (e.g. update the main table from the temp table)
-      try (Statement stmt = conn.createStatement()) {
-        stmt.execute(postStatement);
+    });
+  }
+
+  /**
+   * Copies records into a table using the PostgreSQL binary COPY format. Each record
+   * is written by <code>recordToColumns</code> with the typed methods of
+   * {@linkplain BinaryCopyWriter}, one value per column of the copy target.
+   *
+   * @param preStatement a SQL statement to run before COPY. Skipped if null or empty.
+   * @param postStatement a SQL statement to run after COPY. Skipped if null or empty.
+   * @param copyTarget the COPY command target (e.g. "temp_table (col1, col2, ...)")
+   * @param records the data objects you want to copy
+   * @param columnCount the number of columns in the copy target.
+   * @param recordToColumns writes the column values of a record.
+   * @return long[] with [0] = the count of rows copied, [1] = the number of bytes sent
+   * to the server.
+   */
+  public <R> long[] executeBinaryCopyToTable(
+          String preStatement,
+          String postStatement,
+          String copyTarget,
+          List<R> records,
+          int columnCount,
+          BiConsumer<R, BinaryCopyWriter> recordToColumns
+  ) {
+    return this.executeBinaryCopyToTable(preStatement, postStatement, copyTarget,
+            records.iterator(), columnCount, recordToColumns, CopyInBuffer.DEFAULT_SIZE, null);
+  }
+
+  /**
+   * Streaming variant of
+   * {@linkplain #executeBinaryCopyToTable(String, String, String, List, int, BiConsumer)}.
+   *
+   * @param preStatement a SQL statement to run before COPY. Skipped if null or empty.
+   * @param postStatement a SQL statement to run after COPY. Skipped if null or empty.
+   * @param copyTarget the COPY command target
+   * @param records the data objects you want to copy
+   * @param columnCount the number of columns in the copy target.
+   * @param recordToColumns writes the column values of a record.
+   * @param bufferSize the size in bytes of the buffer used to send rows.
+   * @param progress called with the number of rows sent so far each time the buffer is
+   * flushed. May be null.
+   * @return long[] with [0] = the count of rows copied, [1] = the number of bytes sent
+   * to the server.
+   */
+  public <R> long[] executeBinaryCopyToTable(
+          String preStatement,
+          String postStatement,
+          String copyTarget,
+          Iterator<R> records,
+          int columnCount,
+          BiConsumer<R, BinaryCopyWriter> recordToColumns,
+          int bufferSize,
+          LongConsumer progress
+  ) {
+    String copySql = "COPY " + copyTarget + " FROM STDIN (FORMAT binary)";
+    return this.executeCopyIn(preStatement, postStatement, copySql, bufferSize, progress, (buffer) -> {
+      BinaryCopyWriter writer = new BinaryCopyWriter(buffer);
+      writer.writeHeader();
+      while (records.hasNext()) {
+        writer.startRow(columnCount);
+        recordToColumns.accept(records.next(), writer);
+        writer.endRow();
       }
-      
-      // Commit everything
+      writer.writeTrailer();
+    });
+  }
+
+  /**
+   *
+   * @param preStatement
+   * @param postStatement
+   * @param copySql
+   * @param bufferSize
+   * @param progress
+   * @param writer
+   * @return
+   */
+  private long[] executeCopyIn(String preStatement, String postStatement, String copySql,
+          int bufferSize, LongConsumer progress, CopyWriter writer) {
+    long[] result = new long[2];
+    Connection conn = this.getConnection();
+    CopyInBuffer buffer = null;
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      conn.setAutoCommit(false);
+      this.executeIfPresent(conn, preStatement);
+      CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+      buffer = new CopyInBuffer(copyManager.copyIn(copySql), bufferSize, progress);
+      writer.write(buffer);
+      result[0] = buffer.endCopy();
+      result[1] = buffer.getBytes();
+      this.executeIfPresent(conn, postStatement);
       conn.commit();
+      success = true;
     } catch (Exception ex) {
-      // Rollback on any error
+      if (buffer != null) {
+        buffer.cancel();
+      }
       try {
         conn.rollback();
       } catch (SQLException rollbackEx) {
@@ -824,7 +1103,8 @@ public class DbConnection implements Serializable {
       }
       throw new RuntimeException("Direct COPY failed: " + ex.getMessage(), ex);
     } finally {
-      // Close connection
+      this.recordStatement(copySql, start, success ? result[0] : -1, success ? result[1] : -1);
+      this.invalidateStatements(preStatement, copySql, postStatement);
       try {
         conn.close();
       } catch (SQLException ex) {
@@ -834,6 +1114,20 @@ public class DbConnection implements Serializable {
     return result;
   }
 
+  /**
+   *
+   * @param conn
+   * @param sql
+   * @throws SQLException
+   */
+  private void executeIfPresent(Connection conn, String sql) throws SQLException {
+    if (sql != null && !sql.trim().isEmpty()) {
+      try (Statement stmt = conn.createStatement()) {
+        stmt.execute(sql);
+      }
+    }
+  }
+
   /**
    *
    * @param <R>
@@ -848,6 +1142,8 @@ public class DbConnection implements Serializable {
   private <R> int[] executeStatementsBatch(Connection conn,
           String statementTemplate, List<R> records, Consumer<Pair<PreparedStatement, R>> updateMe) {
     int[] result;
+    long start = System.nanoTime();
+    long rows = -1;
 
     try (PreparedStatement statement = conn.prepareStatement(statementTemplate)) {
       conn.setAutoCommit(false);
@@ -857,6 +1153,7 @@ public class DbConnection implements Serializable {
       }
       result = statement.executeBatch();
       conn.commit();
+      rows = updateCount(result);
     } catch (SQLException ex) {
       try {
         conn.rollback();
@@ -865,6 +1162,8 @@ public class DbConnection implements Serializable {
       }
       throw new RuntimeException("Batch execution failed: " + ex.getMessage(), ex);
     } finally {
+      this.recordStatement(statementTemplate, start, rows, -1);
+      this.invalidateStatements(statementTemplate);
       try {
         conn.close();
       } catch (SQLException ex) {
@@ -881,36 +1180,45 @@ public class DbConnection implements Serializable {
    */
   public int[] executeStatements(String... statements) {
     int[] result = new int[statements.length];
-    int i = -1;
-    Connection conn = this.getConnection();
     try {
-      conn.setAutoCommit(false);
-    } catch (SQLException ex) {
-      throw new RuntimeException(ex);
-    }
-    for (String statementText : statements) {
-      i++;
-      PreparedStatement statement;
+      int i = -1;
+      Connection conn = this.getConnection();
+      try {
+        conn.setAutoCommit(false);
+      } catch (SQLException ex) {
+        throw new RuntimeException(ex);
+      }
+      for (String statementText : statements) {
+        i++;
+        PreparedStatement statement;
+        try {
+          statement = conn.prepareStatement(statementText.replace("NaN", "null"));
+        } catch (SQLException ex) {
+          throw new RuntimeException(ex);
+        }
+        long start = System.nanoTime();
+        long rows = -1;
+        try {
+          result[i] = statement.executeUpdate();
+          rows = result[i];
+        } catch (SQLException ex) {
+          throw new RuntimeException("Error on statement: " + statementText, ex);
+        } finally {
+          this.recordStatement(statementText, start, rows, -1);
+        }
+      }
       try {
-        statement = conn.prepareStatement(statementText.replace("NaN", "null"));
+        conn.commit();
       } catch (SQLException ex) {
         throw new RuntimeException(ex);
       }
       try {
-        result[i] = statement.executeUpdate();
+        conn.close();
       } catch (SQLException ex) {
-        throw new RuntimeException("Error on statement: " + statementText, ex);
+        throw new RuntimeException(ex);
       }
-    }
-    try {
-      conn.commit();
-    } catch (SQLException ex) {
-      throw new RuntimeException(ex);
-    }
-    try {
-      conn.close();
-    } catch (SQLException ex) {
-      throw new RuntimeException(ex);
+    } finally {
+      this.invalidateStatements(statements);
     }
     return result;
   }
@@ -1045,6 +1353,72 @@ public class DbConnection implements Serializable {
     return result;
   }
 
+  /**
+   * Reports a statement to the metrics of the pool. A negative row count marks a
+   * failed statement.
+   *
+   * @param sql
+   * @param startNanos
+   * @param rows
+   * @param bytes
+   */
+  private void recordStatement(String sql, long startNanos, long rows, long bytes) {
+    this.connPool.getMetrics().statementExecuted(sql, System.nanoTime() - startNanos,
+            rows, bytes, rows >= 0);
+  }
+
+  /**
+   *
+   * @param counts
+   * @return the total of the batch update counts, ignoring unknown counts.
+   */
+  private static long updateCount(int[] counts) {
+    long result = 0;
+    for (int count : counts) {
+      if (count > 0) {
+        result += count;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Drops the cached results of the tables written by the statements.
+   *
+   * @param statements
+   */
+  private void invalidateStatements(String... statements) {
+    QueryCache cache = this.queryCache;
+    if (cache != null) {
+      for (String statement : statements) {
+        if (statement != null && !statement.trim().isEmpty()) {
+          cache.invalidateStatement(statement);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops the cached results of the tables.
+   *
+   * @param tables
+   */
+  private void invalidateTables(String... tables) {
+    QueryCache cache = this.queryCache;
+    if (cache != null) {
+      cache.invalidateTables(Arrays.asList(tables));
+    }
+  }
+
+  /**
+   * Writes rows into an active COPY.
+   */
+  @FunctionalInterface
+  private static interface CopyWriter {
+
+    void write(CopyInBuffer buffer) throws Exception;
+  }
+
   /**
    *
    */
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Objects;
 import java.util.Properties;
 
 /**
@@ -17,6 +18,7 @@ public class DefaultConnectionPool implements ConnectionPool {
   private final String databaseName;
   private final String url;
   private final Integer port;
+  private volatile PoolMetrics metrics = PoolMetrics.NONE;
 
   public DefaultConnectionPool(String user, String password, String databaseName, String url, Integer port) {
     this.user = user;
@@ -53,21 +55,7 @@ public class DefaultConnectionPool implements ConnectionPool {
 
   @Override
   public Connection getConnection() {
-    Connection result;
-    try {
-      String _url = this.getConnectionUrl();
-      String _username = this.user;
-      String _password = this.password;
-      try {
-        Class.forName("org.postgresql.Driver");
-      } catch (ClassNotFoundException ex) {
-        throw new RuntimeException(ex);
-      }
-      result = DriverManager.getConnection(_url, _username, _password);
-    } catch (SQLException ex) {
-      throw new RuntimeException(ex);
-    }
-    return result;
+    return this.openConnection(this.getConnectionUrl());
   }
 
   /**
@@ -77,23 +65,50 @@ public class DefaultConnectionPool implements ConnectionPool {
    */
   @Override
   public Connection getConnection(Application application) {
+    return this.openConnection(this.getConnectionUrl(application));
+  }
+
+  /**
+   * Opens a new connection, recording the time it took in the metrics.
+   *
+   * @param _url
+   * @return
+   */
+  private Connection openConnection(String _url) {
+    DriverHolder.load();
+    PoolMetrics m = this.metrics;
+    long start = System.nanoTime();
+    boolean success = false;
     Connection result;
     try {
-      String _url = this.getConnectionUrl(application);
-      String _username = this.user;
-      String _password = this.password;
-      try {
-        Class.forName("org.postgresql.Driver");
-      } catch (ClassNotFoundException ex) {
-        throw new RuntimeException(ex);
-      }
-      result = DriverManager.getConnection(_url, _username, _password);
+      result = DriverManager.getConnection(_url, this.user, this.password);
+      success = true;
     } catch (SQLException ex) {
       throw new RuntimeException(ex);
+    } finally {
+      m.connectionAcquired(System.nanoTime() - start, success);
     }
     return result;
   }
 
+  /**
+   *
+   * @return
+   */
+  @Override
+  public PoolMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   *
+   * @param metrics
+   */
+  @Override
+  public void setMetrics(PoolMetrics metrics) {
+    this.metrics = Objects.requireNonNull(metrics, "metrics cannot be null");
+  }
+
   /**
    *
    * @return
@@ -151,4 +166,20 @@ public class DefaultConnectionPool implements ConnectionPool {
   public void close() throws IOException {
   }
 
+  /**
+   * Loads the postgres driver the first time a connection is opened.
+   */
+  private static class DriverHolder {
+
+    static {
+      try {
+        Class.forName("org.postgresql.Driver");
+      } catch (ClassNotFoundException ex) {
+        throw new RuntimeException(ex);
+      }
+    }
+
+    static void load() {
+    }
+  }
 }
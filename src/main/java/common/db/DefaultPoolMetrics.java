@@ -0,0 +1,423 @@
+package common.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Lock free {@linkplain PoolMetrics} keeping latency histograms of connection
+ * acquisition and statement execution, totals of rows and bytes transferred and the
+ * most recent statements slower than a threshold.
+ *
+ * <p>
+ * Latencies are counted in power of two buckets of microseconds, so percentiles are
+ * accurate to a factor of two. The metrics can be read directly or through JMX after
+ * calling {@linkplain #registerMBean(String)}.</p>
+ *
+ * <pre>
+ * DefaultPoolMetrics metrics = new DefaultPoolMetrics(500);
+ * pool.setMetrics(metrics);
+ * metrics.registerMBean("main");
+ * </pre>
+ *
+ * @author Ricardo Marquez
+ */
+public class DefaultPoolMetrics implements PoolMetrics, PoolMetricsMXBean {
+
+  private static final int SLOW_QUERY_SAMPLES = 32;
+  private static final int MAX_SQL_LENGTH = 1000;
+
+  private final LatencyHistogram acquireLatency = new LatencyHistogram();
+  private final LatencyHistogram statementLatency = new LatencyHistogram();
+  private final AtomicLong acquireFailures = new AtomicLong();
+  private final AtomicLong statementFailures = new AtomicLong();
+  private final AtomicLong rows = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicReferenceArray<SlowQuery> slowQueries = new AtomicReferenceArray<>(SLOW_QUERY_SAMPLES);
+  private final AtomicLong slowQueryCount = new AtomicLong();
+  private volatile long slowQueryThresholdNanos;
+  private volatile IntSupplier activeConnections = () -> -1;
+  private volatile IntSupplier idleConnections = () -> -1;
+  private ObjectName objectName;
+
+  /**
+   *
+   * @param slowQueryThresholdMillis statements taking at least this long are sampled.
+   */
+  public DefaultPoolMetrics(long slowQueryThresholdMillis) {
+    this.setSlowQueryThresholdMillis(slowQueryThresholdMillis);
+  }
+
+  /**
+   * Sets where the active and idle connection counts are read from. Pools that keep
+   * idle connections set this when the metrics are assigned to them.
+   *
+   * @param active
+   * @param idle
+   */
+  public void setConnectionCounts(IntSupplier active, IntSupplier idle) {
+    this.activeConnections = active;
+    this.idleConnections = idle;
+  }
+
+  @Override
+  public void connectionAcquired(long nanos, boolean success) {
+    this.acquireLatency.record(nanos);
+    if (!success) {
+      this.acquireFailures.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void statementExecuted(String sql, long nanos, long rows, long bytes, boolean success) {
+    this.statementLatency.record(nanos);
+    if (!success) {
+      this.statementFailures.incrementAndGet();
+    }
+    if (rows > 0) {
+      this.rows.addAndGet(rows);
+    }
+    if (bytes > 0) {
+      this.bytes.addAndGet(bytes);
+    }
+    if (nanos >= this.slowQueryThresholdNanos) {
+      long n = this.slowQueryCount.getAndIncrement();
+      this.slowQueries.set((int) (n % SLOW_QUERY_SAMPLES),
+              new SlowQuery(sql, nanos, rows, System.currentTimeMillis(), success));
+    }
+  }
+
+  /**
+   *
+   * @return
+   */
+  public LatencyHistogram getAcquireLatency() {
+    return this.acquireLatency;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public LatencyHistogram getStatementLatency() {
+    return this.statementLatency;
+  }
+
+  /**
+   *
+   * @return the most recent slow statements, newest first.
+   */
+  public List<SlowQuery> getSlowQuerySamples() {
+    long n = this.slowQueryCount.get();
+    List<SlowQuery> result = new ArrayList<>();
+    for (long i = n - 1; i >= 0 && i >= n - SLOW_QUERY_SAMPLES; i--) {
+      SlowQuery sample = this.slowQueries.get((int) (i % SLOW_QUERY_SAMPLES));
+      if (sample != null) {
+        result.add(sample);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long getAcquireCount() {
+    return this.acquireLatency.getCount();
+  }
+
+  @Override
+  public long getAcquireFailures() {
+    return this.acquireFailures.get();
+  }
+
+  @Override
+  public double getAcquireMeanMillis() {
+    return this.acquireLatency.getMeanMillis();
+  }
+
+  @Override
+  public double getAcquireP99Millis() {
+    return this.acquireLatency.getPercentileMillis(0.99);
+  }
+
+  @Override
+  public double getAcquireMaxMillis() {
+    return this.acquireLatency.getMaxMillis();
+  }
+
+  @Override
+  public long getStatementCount() {
+    return this.statementLatency.getCount();
+  }
+
+  @Override
+  public long getStatementFailures() {
+    return this.statementFailures.get();
+  }
+
+  @Override
+  public double getStatementMeanMillis() {
+    return this.statementLatency.getMeanMillis();
+  }
+
+  @Override
+  public double getStatementP50Millis() {
+    return this.statementLatency.getPercentileMillis(0.5);
+  }
+
+  @Override
+  public double getStatementP99Millis() {
+    return this.statementLatency.getPercentileMillis(0.99);
+  }
+
+  @Override
+  public double getStatementMaxMillis() {
+    return this.statementLatency.getMaxMillis();
+  }
+
+  @Override
+  public long getRows() {
+    return this.rows.get();
+  }
+
+  @Override
+  public long getBytes() {
+    return this.bytes.get();
+  }
+
+  @Override
+  public int getActiveConnections() {
+    return this.activeConnections.getAsInt();
+  }
+
+  @Override
+  public int getIdleConnections() {
+    return this.idleConnections.getAsInt();
+  }
+
+  @Override
+  public long getSlowQueryThresholdMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(this.slowQueryThresholdNanos);
+  }
+
+  @Override
+  public final void setSlowQueryThresholdMillis(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("threshold cannot be negative");
+    }
+    this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  @Override
+  public String[] getSlowQueries() {
+    return this.getSlowQuerySamples().stream()
+            .map(SlowQuery::toString)
+            .toArray(String[]::new);
+  }
+
+  @Override
+  public void reset() {
+    this.acquireLatency.reset();
+    this.statementLatency.reset();
+    this.acquireFailures.set(0);
+    this.statementFailures.set(0);
+    this.rows.set(0);
+    this.bytes.set(0);
+    for (int i = 0; i < SLOW_QUERY_SAMPLES; i++) {
+      this.slowQueries.set(i, null);
+    }
+    this.slowQueryCount.set(0);
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server as
+   * <code>common.db:type=PoolMetrics,name=&lt;name&gt;</code>.
+   *
+   * @param name
+   * @return
+   */
+  public synchronized ObjectName registerMBean(String name) {
+    if (this.objectName != null) {
+      throw new IllegalStateException("Already registered as " + this.objectName);
+    }
+    try {
+      ObjectName result = new ObjectName("common.db:type=PoolMetrics,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, result);
+      this.objectName = result;
+      return result;
+    } catch (JMException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   *
+   */
+  public synchronized void unregisterMBean() {
+    if (this.objectName != null) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try {
+        if (server.isRegistered(this.objectName)) {
+          server.unregisterMBean(this.objectName);
+        }
+      } catch (JMException ex) {
+        throw new RuntimeException(ex);
+      } finally {
+        this.objectName = null;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DefaultPoolMetrics{" + "acquire=" + acquireLatency + ", statements=" + statementLatency
+            + ", rows=" + rows + ", bytes=" + bytes + ", slowQueries=" + slowQueryCount + '}';
+  }
+
+  /**
+   * Histogram of latencies in power of two buckets of microseconds.
+   */
+  public static class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     *
+     * @param nanos
+     */
+    void record(long nanos) {
+      long micros = Math.max(0, nanos) / 1000;
+      int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      this.counts.incrementAndGet(bucket);
+      this.count.incrementAndGet();
+      this.totalNanos.addAndGet(nanos);
+      this.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     *
+     */
+    void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+        this.counts.set(i, 0);
+      }
+      this.count.set(0);
+      this.totalNanos.set(0);
+      this.maxNanos.set(0);
+    }
+
+    public long getCount() {
+      return this.count.get();
+    }
+
+    public double getMeanMillis() {
+      long n = this.count.get();
+      return n == 0 ? 0 : this.totalNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+      return this.maxNanos.get() / 1e6;
+    }
+
+    /**
+     *
+     * @param percentile between 0 and 1.
+     * @return the upper bound of the bucket holding the percentile, capped to the
+     * maximum recorded latency.
+     */
+    public double getPercentileMillis(double percentile) {
+      if (percentile < 0 || percentile > 1) {
+        throw new IllegalArgumentException("percentile must be between 0 and 1");
+      }
+      long total = 0;
+      long[] snapshot = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] = this.counts.get(i);
+        total += snapshot[i];
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(percentile * total);
+      long seen = 0;
+      int bucket = BUCKETS - 1;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += snapshot[i];
+        if (seen >= Math.max(1, rank)) {
+          bucket = i;
+          break;
+        }
+      }
+      double upperMillis = (bucket == 0 ? 1 : (1L << bucket)) / 1e3;
+      return Math.min(upperMillis, this.getMaxMillis());
+    }
+
+    @Override
+    public String toString() {
+      return "{" + "count=" + this.getCount() + ", meanMillis=" + this.getMeanMillis()
+              + ", p99Millis=" + this.getPercentileMillis(0.99) + ", maxMillis=" + this.getMaxMillis() + '}';
+    }
+  }
+
+  /**
+   * A statement that took longer than the slow query threshold.
+   */
+  public static class SlowQuery {
+
+    private final String sql;
+    private final long nanos;
+    private final long rows;
+    private final long timestamp;
+    private final boolean success;
+
+    SlowQuery(String sql, long nanos, long rows, long timestamp, boolean success) {
+      this.sql = sql == null || sql.length() <= MAX_SQL_LENGTH ? sql : sql.substring(0, MAX_SQL_LENGTH) + "...";
+      this.nanos = nanos;
+      this.rows = rows;
+      this.timestamp = timestamp;
+      this.success = success;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public double getMillis() {
+      return nanos / 1e6;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    /**
+     *
+     * @return the epoch millis at which the statement finished.
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public boolean isSuccess() {
+      return success;
+    }
+
+    @Override
+    public String toString() {
+      return "SlowQuery{" + "millis=" + getMillis() + ", rows=" + rows + ", timestamp=" + timestamp
+              + ", success=" + success + ", sql=" + sql + '}';
+    }
+  }
+}
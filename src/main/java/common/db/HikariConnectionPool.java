@@ -2,10 +2,12 @@ package common.db;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 /**
  *
@@ -35,13 +37,54 @@ public class HikariConnectionPool extends DefaultConnectionPool {
    */
   @Override
   public Connection getConnection() {
+    PoolMetrics metrics = this.getMetrics();
+    long start = System.nanoTime();
+    boolean success = false;
     try {
-      return this.dataSource.getConnection();
+      Connection result = this.dataSource.getConnection();
+      success = true;
+      return result;
     } catch (SQLException ex) {
       throw new RuntimeException(ex);
+    } finally {
+      metrics.connectionAcquired(System.nanoTime() - start, success);
     }
   }
 
+  /**
+   * Also reports the active and idle connections of the pool if the metrics are
+   * {@linkplain DefaultPoolMetrics}.
+   *
+   * @param metrics
+   */
+  @Override
+  public void setMetrics(PoolMetrics metrics) {
+    super.setMetrics(metrics);
+    if (metrics instanceof DefaultPoolMetrics) {
+      ((DefaultPoolMetrics) metrics).setConnectionCounts(
+              () -> this.poolCount(HikariPoolMXBean::getActiveConnections),
+              () -> this.poolCount(HikariPoolMXBean::getIdleConnections));
+    }
+  }
+
+  /**
+   *
+   * @param count
+   * @return the count, or -1 if the pool has not started or is closed.
+   */
+  private int poolCount(ToIntFunction<HikariPoolMXBean> count) {
+    HikariPoolMXBean bean = this.dataSource.isClosed() ? null : this.dataSource.getHikariPoolMXBean();
+    return bean == null ? -1 : count.applyAsInt(bean);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public int getMaximumPoolSize() {
+    return this.dataSource.getMaximumPoolSize();
+  }
+
   /**
    *
    * @throws IOException
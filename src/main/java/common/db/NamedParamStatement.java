@@ -9,27 +9,24 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.postgresql.PGStatement;
 
 public class NamedParamStatement {
 
   private final PreparedStatement prepStmt;
-  private final List<String> fields = new ArrayList<>();
+  private final CompiledQuery query;
 
   public NamedParamStatement(Connection conn, String sql) throws SQLException {
-    Pattern findParametersPattern = Pattern.compile("(?<!')(:[\\w]*)(?!')");
-    Matcher matcher = findParametersPattern.matcher(sql);
-    while (matcher.find()) {
-      String substring = matcher.group().substring(1);
-      if (!substring.isEmpty()) {
-        fields.add(substring);
-      }
+    this.query = CompiledQuery.compile(sql);
+    prepStmt = conn.prepareStatement(this.query.getSql());
+    if (this.query.markUsed() > 1 && prepStmt.isWrapperFor(PGStatement.class)) {
+      prepStmt.unwrap(PGStatement.class).setPrepareThreshold(1);
     }
-    prepStmt = conn.prepareStatement(sql.replaceAll(findParametersPattern.pattern(), "?"));
+  }
+
+  public CompiledQuery getCompiledQuery() {
+    return query;
   }
 
   public PreparedStatement getPreparedStatement() {
@@ -45,15 +42,13 @@ public class NamedParamStatement {
   }
 
   public void setInt(String name, int value) throws SQLException {
-    List<Integer> index = getIndex(name);
-    for (Integer integer : index) {
+    for (int integer : this.query.getIndexes(name)) {
       prepStmt.setInt(integer, value);
     }
   } 
     
   public void setObject(String name, Object value) throws SQLException {
-    List<Integer> index = getIndex(name);
-    for (Integer integer : index) {
+    for (int integer : this.query.getIndexes(name)) {
       if (value instanceof Date) {
         prepStmt.setObject(integer, new java.sql.Date(((Date) value).getTime()));
       } else {
@@ -63,16 +58,4 @@ public class NamedParamStatement {
     }
   }
 
-  private List<Integer> getIndex(String name) {
-    List<Integer> result = new ArrayList<>();
-    int index = 0;
-    for (String field : this.fields) {
-      index++;
-      if (field.equals(name)) {
-        result.add(index);
-      }
-    }
-    return result;
-  }
-
 }
@@ -0,0 +1,43 @@
+package common.db;
+
+/**
+ * Receives the timings of a {@linkplain ConnectionPool}: how long it took to get each
+ * connection and how long each statement executed through a {@linkplain DbConnection}
+ * took. Implementations must be thread safe and cheap, since they are called on every
+ * connection and statement.
+ *
+ * @author Ricardo Marquez
+ * @see DefaultPoolMetrics
+ */
+public interface PoolMetrics {
+
+  /**
+   * Metrics that record nothing. The default of every pool.
+   */
+  public static final PoolMetrics NONE = new PoolMetrics() {
+    @Override
+    public void connectionAcquired(long nanos, boolean success) {
+    }
+
+    @Override
+    public void statementExecuted(String sql, long nanos, long rows, long bytes, boolean success) {
+    }
+  };
+
+  /**
+   *
+   * @param nanos the time spent waiting for the connection.
+   * @param success false if getting the connection failed.
+   */
+  public void connectionAcquired(long nanos, boolean success);
+
+  /**
+   *
+   * @param sql the statement text.
+   * @param nanos the time spent executing the statement and reading its results.
+   * @param rows the rows read or written, or -1 if unknown.
+   * @param bytes the bytes sent, or -1 if unknown.
+   * @param success false if the statement failed.
+   */
+  public void statementExecuted(String sql, long nanos, long rows, long bytes, boolean success);
+}
@@ -0,0 +1,47 @@
+package common.db;
+
+/**
+ * JMX view of a {@linkplain DefaultPoolMetrics}. Times are in milliseconds.
+ *
+ * @author Ricardo Marquez
+ */
+public interface PoolMetricsMXBean {
+
+  public long getAcquireCount();
+
+  public long getAcquireFailures();
+
+  public double getAcquireMeanMillis();
+
+  public double getAcquireP99Millis();
+
+  public double getAcquireMaxMillis();
+
+  public long getStatementCount();
+
+  public long getStatementFailures();
+
+  public double getStatementMeanMillis();
+
+  public double getStatementP50Millis();
+
+  public double getStatementP99Millis();
+
+  public double getStatementMaxMillis();
+
+  public long getRows();
+
+  public long getBytes();
+
+  public int getActiveConnections();
+
+  public int getIdleConnections();
+
+  public long getSlowQueryThresholdMillis();
+
+  public void setSlowQueryThresholdMillis(long millis);
+
+  public String[] getSlowQueries();
+
+  public void reset();
+}
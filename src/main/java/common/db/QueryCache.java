@@ -0,0 +1,385 @@
+package common.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of query results for a {@linkplain DbConnection}. Entries are keyed by the SQL
+ * text plus a list of parameters, expire after a time to live and are evicted in least
+ * recently used order once the total weight of the cache exceeds the maximum weight.
+ *
+ * <p>
+ * The tables a query reads from are parsed from its <code>from</code> and
+ * <code>join</code> clauses. When a statement writes to one of those tables through the
+ * {@linkplain DbConnection} the entries are dropped. Statements whose target table
+ * cannot be recognized clear the whole cache.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class QueryCache {
+
+  /**
+   * A possibly schema qualified name whose parts are words or quoted identifiers.
+   */
+  private static final String NAME = "((?:\"[^\"]+\"|\\w+)(?:\\s*\\.\\s*(?:\"[^\"]+\"|\\w+))*)";
+  private static final Pattern READ_TABLES = Pattern.compile(
+          "\\b(?:from|join)\\s+" + NAME, Pattern.CASE_INSENSITIVE);
+  /**
+   * The update of an upsert, <code>on conflict ... do update set</code>, has no table.
+   */
+  private static final Pattern WRITE_TABLES = Pattern.compile(
+          "\\b(?:insert\\s+into|(?<!\\bdo\\s{1,32})update|delete\\s+from|truncate(?:\\s+table)?|"
+          + "(?:alter|drop)\\s+table(?:\\s+if\\s+exists)?|copy)\\s+" + NAME,
+          Pattern.CASE_INSENSITIVE);
+
+  private final long maxWeight;
+  private final long defaultTtlMillis;
+  private final ToLongFunction<Object> weigher;
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Set<Key>> keysByTable = new HashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+  private long weight = 0;
+  private long generation = 0;
+
+  /**
+   * Creates a cache where lists weigh their size and every other value weighs one.
+   *
+   * @param maxWeight
+   * @param defaultTtlMillis
+   */
+  public QueryCache(long maxWeight, long defaultTtlMillis) {
+    this(maxWeight, defaultTtlMillis, QueryCache::defaultWeight);
+  }
+
+  /**
+   *
+   * @param maxWeight
+   * @param defaultTtlMillis
+   * @param weigher
+   */
+  public QueryCache(long maxWeight, long defaultTtlMillis, ToLongFunction<Object> weigher) {
+    if (maxWeight < 1) {
+      throw new IllegalArgumentException("max weight must be greater than zero");
+    }
+    if (defaultTtlMillis < 1) {
+      throw new IllegalArgumentException("time to live must be greater than zero");
+    }
+    Objects.requireNonNull(weigher, "weigher cannot be null");
+    this.maxWeight = maxWeight;
+    this.defaultTtlMillis = defaultTtlMillis;
+    this.weigher = weigher;
+  }
+
+  /**
+   *
+   * @param value
+   * @return
+   */
+  private static long defaultWeight(Object value) {
+    return value instanceof Collection ? Math.max(1, ((Collection<?>) value).size()) : 1;
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param sql
+   * @param params
+   * @param loader
+   * @return
+   */
+  public <T> T get(String sql, List<?> params, Supplier<T> loader) {
+    return this.get(sql, params, this.defaultTtlMillis, loader);
+  }
+
+  /**
+   * Returns the cached result for the query and parameters, or loads and caches it.
+   *
+   * @param <T>
+   * @param sql
+   * @param params
+   * @param ttlMillis
+   * @param loader
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(String sql, List<?> params, long ttlMillis, Supplier<T> loader) {
+    Key key = new Key(sql, params);
+    long now = System.currentTimeMillis();
+    long loadGeneration;
+    synchronized (this) {
+      loadGeneration = this.generation;
+      Entry entry = this.entries.get(key);
+      if (entry != null) {
+        if (entry.expiresAt > now) {
+          this.hits.incrementAndGet();
+          return (T) entry.value;
+        }
+        this.remove(key);
+      }
+    }
+    this.misses.incrementAndGet();
+    T result = loader.get();
+    Set<String> tables = readTables(sql);
+    synchronized (this) {
+      this.remove(key);
+      long w = this.weigher.applyAsLong(result);
+      // a write that ran while loading may have made the result stale.
+      if (loadGeneration == this.generation && w <= this.maxWeight) {
+        this.entries.put(key, new Entry(result, w, now + ttlMillis, tables));
+        this.weight += w;
+        for (String table : tables) {
+          this.keysByTable.computeIfAbsent(table, (t) -> new HashSet<>()).add(key);
+        }
+        this.evict();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Drops the entries reading from the tables written by the statement. Clears the
+   * whole cache if no table can be recognized.
+   *
+   * @param statement
+   */
+  public void invalidateStatement(String statement) {
+    Set<String> tables = writeTables(statement);
+    if (tables.isEmpty()) {
+      this.invalidateAll();
+    } else {
+      this.invalidateTables(tables);
+    }
+  }
+
+  /**
+   *
+   * @param tables
+   */
+  public synchronized void invalidateTables(Collection<String> tables) {
+    this.generation++;
+    for (String table : tables) {
+      Set<Key> keys = this.keysByTable.remove(normalize(table));
+      if (keys != null) {
+        for (Key key : new ArrayList<>(keys)) {
+          if (this.remove(key)) {
+            this.invalidations.incrementAndGet();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  public synchronized void invalidateAll() {
+    this.generation++;
+    this.invalidations.addAndGet(this.entries.size());
+    this.entries.clear();
+    this.keysByTable.clear();
+    this.weight = 0;
+  }
+
+  /**
+   *
+   */
+  private void evict() {
+    Iterator<Map.Entry<Key, Entry>> iterator = this.entries.entrySet().iterator();
+    while (this.weight > this.maxWeight && iterator.hasNext()) {
+      Map.Entry<Key, Entry> eldest = iterator.next();
+      iterator.remove();
+      this.unindex(eldest.getKey(), eldest.getValue());
+      this.evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   *
+   * @param key
+   * @return
+   */
+  private boolean remove(Key key) {
+    Entry entry = this.entries.remove(key);
+    if (entry != null) {
+      this.unindex(key, entry);
+    }
+    return entry != null;
+  }
+
+  /**
+   *
+   * @param key
+   * @param entry
+   */
+  private void unindex(Key key, Entry entry) {
+    this.weight -= entry.weight;
+    for (String table : entry.tables) {
+      Set<Key> keys = this.keysByTable.get(table);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          this.keysByTable.remove(table);
+        }
+      }
+    }
+  }
+
+  /**
+   *
+   * @param sql
+   * @return the tables a query reads from.
+   */
+  static Set<String> readTables(String sql) {
+    return tables(READ_TABLES, sql);
+  }
+
+  /**
+   *
+   * @param sql
+   * @return the tables a statement writes to.
+   */
+  static Set<String> writeTables(String sql) {
+    return tables(WRITE_TABLES, sql);
+  }
+
+  /**
+   *
+   * @param pattern
+   * @param sql
+   * @return
+   */
+  private static Set<String> tables(Pattern pattern, String sql) {
+    Set<String> result = new HashSet<>();
+    Matcher matcher = pattern.matcher(sql);
+    while (matcher.find()) {
+      result.add(normalize(matcher.group(1)));
+    }
+    return result;
+  }
+
+  /**
+   * Tables are matched by their unqualified, unquoted, lower case name, so a write to
+   * <code>public.station</code> also invalidates queries on <code>station</code>.
+   *
+   * @param table
+   * @return
+   */
+  private static String normalize(String table) {
+    String name = table.trim();
+    String result;
+    if (name.endsWith("\"") && name.length() > 1) {
+      result = name.substring(name.lastIndexOf('"', name.length() - 2) + 1, name.length() - 1);
+    } else {
+      result = name.substring(name.lastIndexOf('.') + 1).trim();
+    }
+    return result.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  /**
+   *
+   * @return
+   */
+  public synchronized long getWeight() {
+    return this.weight;
+  }
+
+  public long getHitCount() {
+    return this.hits.get();
+  }
+
+  public long getMissCount() {
+    return this.misses.get();
+  }
+
+  public long getEvictionCount() {
+    return this.evictions.get();
+  }
+
+  public long getInvalidationCount() {
+    return this.invalidations.get();
+  }
+
+  @Override
+  public String toString() {
+    return "QueryCache{" + "size=" + this.size() + ", weight=" + this.getWeight()
+            + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+            + ", invalidations=" + invalidations + '}';
+  }
+
+  /**
+   *
+   */
+  private static class Entry {
+
+    private final Object value;
+    private final long weight;
+    private final long expiresAt;
+    private final Set<String> tables;
+
+    Entry(Object value, long weight, long expiresAt, Set<String> tables) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+      this.tables = tables;
+    }
+  }
+
+  /**
+   *
+   */
+  private static class Key {
+
+    private final String sql;
+    private final Object[] params;
+    private final int hash;
+
+    Key(String sql, List<?> params) {
+      this.sql = sql;
+      this.params = params == null ? new Object[0] : params.toArray();
+      this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.params);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return this.sql.equals(other.sql) && Arrays.deepEquals(this.params, other.params);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package common.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spliterator reading the rows of an open cursor one at a time. Owns the connection,
+ * statement and result set and releases them in {@linkplain #close()}, which is also
+ * called once the last row has been read or when reading or mapping a row fails.
+ *
+ * @author Ricardo Marquez
+ * @param <T>
+ */
+class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+  private final Connection conn;
+  private final PreparedStatement statement;
+  private final ResultSet resultSet;
+  private final ResultMapper<T> mapper;
+  private final String sql;
+  private final PoolMetrics metrics;
+  private final long start;
+  private long rows = 0;
+  private boolean failed = false;
+  private boolean closed = false;
+
+  /**
+   *
+   * @param conn
+   * @param statement
+   * @param resultSet
+   * @param mapper
+   * @param sql
+   * @param metrics
+   * @param start
+   */
+  ResultSetSpliterator(Connection conn, PreparedStatement statement, ResultSet resultSet,
+          ResultMapper<T> mapper, String sql, PoolMetrics metrics, long start) {
+    super(Long.MAX_VALUE, Spliterator.ORDERED);
+    this.conn = conn;
+    this.statement = statement;
+    this.resultSet = resultSet;
+    this.mapper = mapper;
+    this.sql = sql;
+    this.metrics = metrics;
+    this.start = start;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (this.closed) {
+      return false;
+    }
+    boolean result;
+    try {
+      result = this.resultSet.next();
+    } catch (SQLException ex) {
+      this.failed = true;
+      this.close();
+      throw new RuntimeException(ex);
+    }
+    if (result) {
+      this.rows++;
+      T value;
+      try {
+        value = this.mapper.map(this.resultSet);
+      } catch (RuntimeException | Error ex) {
+        this.failed = true;
+        this.close();
+        throw ex;
+      }
+      action.accept(value);
+    } else {
+      this.close();
+    }
+    return result;
+  }
+
+  /**
+   * Closes the cursor and returns the connection. Safe to call more than once.
+   */
+  @Override
+  public void close() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    this.metrics.statementExecuted(this.sql, System.nanoTime() - this.start,
+            this.failed ? -1 : this.rows, -1, !this.failed);
+    try {
+      this.resultSet.close();
+      this.statement.close();
+      this.conn.commit();
+    } catch (SQLException ex) {
+      Logger.getLogger(ResultSetSpliterator.class.getName()).log(Level.SEVERE, null, ex);
+    } finally {
+      try {
+        this.conn.close();
+      } catch (SQLException ex) {
+        Logger.getLogger(ResultSetSpliterator.class.getName()).log(Level.SEVERE, null, ex);
+      }
+    }
+  }
+}
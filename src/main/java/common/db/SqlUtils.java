@@ -28,36 +28,42 @@ public final class SqlUtils {
    */
   public static List<RecordValue> executeListQuery(DbConnection connection,
           String query, QueryParameters queryParams, String idField) throws SQLException {
-    Connection conn = connection.getConnection();
-    NamedParamStatement statement = new NamedParamStatement(conn, query);
-    for (QueryParameter queryParam : queryParams) {
-      String paramName = queryParam.getName();
-      Object paramValue = queryParam.getValue();
-      statement.setObject(paramName, paramValue);
-    }
-    
-    ResultSetMetaData metaData = statement.getPreparedStatement().getMetaData();
-    if (metaData == null) {
-      throw new SQLException("Invalid query : '" + query  + "'"); 
-    }
-    int colCont = metaData.getColumnCount();
     List<RecordValue> result = new ArrayList<>();
-    ResultSet r = statement.executeQuery();
-    while (r.next()) {
-      Map<String, Object> values = new HashMap<>();
-      for (int colIndex = 1; colIndex <= colCont; colIndex++) {
-        Object object = r.getObject(colIndex); 
-        String colName = metaData.getColumnName(colIndex);
-        values.put(colName, object); 
-      }
-      if (!values.containsKey(idField)) {
-        throw new RuntimeException("Id field is not present in result set.  Check args: {"
-                + "idField = "  + idField
-                + ", query = "  + query
-                + "} "); 
+    try (Connection conn = connection.getConnection()) {
+      NamedParamStatement statement = new NamedParamStatement(conn, query);
+      try {
+        for (QueryParameter queryParam : queryParams) {
+          String paramName = queryParam.getName();
+          Object paramValue = queryParam.getValue();
+          statement.setObject(paramName, paramValue);
+        }
+        ResultSet r = statement.executeQuery();
+        ResultSetMetaData metaData = r.getMetaData();
+        if (metaData == null) {
+          throw new SQLException("Invalid query : '" + query  + "'"); 
+        }
+        String[] columnNames = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+          columnNames[i] = metaData.getColumnName(i + 1);
+        }
+        while (r.next()) {
+          Map<String, Object> values = new HashMap<>();
+          for (int colIndex = 1; colIndex <= columnNames.length; colIndex++) {
+            Object object = r.getObject(colIndex); 
+            values.put(columnNames[colIndex - 1], object); 
+          }
+          if (!values.containsKey(idField)) {
+            throw new RuntimeException("Id field is not present in result set.  Check args: {"
+                    + "idField = "  + idField
+                    + ", query = "  + query
+                    + "} "); 
+          }
+          RecordValue record = new RecordValue(idField, values); 
+          result.add(record); 
+        }
+      } finally {
+        statement.close();
       }
-      RecordValue record = new RecordValue(idField, values); 
-      result.add(record); 
     }
     return result;
   }
@@ -0,0 +1,306 @@
+package common.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * The accumulators of the built in {@linkplain Aggregator}s.
+ *
+ * @author Ricardo Marquez
+ */
+final class Accumulators {
+
+  private Accumulators() {
+  }
+
+  /**
+   *
+   */
+  static final class Mean implements Aggregator.Accumulator {
+
+    private double sum;
+    private long count;
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        this.sum += value;
+        this.count++;
+      }
+    }
+
+    @Override
+    public void remove(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        this.sum -= value;
+        this.count--;
+      }
+    }
+
+    @Override
+    public double result() {
+      return this.count == 0 ? Double.NaN : this.sum / this.count;
+    }
+
+    @Override
+    public void reset() {
+      this.sum = 0;
+      this.count = 0;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      Mean o = (Mean) other;
+      this.sum += o.sum;
+      this.count += o.count;
+    }
+  }
+
+  /**
+   *
+   */
+  static final class Sum implements Aggregator.Accumulator {
+
+    private double sum;
+    private long count;
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        this.sum += value;
+        this.count++;
+      }
+    }
+
+    @Override
+    public void remove(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        this.sum -= value;
+        this.count--;
+      }
+    }
+
+    @Override
+    public double result() {
+      return this.count == 0 ? Double.NaN : this.sum;
+    }
+
+    @Override
+    public void reset() {
+      this.sum = 0;
+      this.count = 0;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      Sum o = (Sum) other;
+      this.sum += o.sum;
+      this.count += o.count;
+    }
+  }
+
+  /**
+   *
+   */
+  static final class Count implements Aggregator.Accumulator {
+
+    private long count;
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        this.count++;
+      }
+    }
+
+    @Override
+    public void remove(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        this.count--;
+      }
+    }
+
+    @Override
+    public double result() {
+      return this.count;
+    }
+
+    @Override
+    public void reset() {
+      this.count = 0;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      this.count += ((Count) other).count;
+    }
+  }
+
+  /**
+   *
+   */
+  static final class Min implements Aggregator.Accumulator {
+
+    private double min = Double.NaN;
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (!Double.isNaN(value) && (Double.isNaN(this.min) || value < this.min)) {
+        this.min = value;
+      }
+    }
+
+    @Override
+    public double result() {
+      return this.min;
+    }
+
+    @Override
+    public void reset() {
+      this.min = Double.NaN;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      this.add(0, ((Min) other).min);
+    }
+  }
+
+  /**
+   *
+   */
+  static final class Max implements Aggregator.Accumulator {
+
+    private double max = Double.NaN;
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (!Double.isNaN(value) && (Double.isNaN(this.max) || value > this.max)) {
+        this.max = value;
+      }
+    }
+
+    @Override
+    public double result() {
+      return this.max;
+    }
+
+    @Override
+    public void reset() {
+      this.max = Double.NaN;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      this.add(0, ((Max) other).max);
+    }
+  }
+
+  /**
+   *
+   */
+  static final class First implements Aggregator.Accumulator {
+
+    private double first = Double.NaN;
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (Double.isNaN(this.first)) {
+        this.first = value;
+      }
+    }
+
+    @Override
+    public double result() {
+      return this.first;
+    }
+
+    @Override
+    public void reset() {
+      this.first = Double.NaN;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      this.add(0, ((First) other).first);
+    }
+  }
+
+  /**
+   *
+   */
+  static final class Last implements Aggregator.Accumulator {
+
+    private double last = Double.NaN;
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        this.last = value;
+      }
+    }
+
+    @Override
+    public double result() {
+      return this.last;
+    }
+
+    @Override
+    public void reset() {
+      this.last = Double.NaN;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      this.add(0, ((Last) other).last);
+    }
+  }
+
+  /**
+   *
+   */
+  static final class Percentile implements Aggregator.Accumulator {
+
+    private final double percentile;
+    private double[] buffer = new double[16];
+    private int count;
+
+    Percentile(double percentile) {
+      this.percentile = percentile;
+    }
+
+    @Override
+    public void add(long epochMilli, double value) {
+      if (!Double.isNaN(value)) {
+        if (this.count == this.buffer.length) {
+          this.buffer = Arrays.copyOf(this.buffer, this.count << 1);
+        }
+        this.buffer[this.count++] = value;
+      }
+    }
+
+    @Override
+    public double result() {
+      if (this.count == 0) {
+        return Double.NaN;
+      }
+      Arrays.sort(this.buffer, 0, this.count);
+      double rank = this.percentile * (this.count - 1);
+      int lower = (int) Math.floor(rank);
+      int upper = Math.min(lower + 1, this.count - 1);
+      return this.buffer[lower] + (rank - lower) * (this.buffer[upper] - this.buffer[lower]);
+    }
+
+    @Override
+    public void reset() {
+      this.count = 0;
+    }
+
+    @Override
+    public void merge(Aggregator.Accumulator other) {
+      Percentile o = (Percentile) other;
+      for (int i = 0; i < o.count; i++) {
+        this.add(0, o.buffer[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package common.timeseries;
+
+/**
+ * Aggregation of the values of a bucket into a single value. Each aggregator creates
+ * {@linkplain Accumulator}s that work on primitive values and are reset and reused
+ * from one bucket to the next. NaN values are treated as missing and skipped; an
+ * empty bucket aggregates to NaN, or to zero for {@linkplain #count()}.
+ *
+ * @author Ricardo Marquez
+ */
+public interface Aggregator {
+
+  /**
+   *
+   * @return a new, empty accumulator.
+   */
+  public Accumulator newAccumulator();
+
+  /**
+   * Running state of an aggregation.
+   */
+  public static interface Accumulator {
+
+    /**
+     *
+     * @param epochMilli the time of the value.
+     * @param value
+     */
+    public void add(long epochMilli, double value);
+
+    /**
+     * Removes a value previously added. Only supported by accumulators that can undo
+     * an addition without keeping the values.
+     *
+     * @param epochMilli
+     * @param value
+     */
+    public default void remove(long epochMilli, double value) {
+      throw new UnsupportedOperationException("Values cannot be removed from " + getClass().getSimpleName());
+    }
+
+    /**
+     *
+     * @return the aggregate of the values added since the last reset.
+     */
+    public double result();
+
+    /**
+     * Clears the values added.
+     */
+    public void reset();
+
+    /**
+     * Adds the values of an accumulator of the same aggregator holding values that come
+     * after the values of this one.
+     *
+     * @param other
+     */
+    public void merge(Accumulator other);
+  }
+
+  public static Aggregator mean() {
+    return Accumulators.Mean::new;
+  }
+
+  public static Aggregator sum() {
+    return Accumulators.Sum::new;
+  }
+
+  public static Aggregator count() {
+    return Accumulators.Count::new;
+  }
+
+  public static Aggregator min() {
+    return Accumulators.Min::new;
+  }
+
+  public static Aggregator max() {
+    return Accumulators.Max::new;
+  }
+
+  /**
+   *
+   * @return the earliest value of the bucket.
+   */
+  public static Aggregator first() {
+    return Accumulators.First::new;
+  }
+
+  /**
+   *
+   * @return the latest value of the bucket.
+   */
+  public static Aggregator last() {
+    return Accumulators.Last::new;
+  }
+
+  /**
+   * Percentile interpolated linearly between the closest ranks. The values of a bucket
+   * are kept in a buffer that is reused for every bucket.
+   *
+   * @param percentile between 0 and 1, e.g. 0.5 for the median.
+   * @return
+   */
+  public static Aggregator percentile(double percentile) {
+    if (!(percentile >= 0 && percentile <= 1)) {
+      throw new IllegalArgumentException("percentile must be between 0 and 1");
+    }
+    return () -> new Accumulators.Percentile(percentile);
+  }
+}
@@ -0,0 +1,146 @@
+package common.timeseries;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.Objects;
+
+/**
+ * The boundaries <code>origin + k * interval</code> of a resampling grid. Fixed
+ * durations are computed in epoch millis; calendar amounts are added to the origin in
+ * its zone, periods being multiplied so that month ends do not drift.
+ *
+ * @author Ricardo Marquez
+ */
+final class BucketGrid {
+
+  private final ZonedDateTime origin;
+  private final long originMillis;
+  private final TemporalAmount interval;
+  private final long stepMillis;
+  private long lastK = 0;
+  private ZonedDateTime lastDateTime;
+
+  /**
+   *
+   * @param origin
+   * @param interval
+   */
+  BucketGrid(ZonedDateTime origin, TemporalAmount interval) {
+    Objects.requireNonNull(origin, "origin cannot be null");
+    Objects.requireNonNull(interval, "interval cannot be null");
+    this.origin = origin;
+    this.originMillis = origin.toInstant().toEpochMilli();
+    this.interval = interval;
+    this.lastDateTime = origin;
+    long step = 0;
+    if (interval instanceof Duration) {
+      Duration duration = (Duration) interval;
+      if (duration.isNegative() || duration.isZero() || duration.getNano() % 1_000_000 != 0) {
+        throw new IllegalArgumentException("Interval must be a positive number of milliseconds: " + interval);
+      }
+      step = duration.toMillis();
+    } else if (!origin.plus(interval).isAfter(origin)) {
+      throw new IllegalArgumentException("Interval must be positive: " + interval);
+    }
+    this.stepMillis = step;
+  }
+
+  /**
+   *
+   * @return true if the buckets have a fixed length.
+   */
+  boolean isFixed() {
+    return this.stepMillis > 0;
+  }
+
+  /**
+   *
+   * @return
+   */
+  long getStepMillis() {
+    return this.stepMillis;
+  }
+
+  /**
+   *
+   * @return
+   */
+  ZoneId getZoneId() {
+    return this.origin.getZone();
+  }
+
+  /**
+   *
+   * @param k
+   * @return the epoch millis of the k-th boundary.
+   */
+  long start(long k) {
+    return this.isFixed() ? this.originMillis + k * this.stepMillis : this.dateTime(k).toInstant().toEpochMilli();
+  }
+
+  /**
+   *
+   * @param k
+   * @return the date time of the k-th boundary.
+   */
+  ZonedDateTime dateTime(long k) {
+    ZonedDateTime result;
+    if (this.isFixed()) {
+      result = ZonedDateTime.ofInstant(Instant.ofEpochMilli(this.originMillis + k * this.stepMillis), this.origin.getZone());
+    } else if (k == this.lastK) {
+      result = this.lastDateTime;
+    } else if (this.interval instanceof Period) {
+      result = this.origin.plus(((Period) this.interval).multipliedBy(Math.toIntExact(k)));
+    } else if (k == this.lastK + 1) {
+      // other amounts are stepped one bucket at a time.
+      result = this.lastDateTime.plus(this.interval);
+    } else {
+      result = this.origin;
+      for (long i = 0; i < k; i++) {
+        result = result.plus(this.interval);
+      }
+    }
+    this.lastK = k;
+    this.lastDateTime = result;
+    return result;
+  }
+
+  /**
+   *
+   * @param epochMilli not before the origin.
+   * @return the index of the bucket containing the epoch millis.
+   */
+  long indexOf(long epochMilli) {
+    if (this.isFixed()) {
+      return Math.floorDiv(epochMilli - this.originMillis, this.stepMillis);
+    }
+    long lo = 0;
+    long hi = 1;
+    while (this.start(hi) <= epochMilli) {
+      lo = hi;
+      hi <<= 1;
+    }
+    while (hi - lo > 1) {
+      long mid = (lo + hi) >>> 1;
+      if (this.start(mid) <= epochMilli) {
+        lo = mid;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * The boundaries of calendar grids are cached, so each thread works on its own copy.
+   *
+   * @return a grid with the same origin and interval.
+   */
+  BucketGrid copy() {
+    return new BucketGrid(this.origin, this.interval);
+  }
+}
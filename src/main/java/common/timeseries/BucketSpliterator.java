@@ -0,0 +1,130 @@
+package common.timeseries;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Spliterator over the row indexes <code>[lo, hi)</code> of sorted epoch millis that
+ * only splits on the boundaries of a {@linkplain BucketGrid}, so every bucket is
+ * covered by a single split.
+ *
+ * @author Ricardo Marquez
+ */
+final class BucketSpliterator implements Spliterator.OfInt {
+
+  private final long[] times;
+  private final BucketGrid grid;
+  private final int minSize;
+  private int lo;
+  private int hi;
+
+  /**
+   *
+   * @param times
+   * @param grid
+   * @param lo
+   * @param hi
+   * @param minSize the size under which the spliterator is not split.
+   */
+  BucketSpliterator(long[] times, BucketGrid grid, int lo, int hi, int minSize) {
+    this.times = times;
+    this.grid = grid;
+    this.lo = lo;
+    this.hi = hi;
+    this.minSize = Math.max(1, minSize);
+  }
+
+  /**
+   *
+   * @return the first row not yet consumed.
+   */
+  int getLo() {
+    return this.lo;
+  }
+
+  /**
+   *
+   * @return the end of the rows, exclusive.
+   */
+  int getHi() {
+    return this.hi;
+  }
+
+  /**
+   *
+   * @return
+   */
+  BucketGrid getGrid() {
+    return this.grid;
+  }
+
+  /**
+   * Splits near the middle, at the start of the bucket holding the middle row or of
+   * the bucket after it.
+   *
+   * @return the prefix, or null if the rows are in a single bucket or too few.
+   */
+  @Override
+  public BucketSpliterator trySplit() {
+    if (this.hi - this.lo < 2 * this.minSize) {
+      return null;
+    }
+    int mid = (this.lo + this.hi) >>> 1;
+    long k = this.grid.indexOf(this.times[mid]);
+    int split = this.firstRowAtOrAfter(this.grid.start(k));
+    if (split <= this.lo) {
+      split = this.firstRowAtOrAfter(this.grid.start(k + 1));
+    }
+    if (split <= this.lo || split >= this.hi) {
+      return null;
+    }
+    BucketSpliterator prefix = new BucketSpliterator(this.times, this.grid.copy(), this.lo, split, this.minSize);
+    this.lo = split;
+    return prefix;
+  }
+
+  /**
+   *
+   * @param epochMilli
+   * @return
+   */
+  private int firstRowAtOrAfter(long epochMilli) {
+    int result = Arrays.binarySearch(this.times, this.lo, this.hi, epochMilli);
+    return result < 0 ? -result - 1 : result;
+  }
+
+  @Override
+  public boolean tryAdvance(IntConsumer action) {
+    if (this.lo < this.hi) {
+      action.accept(this.lo++);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void forEachRemaining(IntConsumer action) {
+    int end = this.hi;
+    for (int i = this.lo; i < end; i++) {
+      action.accept(i);
+    }
+    this.lo = end;
+  }
+
+  @Override
+  public long estimateSize() {
+    return this.hi - this.lo;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | SIZED | SUBSIZED | SORTED | DISTINCT | NONNULL | IMMUTABLE;
+  }
+
+  @Override
+  public Comparator<? super Integer> getComparator() {
+    return null;
+  }
+}
@@ -0,0 +1,595 @@
+package common.timeseries;
+
+import common.timeseries.impl.RegularTimeSeries;
+import common.timeseries.impl.SimpleTimeStepValue;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Immutable, compressed series of doubles at increasing epoch millis, for keeping
+ * long histories in memory. Time steps are stored as delta of deltas and values as the
+ * XOR with the previous value, in variable length bit fields packed into a
+ * <code>long[]</code> (the encoding of Facebook's Gorilla). A regular series needs one
+ * bit per timestamp, and slowly changing values only a few bits each.
+ *
+ * <p>
+ * Time steps are encoded in independent blocks. A skip index of the first and last
+ * epoch millis of each block lets {@linkplain #cursor(long, long)} start decoding at
+ * the first block overlapping a range. Values are decoded one at a time by a
+ * {@linkplain Cursor}, without creating objects.</p>
+ *
+ * <pre>
+ * CompressedTimeSeries.Builder builder = new CompressedTimeSeries.Builder(zoneId);
+ * builder.append(epochMilli, value);
+ * CompressedTimeSeries compressed = builder.build();
+ * CompressedTimeSeries.Cursor cursor = compressed.cursor(from, to);
+ * while (cursor.next()) {
+ *   ... cursor.getEpochMilli(), cursor.getValue()
+ * }
+ * </pre>
+ *
+ * @author Ricardo Marquez
+ */
+public final class CompressedTimeSeries implements Iterable<TimeStepValue<Double>> {
+
+  /**
+   * The default number of time steps per block.
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 512;
+
+  private final ZoneId zoneId;
+  private final long[] words;
+  private final long bits;
+  private final int size;
+  private final int blockSize;
+  private final long[] blockOffsets;
+  private final long[] blockFirstTimes;
+  private final long[] blockLastTimes;
+
+  /**
+   *
+   * @param builder
+   */
+  private CompressedTimeSeries(Builder builder) {
+    int blocks = builder.blocks;
+    this.zoneId = builder.zoneId;
+    this.bits = builder.writer.position;
+    this.words = Arrays.copyOf(builder.writer.words, (int) ((this.bits + 63) >>> 6));
+    this.size = builder.size;
+    this.blockSize = builder.blockSize;
+    this.blockOffsets = Arrays.copyOf(builder.blockOffsets, blocks);
+    this.blockFirstTimes = Arrays.copyOf(builder.blockFirstTimes, blocks);
+    this.blockLastTimes = Arrays.copyOf(builder.blockLastTimes, blocks);
+  }
+
+  /**
+   *
+   * @param source
+   * @param column
+   * @return
+   */
+  public static CompressedTimeSeries encode(TimeSeriesColumns source, int column) {
+    Builder builder = new Builder(source.getZoneId());
+    long[] times = source.times();
+    double[] values = source.values(column);
+    for (int i = 0; i < source.size(); i++) {
+      builder.append(times[i], values[i]);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Encodes a series of numbers, null user objects becoming NaN.
+   *
+   * @param series
+   * @return
+   */
+  public static CompressedTimeSeries encode(TimeSeries<? extends TimeStepValue<? extends Number>> series) {
+    Builder builder = new Builder(series.getZoneId());
+    if (series instanceof RegularTimeSeries) {
+      RegularTimeSeries regular = (RegularTimeSeries) series;
+      for (int i = 0; i < regular.size(); i++) {
+        builder.append(regular.getEpochMilli(i), regular.getValue(i));
+      }
+    } else {
+      for (TimeStepValue<? extends Number> timeStepValue : series) {
+        Number value = timeStepValue.getUserObject();
+        builder.append(timeStepValue.getZoneDateTime().toInstant().toEpochMilli(),
+                value == null ? Double.NaN : value.doubleValue());
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   *
+   * @return
+   */
+  public ZoneId getZoneId() {
+    return this.zoneId;
+  }
+
+  /**
+   *
+   * @return the number of time steps.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   *
+   * @return the size of the encoded time steps and of the skip index.
+   */
+  public long getSizeInBytes() {
+    return 8L * (this.words.length + 3L * this.blockOffsets.length);
+  }
+
+  /**
+   *
+   * @return
+   */
+  public long getFirstEpochMilli() {
+    this.checkNotEmpty();
+    return this.blockFirstTimes[0];
+  }
+
+  /**
+   *
+   * @return
+   */
+  public long getLastEpochMilli() {
+    this.checkNotEmpty();
+    return this.blockLastTimes[this.blockLastTimes.length - 1];
+  }
+
+  /**
+   *
+   */
+  private void checkNotEmpty() {
+    if (this.size == 0) {
+      throw new NoSuchElementException("Series is empty");
+    }
+  }
+
+  /**
+   *
+   * @return a cursor over all the time steps.
+   */
+  public Cursor cursor() {
+    return new Cursor(0, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   *
+   * @param fromEpochMilli inclusive.
+   * @param toEpochMilli inclusive.
+   * @return a cursor over the time steps in the range, starting at the first block
+   * that overlaps it.
+   */
+  public Cursor cursor(long fromEpochMilli, long toEpochMilli) {
+    int block = Arrays.binarySearch(this.blockLastTimes, fromEpochMilli);
+    if (block < 0) {
+      block = -block - 1;
+    }
+    return new Cursor(block, fromEpochMilli, toEpochMilli);
+  }
+
+  /**
+   *
+   * @return all the time steps.
+   */
+  public TimeSeriesColumns decode() {
+    return this.decode(Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   *
+   * @param fromEpochMilli inclusive.
+   * @param toEpochMilli inclusive.
+   * @return the time steps in the range.
+   */
+  public TimeSeriesColumns decode(long fromEpochMilli, long toEpochMilli) {
+    TimeSeriesColumns result = new TimeSeriesColumns(this.zoneId, 1);
+    Cursor cursor = this.cursor(fromEpochMilli, toEpochMilli);
+    while (cursor.next()) {
+      result.append(cursor.getEpochMilli(), cursor.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Iterates the time steps, decoding them as it advances. NaN values become null
+   * user objects.
+   *
+   * @return
+   */
+  @Override
+  public Iterator<TimeStepValue<Double>> iterator() {
+    Cursor cursor = this.cursor();
+    return new Iterator<TimeStepValue<Double>>() {
+      private boolean advanced = false;
+      private boolean hasNext = false;
+
+      @Override
+      public boolean hasNext() {
+        if (!this.advanced) {
+          this.hasNext = cursor.next();
+          this.advanced = true;
+        }
+        return this.hasNext;
+      }
+
+      @Override
+      public TimeStepValue<Double> next() {
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        this.advanced = false;
+        ZonedDateTime dateTime = ZonedDateTime.ofInstant(Instant.ofEpochMilli(cursor.getEpochMilli()), zoneId);
+        double value = cursor.getValue();
+        return new SimpleTimeStepValue<>(dateTime, Double.isNaN(value) ? null : value);
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "CompressedTimeSeries{" + "zoneId=" + zoneId + ", size=" + size + ", blocks=" + blockOffsets.length
+            + ", bytes=" + getSizeInBytes() + '}';
+  }
+
+  /**
+   * Streaming decoder of the time steps.
+   */
+  public final class Cursor {
+
+    private final BitReader reader = new BitReader(words);
+    private final long from;
+    private final long to;
+    private int block;
+    private int remaining = 0;
+    private final XorState state = new XorState();
+    private long time;
+    private long delta;
+    private double value;
+    private boolean done = false;
+
+    /**
+     *
+     * @param block
+     * @param from
+     * @param to
+     */
+    private Cursor(int block, long from, long to) {
+      this.block = block;
+      this.from = from;
+      this.to = to;
+    }
+
+    /**
+     * Advances to the next time step in the range.
+     *
+     * @return false when there are no more time steps.
+     */
+    public boolean next() {
+      while (!this.done) {
+        if (this.remaining == 0) {
+          if (this.block >= blockOffsets.length || blockFirstTimes[this.block] > this.to) {
+            this.done = true;
+            break;
+          }
+          this.startBlock();
+        } else {
+          this.readNext();
+        }
+        if (this.time > this.to) {
+          this.done = true;
+        } else if (this.time >= this.from) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     *
+     */
+    private void startBlock() {
+      this.reader.position = blockOffsets[this.block];
+      this.remaining = Math.min(blockSize, size - this.block * blockSize) - 1;
+      this.block++;
+      this.time = this.reader.read(64);
+      this.delta = 0;
+      long valueBits = this.reader.read(64);
+      this.state.reset(valueBits);
+      this.value = Double.longBitsToDouble(valueBits);
+    }
+
+    /**
+     *
+     */
+    private void readNext() {
+      this.remaining--;
+      this.delta += readDeltaOfDelta(this.reader);
+      this.time += this.delta;
+      this.value = Double.longBitsToDouble(this.state.read(this.reader));
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getEpochMilli() {
+      return this.time;
+    }
+
+    /**
+     *
+     * @return the value, NaN if missing.
+     */
+    public double getValue() {
+      return this.value;
+    }
+  }
+
+  /**
+   * Encodes time steps into a {@linkplain CompressedTimeSeries}.
+   */
+  public static final class Builder {
+
+    private final ZoneId zoneId;
+    private final int blockSize;
+    private final BitWriter writer = new BitWriter();
+    private final XorState state = new XorState();
+    private long[] blockOffsets = new long[16];
+    private long[] blockFirstTimes = new long[16];
+    private long[] blockLastTimes = new long[16];
+    private int blocks = 0;
+    private int size = 0;
+    private long lastTime;
+    private long lastDelta;
+
+    /**
+     *
+     * @param zoneId
+     */
+    public Builder(ZoneId zoneId) {
+      this(zoneId, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     *
+     * @param zoneId
+     * @param blockSize the number of time steps per block.
+     */
+    public Builder(ZoneId zoneId, int blockSize) {
+      Objects.requireNonNull(zoneId, "zone id cannot be null");
+      if (blockSize < 1) {
+        throw new IllegalArgumentException("block size must be greater than zero");
+      }
+      this.zoneId = zoneId;
+      this.blockSize = blockSize;
+    }
+
+    /**
+     *
+     * @param epochMilli must be after the last time step.
+     * @param value
+     * @return
+     */
+    public Builder append(long epochMilli, double value) {
+      if (this.size > 0 && epochMilli <= this.lastTime) {
+        throw new IllegalArgumentException(String.format(
+                "Time steps must be increasing, %d is not after %d", epochMilli, this.lastTime));
+      }
+      long valueBits = Double.doubleToRawLongBits(value);
+      if (this.size % this.blockSize == 0) {
+        if (this.blocks == this.blockOffsets.length) {
+          int capacity = this.blocks << 1;
+          this.blockOffsets = Arrays.copyOf(this.blockOffsets, capacity);
+          this.blockFirstTimes = Arrays.copyOf(this.blockFirstTimes, capacity);
+          this.blockLastTimes = Arrays.copyOf(this.blockLastTimes, capacity);
+        }
+        this.blockOffsets[this.blocks] = this.writer.position;
+        this.blockFirstTimes[this.blocks] = epochMilli;
+        this.blocks++;
+        this.writer.write(epochMilli, 64);
+        this.writer.write(valueBits, 64);
+        this.state.reset(valueBits);
+        this.lastDelta = 0;
+      } else {
+        long delta = epochMilli - this.lastTime;
+        writeDeltaOfDelta(this.writer, delta - this.lastDelta);
+        this.lastDelta = delta;
+        this.state.write(this.writer, valueBits);
+      }
+      this.blockLastTimes[this.blocks - 1] = epochMilli;
+      this.lastTime = epochMilli;
+      this.size++;
+      return this;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public CompressedTimeSeries build() {
+      return new CompressedTimeSeries(this);
+    }
+  }
+
+  /**
+   * Writes a delta of deltas with a prefix code: '0' for zero, then 7, 9 and 12 bit
+   * fields for small values and a 64 bit field for the rest.
+   *
+   * @param writer
+   * @param dod
+   */
+  private static void writeDeltaOfDelta(BitWriter writer, long dod) {
+    if (dod == 0) {
+      writer.write(0b0, 1);
+    } else if (dod >= -64 && dod <= 63) {
+      writer.write(0b10, 2);
+      writer.write(dod, 7);
+    } else if (dod >= -256 && dod <= 255) {
+      writer.write(0b110, 3);
+      writer.write(dod, 9);
+    } else if (dod >= -2048 && dod <= 2047) {
+      writer.write(0b1110, 4);
+      writer.write(dod, 12);
+    } else {
+      writer.write(0b1111, 4);
+      writer.write(dod, 64);
+    }
+  }
+
+  /**
+   *
+   * @param reader
+   * @return
+   */
+  private static long readDeltaOfDelta(BitReader reader) {
+    int n;
+    if (reader.read(1) == 0) {
+      return 0;
+    } else if (reader.read(1) == 0) {
+      n = 7;
+    } else if (reader.read(1) == 0) {
+      n = 9;
+    } else if (reader.read(1) == 0) {
+      n = 12;
+    } else {
+      return reader.read(64);
+    }
+    long raw = reader.read(n);
+    return (raw << (64 - n)) >> (64 - n);
+  }
+
+  /**
+   * XOR encoding of values against the previous value, reusing the previous window of
+   * meaningful bits when the new XOR fits in it.
+   */
+  private static final class XorState {
+
+    private long previous;
+    private int leading;
+    private int trailing;
+
+    void reset(long first) {
+      this.previous = first;
+      this.leading = -1;
+      this.trailing = 0;
+    }
+
+    void write(BitWriter writer, long bits) {
+      long xor = bits ^ this.previous;
+      this.previous = bits;
+      if (xor == 0) {
+        writer.write(0b0, 1);
+        return;
+      }
+      writer.write(0b1, 1);
+      int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+      int trail = Long.numberOfTrailingZeros(xor);
+      if (this.leading >= 0 && lead >= this.leading && trail >= this.trailing) {
+        writer.write(0b0, 1);
+        writer.write(xor >>> this.trailing, 64 - this.leading - this.trailing);
+      } else {
+        int significant = 64 - lead - trail;
+        writer.write(0b1, 1);
+        writer.write(lead, 5);
+        writer.write(significant - 1, 6);
+        writer.write(xor >>> trail, significant);
+        this.leading = lead;
+        this.trailing = trail;
+      }
+    }
+
+    long read(BitReader reader) {
+      if (reader.read(1) != 0) {
+        if (reader.read(1) != 0) {
+          this.leading = (int) reader.read(5);
+          int significant = (int) reader.read(6) + 1;
+          this.trailing = 64 - this.leading - significant;
+        }
+        long xor = reader.read(64 - this.leading - this.trailing) << this.trailing;
+        this.previous ^= xor;
+      }
+      return this.previous;
+    }
+  }
+
+  /**
+   *
+   * @param n
+   * @return
+   */
+  private static long mask(int n) {
+    return n == 64 ? -1L : (1L << n) - 1;
+  }
+
+  /**
+   * Appends bit fields, most significant bit first.
+   */
+  private static final class BitWriter {
+
+    private long[] words = new long[64];
+    private long position = 0;
+
+    void write(long value, int n) {
+      if (n == 0) {
+        return;
+      }
+      int word = (int) (this.position >>> 6);
+      if (word + 1 >= this.words.length) {
+        this.words = Arrays.copyOf(this.words, this.words.length << 1);
+      }
+      int free = 64 - (int) (this.position & 63);
+      long v = value & mask(n);
+      if (n <= free) {
+        this.words[word] |= v << (free - n);
+      } else {
+        int rest = n - free;
+        this.words[word] |= v >>> rest;
+        this.words[word + 1] |= v << (64 - rest);
+      }
+      this.position += n;
+    }
+  }
+
+  /**
+   * Reads bit fields written by a {@linkplain BitWriter}.
+   */
+  private static final class BitReader {
+
+    private final long[] words;
+    private long position = 0;
+
+    BitReader(long[] words) {
+      this.words = words;
+    }
+
+    long read(int n) {
+      if (n == 0) {
+        return 0;
+      }
+      int word = (int) (this.position >>> 6);
+      int free = 64 - (int) (this.position & 63);
+      long result;
+      if (n <= free) {
+        result = (this.words[word] >>> (free - n)) & mask(n);
+      } else {
+        int rest = n - free;
+        result = ((this.words[word] & mask(free)) << rest) | (this.words[word + 1] >>> (64 - rest));
+      }
+      this.position += n;
+      return result;
+    }
+  }
+}
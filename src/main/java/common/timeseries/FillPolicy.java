@@ -0,0 +1,30 @@
+package common.timeseries;
+
+/**
+ * How {@linkplain Resampler#upsample} fills the grid points that fall between two
+ * time steps of the source series.
+ *
+ * @author Ricardo Marquez
+ */
+public enum FillPolicy {
+  /**
+   * Leave the gap as NaN.
+   */
+  NAN,
+  /**
+   * Repeat the value of the time step before.
+   */
+  PREVIOUS,
+  /**
+   * Use the value of the time step after.
+   */
+  NEXT,
+  /**
+   * Use the value of the closest time step, the previous one on a tie.
+   */
+  NEAREST,
+  /**
+   * Interpolate linearly in time between the time steps before and after.
+   */
+  LINEAR
+}
@@ -0,0 +1,25 @@
+package common.timeseries;
+
+/**
+ * How {@linkplain TimeSeriesUtils#join} matches the time steps of the joined series.
+ *
+ * @author Ricardo Marquez
+ */
+public enum JoinType {
+  /**
+   * One row per time step of the first series that every other series matches within
+   * the tolerance.
+   */
+  INNER,
+  /**
+   * One row per time step of any series. Series without a match within the tolerance
+   * get NaN values.
+   */
+  OUTER,
+  /**
+   * One row per time step of the first series. The other series contribute their
+   * latest time step at or before it, if it is no older than the tolerance, otherwise
+   * NaN values.
+   */
+  ASOF
+}
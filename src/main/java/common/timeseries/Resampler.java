@@ -0,0 +1,297 @@
+package common.timeseries;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Resamples time series to a new interval in a single pass over the sorted time steps.
+ *
+ * <p>
+ * Downsampling assigns every time step to the bucket
+ * <code>[origin + k * interval, origin + (k + 1) * interval)</code> holding it and
+ * aggregates each bucket with an {@linkplain Aggregator}. Upsampling evaluates the
+ * series at every grid point, filling the points between time steps with a
+ * {@linkplain FillPolicy}. Both work on {@linkplain TimeSeriesColumns} so no object is
+ * created per time step or bucket.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class Resampler {
+
+  /**
+   * Downsamples a series of numbers with buckets aligned to its first time step.
+   *
+   * @param series
+   * @param interval
+   * @param aggregator
+   * @return one row per bucket, labeled with the bucket start.
+   */
+  public static TimeSeriesColumns downsample(TimeSeries<? extends TimeStepValue<? extends Number>> series,
+          TemporalAmount interval, Aggregator aggregator) {
+    return downsample(TimeSeriesColumns.of(series), 0, interval, aggregator);
+  }
+
+  /**
+   * Downsamples a column with buckets aligned to the first row.
+   *
+   * @param source
+   * @param column
+   * @param interval
+   * @param aggregator
+   * @return one row per bucket, labeled with the bucket start.
+   */
+  public static TimeSeriesColumns downsample(TimeSeriesColumns source, int column,
+          TemporalAmount interval, Aggregator aggregator) {
+    if (source.size() == 0) {
+      return new TimeSeriesColumns(source.getZoneId(), 1);
+    }
+    return downsample(source, column, source.getDateTime(0), interval, aggregator);
+  }
+
+  /**
+   * Downsamples a column. Every bucket from the one holding the first row to the one
+   * holding the last row is returned, empty buckets aggregating to NaN (zero for
+   * {@linkplain Aggregator#count()}). Rows before the origin are ignored.
+   *
+   * @param source
+   * @param column
+   * @param origin the start of the first bucket.
+   * @param interval
+   * @param aggregator
+   * @return one row per bucket, labeled with the bucket start.
+   */
+  public static TimeSeriesColumns downsample(TimeSeriesColumns source, int column,
+          ZonedDateTime origin, TemporalAmount interval, Aggregator aggregator) {
+    Objects.requireNonNull(aggregator, "aggregator cannot be null");
+    BucketGrid grid = new BucketGrid(origin, interval);
+    TimeSeriesColumns result = new TimeSeriesColumns(source.getZoneId(), 1);
+    int first = firstRow(source, grid);
+    if (first < source.size()) {
+      downsampleRange(source, column, grid, aggregator.newAccumulator(), first, source.size(), result);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param source
+   * @param grid
+   * @return the first row not before the origin of the grid.
+   */
+  static int firstRow(TimeSeriesColumns source, BucketGrid grid) {
+    int result = source.search(grid.start(0));
+    return result < 0 ? -result - 1 : result;
+  }
+
+  /**
+   * Downsamples the rows <code>[lo, hi)</code>, appending the buckets from the one
+   * holding row <code>lo</code> up to the one before the bucket holding row
+   * <code>hi</code>, or up to the bucket holding the last row if <code>hi</code> is the
+   * size. Ranges split on bucket boundaries therefore give the same buckets as the
+   * whole series.
+   *
+   * @param source
+   * @param column
+   * @param grid
+   * @param accumulator
+   * @param lo
+   * @param hi
+   * @param result
+   */
+  static void downsampleRange(TimeSeriesColumns source, int column, BucketGrid grid,
+          Aggregator.Accumulator accumulator, int lo, int hi, TimeSeriesColumns result) {
+    long[] times = source.times();
+    double[] values = source.values(column);
+    long k = grid.indexOf(times[lo]);
+    long start = grid.start(k);
+    long end = grid.start(k + 1);
+    for (int i = lo; i < hi; i++) {
+      long t = times[i];
+      while (t >= end) {
+        result.append(start, accumulator.result());
+        accumulator.reset();
+        k++;
+        start = end;
+        end = grid.start(k + 1);
+      }
+      accumulator.add(t, values[i]);
+    }
+    result.append(start, accumulator.result());
+    accumulator.reset();
+    if (hi < source.size()) {
+      // the empty buckets up to the next range.
+      long next = times[hi];
+      start = end;
+      end = grid.start(++k + 1);
+      while (next >= end) {
+        result.append(start, accumulator.result());
+        start = end;
+        end = grid.start(++k + 1);
+      }
+    }
+  }
+
+  /**
+   * Evaluates a series of numbers every interval from its first to its last time
+   * step.
+   *
+   * @param series
+   * @param interval
+   * @param fillPolicy
+   * @return
+   */
+  public static TimeSeriesColumns upsample(TimeSeries<? extends TimeStepValue<? extends Number>> series,
+          TemporalAmount interval, FillPolicy fillPolicy) {
+    return upsample(TimeSeriesColumns.of(series), 0, interval, fillPolicy);
+  }
+
+  /**
+   * Evaluates a column every interval from the first to the last row. Grid points
+   * matching a row take its value, the others are filled with the fill policy.
+   *
+   * @param source
+   * @param column
+   * @param interval
+   * @param fillPolicy
+   * @return
+   */
+  public static TimeSeriesColumns upsample(TimeSeriesColumns source, int column,
+          TemporalAmount interval, FillPolicy fillPolicy) {
+    Objects.requireNonNull(fillPolicy, "fill policy cannot be null");
+    TimeSeriesColumns result = new TimeSeriesColumns(source.getZoneId(), 1);
+    int n = source.size();
+    if (n == 0) {
+      return result;
+    }
+    long[] times = source.times();
+    double[] values = source.values(column);
+    BucketGrid grid = new BucketGrid(source.getDateTime(0), interval);
+    long last = times[n - 1];
+    int j = 0;
+    for (long k = 0;; k++) {
+      long t = grid.start(k);
+      if (t > last) {
+        break;
+      }
+      while (j + 1 < n && times[j + 1] <= t) {
+        j++;
+      }
+      double value;
+      if (times[j] == t) {
+        value = values[j];
+      } else {
+        value = fill(fillPolicy, t, times[j], values[j], times[j + 1], values[j + 1]);
+      }
+      result.append(t, value);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param fillPolicy
+   * @param t
+   * @param t0
+   * @param v0
+   * @param t1
+   * @param v1
+   * @return the value at t, between (t0, v0) and (t1, v1).
+   */
+  private static double fill(FillPolicy fillPolicy, long t, long t0, double v0, long t1, double v1) {
+    double result;
+    switch (fillPolicy) {
+      case PREVIOUS:
+        result = v0;
+        break;
+      case NEXT:
+        result = v1;
+        break;
+      case NEAREST:
+        result = t - t0 <= t1 - t ? v0 : v1;
+        break;
+      case LINEAR:
+        result = v0 + (v1 - v0) * ((double) (t - t0) / (t1 - t0));
+        break;
+      default:
+        result = Double.NaN;
+    }
+    return result;
+  }
+
+  /**
+   * Aggregates sorted time steps with a user function, one bucket at a time. This is
+   * the behavior of {@linkplain TimeSeries#average}: buckets start at the first time
+   * step, each bucket is passed with its end date time and the set of its time steps
+   * (empty for gaps), and the bucket holding the last time step is not aggregated.
+   *
+   * @param <TS>
+   * @param sorted time steps in increasing order.
+   * @param interval
+   * @param averaging
+   * @return the aggregated time steps.
+   */
+  public static <TS extends TimeStepValue<?>> List<TS> aggregate(List<TS> sorted,
+          TemporalAmount interval, Function<Pair<ZonedDateTime, Set<TS>>, TS> averaging) {
+    List<TS> result = new ArrayList<>();
+    if (!sorted.isEmpty()) {
+      BucketGrid grid = new BucketGrid(sorted.get(0).getZoneDateTime(), interval);
+      aggregateRange(sorted, epochMillis(sorted), grid, averaging, 0, sorted.size(), result);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param records
+   * @return the epoch millis of the records.
+   */
+  static long[] epochMillis(List<? extends TimeStepValue<?>> records) {
+    long[] result = new long[records.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = records.get(i).getZoneDateTime().toInstant().toEpochMilli();
+    }
+    return result;
+  }
+
+  /**
+   * Aggregates the records <code>[lo, hi)</code>, adding the buckets from the one
+   * holding record <code>lo</code> up to the one before the bucket holding record
+   * <code>hi</code>, or before the bucket holding the last record if <code>hi</code>
+   * is the size.
+   *
+   * @param <TS>
+   * @param sorted
+   * @param times
+   * @param grid
+   * @param averaging
+   * @param lo
+   * @param hi
+   * @param result
+   */
+  static <TS extends TimeStepValue<?>> void aggregateRange(List<TS> sorted, long[] times, BucketGrid grid,
+          Function<Pair<ZonedDateTime, Set<TS>>, TS> averaging, int lo, int hi, List<TS> result) {
+    long k = grid.indexOf(times[lo]);
+    long end = grid.start(k + 1);
+    Set<TS> bucket = new HashSet<>();
+    int last = hi < times.length ? hi : hi - 1;
+    for (int i = lo; i <= last; i++) {
+      long t = times[i];
+      while (t >= end) {
+        result.add(averaging.apply(Pair.create(grid.dateTime(k + 1), bucket)));
+        bucket = new HashSet<>();
+        k++;
+        end = grid.start(k + 1);
+      }
+      if (i < hi) {
+        bucket.add(sorted.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,258 @@
+package common.timeseries;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.Objects;
+
+/**
+ * Rolling window statistics computed incrementally: each time step is added to the
+ * window once and removed once, so the cost per time step does not depend on the
+ * window size. Sums and counts are kept as running totals, the variance with
+ * Welford's algorithm (with removal) and the minimum and maximum with monotonic
+ * deques.
+ *
+ * <p>
+ * The window of a time step ends at, and includes, the time step. A time window holds
+ * the time steps after <code>t - window</code>; a count window holds the last
+ * <code>count</code> time steps, and is NaN until that many time steps have been seen.
+ * NaN values are skipped.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class RollingWindow {
+
+  /**
+   *
+   */
+  public static enum Statistic {
+    MEAN,
+    SUM,
+    COUNT,
+    MIN,
+    MAX,
+    /**
+     * Sample variance.
+     */
+    VARIANCE,
+    /**
+     * Sample standard deviation.
+     */
+    STD_DEV
+  }
+
+  /**
+   *
+   * @param series
+   * @param window
+   * @param statistics
+   * @return one column per statistic.
+   */
+  public static TimeSeriesColumns rolling(TimeSeries<? extends TimeStepValue<? extends Number>> series,
+          TemporalAmount window, Statistic... statistics) {
+    return rolling(TimeSeriesColumns.of(series), 0, window, statistics);
+  }
+
+  /**
+   *
+   * @param series
+   * @param count
+   * @param statistics
+   * @return one column per statistic.
+   */
+  public static TimeSeriesColumns rolling(TimeSeries<? extends TimeStepValue<? extends Number>> series,
+          int count, Statistic... statistics) {
+    return rolling(TimeSeriesColumns.of(series), 0, count, statistics);
+  }
+
+  /**
+   * Computes statistics over a time window.
+   *
+   * @param source
+   * @param column
+   * @param window the length of the window, a fixed duration or a calendar amount.
+   * @param statistics
+   * @return one column per statistic, with the time steps of the source.
+   */
+  public static TimeSeriesColumns rolling(TimeSeriesColumns source, int column,
+          TemporalAmount window, Statistic... statistics) {
+    Objects.requireNonNull(window, "window cannot be null");
+    long windowMillis = -1;
+    if (window instanceof Duration) {
+      windowMillis = ((Duration) window).toMillis();
+      if (windowMillis < 1) {
+        throw new IllegalArgumentException("Window must be at least one millisecond: " + window);
+      }
+    }
+    return roll(source, column, windowMillis, window, -1, statistics);
+  }
+
+  /**
+   * Computes statistics over the last <code>count</code> time steps.
+   *
+   * @param source
+   * @param column
+   * @param count
+   * @param statistics
+   * @return one column per statistic, with the time steps of the source.
+   */
+  public static TimeSeriesColumns rolling(TimeSeriesColumns source, int column,
+          int count, Statistic... statistics) {
+    if (count < 1) {
+      throw new IllegalArgumentException("count must be greater than zero");
+    }
+    return roll(source, column, -1, null, count, statistics);
+  }
+
+  /**
+   *
+   * @param source
+   * @param column
+   * @param windowMillis
+   * @param window
+   * @param count
+   * @param statistics
+   * @return
+   */
+  private static TimeSeriesColumns roll(TimeSeriesColumns source, int column, long windowMillis,
+          TemporalAmount window, int count, Statistic[] statistics) {
+    if (statistics.length == 0) {
+      throw new IllegalArgumentException("At least one statistic is required");
+    }
+    int n = source.size();
+    long[] times = source.times();
+    double[] values = source.values(column);
+    TimeSeriesColumns result = new TimeSeriesColumns(source.getZoneId(), statistics.length, n);
+    WindowState state = new WindowState(values, n, statistics);
+    double[] row = new double[statistics.length];
+    int lo = 0;
+    for (int i = 0; i < n; i++) {
+      state.add(i);
+      if (count > 0) {
+        if (i - lo >= count) {
+          state.remove(lo++);
+        }
+      } else {
+        long bound = windowMillis > 0 ? times[i] - windowMillis
+                : ZonedDateTime.ofInstant(Instant.ofEpochMilli(times[i]), source.getZoneId())
+                        .minus(window).toInstant().toEpochMilli();
+        while (times[lo] <= bound) {
+          state.remove(lo++);
+        }
+      }
+      boolean full = count < 0 || i + 1 >= count;
+      for (int s = 0; s < statistics.length; s++) {
+        row[s] = full ? state.get(statistics[s]) : Double.NaN;
+      }
+      result.append(times[i], row);
+    }
+    return result;
+  }
+
+  /**
+   * The running totals of the values in the window.
+   */
+  private static class WindowState {
+
+    private final double[] values;
+    private final int[] minDeque;
+    private final int[] maxDeque;
+    private int minHead = 0;
+    private int minTail = 0;
+    private int maxHead = 0;
+    private int maxTail = 0;
+    private long count = 0;
+    private double sum = 0;
+    private double mean = 0;
+    private double m2 = 0;
+
+    WindowState(double[] values, int n, Statistic[] statistics) {
+      this.values = values;
+      boolean min = false;
+      boolean max = false;
+      for (Statistic statistic : statistics) {
+        min |= statistic == Statistic.MIN;
+        max |= statistic == Statistic.MAX;
+      }
+      // each index is pushed at most once, so the deques never wrap.
+      this.minDeque = min ? new int[n] : null;
+      this.maxDeque = max ? new int[n] : null;
+    }
+
+    void add(int i) {
+      double x = this.values[i];
+      if (Double.isNaN(x)) {
+        return;
+      }
+      this.count++;
+      this.sum += x;
+      double delta = x - this.mean;
+      this.mean += delta / this.count;
+      this.m2 += delta * (x - this.mean);
+      if (this.minDeque != null) {
+        while (this.minTail > this.minHead && this.values[this.minDeque[this.minTail - 1]] >= x) {
+          this.minTail--;
+        }
+        this.minDeque[this.minTail++] = i;
+      }
+      if (this.maxDeque != null) {
+        while (this.maxTail > this.maxHead && this.values[this.maxDeque[this.maxTail - 1]] <= x) {
+          this.maxTail--;
+        }
+        this.maxDeque[this.maxTail++] = i;
+      }
+    }
+
+    void remove(int i) {
+      double x = this.values[i];
+      if (Double.isNaN(x)) {
+        return;
+      }
+      this.count--;
+      this.sum -= x;
+      if (this.count == 0) {
+        this.sum = 0;
+        this.mean = 0;
+        this.m2 = 0;
+      } else {
+        double delta = x - this.mean;
+        this.mean -= delta / this.count;
+        this.m2 = Math.max(0, this.m2 - delta * (x - this.mean));
+      }
+      if (this.minDeque != null && this.minTail > this.minHead && this.minDeque[this.minHead] == i) {
+        this.minHead++;
+      }
+      if (this.maxDeque != null && this.maxTail > this.maxHead && this.maxDeque[this.maxHead] == i) {
+        this.maxHead++;
+      }
+    }
+
+    double get(Statistic statistic) {
+      double result;
+      switch (statistic) {
+        case MEAN:
+          result = this.count == 0 ? Double.NaN : this.sum / this.count;
+          break;
+        case SUM:
+          result = this.count == 0 ? Double.NaN : this.sum;
+          break;
+        case COUNT:
+          result = this.count;
+          break;
+        case MIN:
+          result = this.minTail > this.minHead ? this.values[this.minDeque[this.minHead]] : Double.NaN;
+          break;
+        case MAX:
+          result = this.maxTail > this.maxHead ? this.values[this.maxDeque[this.maxHead]] : Double.NaN;
+          break;
+        case VARIANCE:
+          result = this.count < 2 ? Double.NaN : this.m2 / (this.count - 1);
+          break;
+        default:
+          result = this.count < 2 ? Double.NaN : Math.sqrt(this.m2 / (this.count - 1));
+      }
+      return result;
+    }
+  }
+}
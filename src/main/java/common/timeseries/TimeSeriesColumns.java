@@ -0,0 +1,301 @@
+package common.timeseries;
+
+import common.timeseries.impl.DefaultTimeSeries;
+import common.timeseries.impl.RegularTimeSeries;
+import common.timeseries.impl.SimpleTimeStepValue;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Growable, column oriented buffer of time series values: one array of strictly
+ * increasing epoch millis and one double array per value column, NaN marking missing
+ * values. Used as the input and output of the primitive time series operations, so
+ * they run without creating a {@linkplain TimeStepValue} per point.
+ *
+ * @author Ricardo Marquez
+ */
+public final class TimeSeriesColumns {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final ZoneId zoneId;
+  private long[] times;
+  private final double[][] values;
+  private int size = 0;
+
+  /**
+   *
+   * @param zoneId the zone of the date times.
+   * @param columnCount the number of value columns.
+   */
+  public TimeSeriesColumns(ZoneId zoneId, int columnCount) {
+    this(zoneId, columnCount, INITIAL_CAPACITY);
+  }
+
+  /**
+   *
+   * @param zoneId
+   * @param columnCount
+   * @param capacity the initial number of rows.
+   */
+  public TimeSeriesColumns(ZoneId zoneId, int columnCount, int capacity) {
+    Objects.requireNonNull(zoneId, "zone id cannot be null");
+    if (columnCount < 1) {
+      throw new IllegalArgumentException("column count must be greater than zero");
+    }
+    int c = Math.max(1, capacity);
+    this.zoneId = zoneId;
+    this.times = new long[c];
+    this.values = new double[columnCount][c];
+  }
+
+  /**
+   * Copies a series of numbers, null user objects becoming NaN.
+   *
+   * @param series
+   * @return
+   */
+  public static TimeSeriesColumns of(TimeSeries<? extends TimeStepValue<? extends Number>> series) {
+    TimeSeriesColumns result;
+    if (series instanceof RegularTimeSeries) {
+      RegularTimeSeries regular = (RegularTimeSeries) series;
+      result = new TimeSeriesColumns(regular.getZoneId(), 1, regular.size());
+      for (int i = 0; i < regular.size(); i++) {
+        result.append(regular.getEpochMilli(i), regular.getValue(i));
+      }
+    } else {
+      result = new TimeSeriesColumns(series.getZoneId(), 1, series.size());
+      for (TimeStepValue<? extends Number> timeStepValue : series) {
+        Number value = timeStepValue.getUserObject();
+        result.append(timeStepValue.getZoneDateTime().toInstant().toEpochMilli(),
+                value == null ? Double.NaN : value.doubleValue());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Appends a row to a single column buffer.
+   *
+   * @param epochMilli must be after the last row.
+   * @param value
+   */
+  public void append(long epochMilli, double value) {
+    if (this.values.length != 1) {
+      throw new IllegalStateException("Buffer has " + this.values.length + " columns");
+    }
+    int row = this.nextRow(epochMilli);
+    this.values[0][row] = value;
+  }
+
+  /**
+   * Appends a row.
+   *
+   * @param epochMilli must be after the last row.
+   * @param rowValues one value per column.
+   */
+  public void append(long epochMilli, double[] rowValues) {
+    if (rowValues.length != this.values.length) {
+      throw new IllegalArgumentException(String.format("Expected %d values, found %d",
+              this.values.length, rowValues.length));
+    }
+    int row = this.nextRow(epochMilli);
+    for (int c = 0; c < rowValues.length; c++) {
+      this.values[c][row] = rowValues[c];
+    }
+  }
+
+  /**
+   *
+   * @param epochMilli
+   * @return
+   */
+  private int nextRow(long epochMilli) {
+    if (this.size > 0 && epochMilli <= this.times[this.size - 1]) {
+      throw new IllegalArgumentException(String.format(
+              "Time steps must be increasing, %d is not after %d", epochMilli, this.times[this.size - 1]));
+    }
+    if (this.size == this.times.length) {
+      int capacity = this.times.length << 1;
+      this.times = Arrays.copyOf(this.times, capacity);
+      for (int c = 0; c < this.values.length; c++) {
+        this.values[c] = Arrays.copyOf(this.values[c], capacity);
+      }
+    }
+    this.times[this.size] = epochMilli;
+    return this.size++;
+  }
+
+  /**
+   * Appends the rows of another buffer with the same columns.
+   *
+   * @param other its first row must be after the last row of this buffer.
+   */
+  public void appendAll(TimeSeriesColumns other) {
+    if (other.values.length != this.values.length) {
+      throw new IllegalArgumentException(String.format("Expected %d columns, found %d",
+              this.values.length, other.values.length));
+    }
+    if (other.size == 0) {
+      return;
+    }
+    if (this.size > 0 && other.times[0] <= this.times[this.size - 1]) {
+      throw new IllegalArgumentException(String.format(
+              "Time steps must be increasing, %d is not after %d", other.times[0], this.times[this.size - 1]));
+    }
+    int capacity = this.size + other.size;
+    if (capacity > this.times.length) {
+      this.times = Arrays.copyOf(this.times, capacity);
+      for (int c = 0; c < this.values.length; c++) {
+        this.values[c] = Arrays.copyOf(this.values[c], capacity);
+      }
+    }
+    System.arraycopy(other.times, 0, this.times, this.size, other.size);
+    for (int c = 0; c < this.values.length; c++) {
+      System.arraycopy(other.values[c], 0, this.values[c], this.size, other.size);
+    }
+    this.size = capacity;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public ZoneId getZoneId() {
+    return this.zoneId;
+  }
+
+  /**
+   *
+   * @return the number of rows.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public int getColumnCount() {
+    return this.values.length;
+  }
+
+  /**
+   *
+   * @param row
+   * @return
+   */
+  public long getEpochMilli(int row) {
+    this.checkRow(row);
+    return this.times[row];
+  }
+
+  /**
+   *
+   * @param row
+   * @return
+   */
+  public ZonedDateTime getDateTime(int row) {
+    return ZonedDateTime.ofInstant(Instant.ofEpochMilli(this.getEpochMilli(row)), this.zoneId);
+  }
+
+  /**
+   *
+   * @param column
+   * @param row
+   * @return the value, NaN if missing.
+   */
+  public double getValue(int column, int row) {
+    this.checkRow(row);
+    return this.values[column][row];
+  }
+
+  /**
+   *
+   * @return a copy of the epoch millis, trimmed to the number of rows.
+   */
+  public long[] getEpochMillis() {
+    return Arrays.copyOf(this.times, this.size);
+  }
+
+  /**
+   *
+   * @param column
+   * @return a copy of the values of the column, trimmed to the number of rows.
+   */
+  public double[] getColumn(int column) {
+    return Arrays.copyOf(this.values[column], this.size);
+  }
+
+  /**
+   * Binary search of the rows.
+   *
+   * @param epochMilli
+   * @return the row at the epoch millis, or <code>-(insertion point) - 1</code> if
+   * there is none.
+   */
+  public int search(long epochMilli) {
+    return Arrays.binarySearch(this.times, 0, this.size, epochMilli);
+  }
+
+  /**
+   * Creates time step values for a column, NaN values becoming null user objects.
+   *
+   * @param column
+   * @param timeInterval the interval between the rows.
+   * @return
+   */
+  public DefaultTimeSeries<Double> toTimeSeries(int column, TemporalAmount timeInterval) {
+    List<TimeStepValue<Double>> records = new ArrayList<>(this.size);
+    for (int row = 0; row < this.size; row++) {
+      double value = this.values[column][row];
+      records.add(new SimpleTimeStepValue<>(this.getDateTime(row), Double.isNaN(value) ? null : value));
+    }
+    return new DefaultTimeSeries<>(timeInterval, records);
+  }
+
+  /**
+   * Direct access to the epoch millis, for the operations of this package.
+   *
+   * @return
+   */
+  long[] times() {
+    return this.times;
+  }
+
+  /**
+   * Direct access to the values of a column, for the operations of this package.
+   *
+   * @param column
+   * @return
+   */
+  double[] values(int column) {
+    return this.values[column];
+  }
+
+  /**
+   *
+   * @param row
+   */
+  private void checkRow(int row) {
+    if (row < 0 || row >= this.size) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for size " + this.size);
+    }
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public String toString() {
+    return "TimeSeriesColumns{" + "zoneId=" + zoneId + ", columns=" + values.length + ", size=" + size + '}';
+  }
+}
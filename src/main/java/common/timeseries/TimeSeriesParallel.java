@@ -0,0 +1,288 @@
+package common.timeseries;
+
+import common.timeseries.impl.CustomTimeStepTimeSeries;
+import common.types.DateTimeRange;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Parallel versions of the {@linkplain Resampler} operations and of
+ * {@linkplain TimeSeriesUtils#combine}, run on the common fork/join pool.
+ *
+ * <p>
+ * The rows are split only on bucket boundaries, so each bucket is aggregated by a
+ * single task in the same order as the sequential path and the results are identical.
+ * {@linkplain #reduce(TimeSeriesColumns, int, Aggregator)} merges per chunk
+ * accumulators instead, so sums and means may differ from a sequential sum in the last
+ * bits.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public class TimeSeriesParallel {
+
+  /**
+   * The number of rows under which a chunk is not split further.
+   */
+  public static final int DEFAULT_MIN_SPLIT_SIZE = 1 << 13;
+
+  /**
+   * Returns a spliterator of the row indexes of the source that splits only on the
+   * boundaries of the buckets <code>origin + k * interval</code>. Rows before the
+   * origin are skipped.
+   *
+   * @param source
+   * @param origin
+   * @param interval
+   * @param minSplitSize
+   * @return
+   */
+  public static Spliterator.OfInt spliterator(TimeSeriesColumns source, ZonedDateTime origin,
+          TemporalAmount interval, int minSplitSize) {
+    BucketGrid grid = new BucketGrid(origin, interval);
+    return new BucketSpliterator(source.times(), grid, Resampler.firstRow(source, grid), source.size(), minSplitSize);
+  }
+
+  /**
+   *
+   * @param series
+   * @param interval
+   * @param aggregator
+   * @return
+   * @see Resampler#downsample(TimeSeries, TemporalAmount, Aggregator)
+   */
+  public static TimeSeriesColumns downsample(TimeSeries<? extends TimeStepValue<? extends Number>> series,
+          TemporalAmount interval, Aggregator aggregator) {
+    return downsample(TimeSeriesColumns.of(series), 0, interval, aggregator);
+  }
+
+  /**
+   *
+   * @param source
+   * @param column
+   * @param interval
+   * @param aggregator
+   * @return
+   * @see Resampler#downsample(TimeSeriesColumns, int, TemporalAmount, Aggregator)
+   */
+  public static TimeSeriesColumns downsample(TimeSeriesColumns source, int column,
+          TemporalAmount interval, Aggregator aggregator) {
+    if (source.size() == 0) {
+      return new TimeSeriesColumns(source.getZoneId(), 1);
+    }
+    return downsample(source, column, source.getDateTime(0), interval, aggregator);
+  }
+
+  /**
+   *
+   * @param source
+   * @param column
+   * @param origin
+   * @param interval
+   * @param aggregator
+   * @return
+   * @see Resampler#downsample(TimeSeriesColumns, int, ZonedDateTime, TemporalAmount,
+   * Aggregator)
+   */
+  public static TimeSeriesColumns downsample(TimeSeriesColumns source, int column,
+          ZonedDateTime origin, TemporalAmount interval, Aggregator aggregator) {
+    Objects.requireNonNull(aggregator, "aggregator cannot be null");
+    BucketSpliterator spliterator = (BucketSpliterator) spliterator(source, origin, interval, DEFAULT_MIN_SPLIT_SIZE);
+    if (spliterator.estimateSize() == 0) {
+      return new TimeSeriesColumns(source.getZoneId(), 1);
+    }
+    return ForkJoinPool.commonPool().invoke(new DownsampleTask(source, column, aggregator, spliterator));
+  }
+
+  /**
+   * Aggregates a whole column, merging the accumulators of chunks of rows.
+   *
+   * @param source
+   * @param column
+   * @param aggregator
+   * @return
+   */
+  public static double reduce(TimeSeriesColumns source, int column, Aggregator aggregator) {
+    Objects.requireNonNull(aggregator, "aggregator cannot be null");
+    ReduceTask task = new ReduceTask(source.times(), source.values(column), aggregator, 0, source.size());
+    return ForkJoinPool.commonPool().invoke(task).result();
+  }
+
+  /**
+   * Parallel version of {@linkplain Resampler#aggregate}. The averaging function is
+   * called from several threads at the same time.
+   *
+   * @param <TS>
+   * @param sorted
+   * @param interval
+   * @param averaging
+   * @return
+   */
+  public static <TS extends TimeStepValue<?>> List<TS> aggregate(List<TS> sorted,
+          TemporalAmount interval, Function<Pair<ZonedDateTime, Set<TS>>, TS> averaging) {
+    if (sorted.isEmpty()) {
+      return new ArrayList<>();
+    }
+    long[] times = Resampler.epochMillis(sorted);
+    BucketGrid grid = new BucketGrid(sorted.get(0).getZoneDateTime(), interval);
+    BucketSpliterator spliterator = new BucketSpliterator(times, grid, 0, times.length, DEFAULT_MIN_SPLIT_SIZE);
+    return ForkJoinPool.commonPool().invoke(new AggregateTask<>(sorted, times, averaging, spliterator));
+  }
+
+  /**
+   * Parallel version of {@linkplain TimeSeriesUtils#combine}. The supplier is called
+   * from several threads at the same time.
+   *
+   * @param <T>
+   * @param xseries
+   * @param yseries
+   * @param supplier
+   * @return
+   */
+  public static <T extends TimeStepValue<?>> TimeSeries<T> combine(
+          TimeSeries xseries, TimeSeries yseries,
+          Function<org.apache.commons.lang3.tuple.Pair<TimeStepValue, TimeStepValue>, T> supplier) {
+    DateTimeRange range = DateTimeRange.intersection(xseries.getDateTimeRange(), yseries.getDateTimeRange());
+    TemporalAmount interval = xseries.getTimeInterval();
+    List<ZonedDateTime> refdates = new ArrayList<>();
+    for (ZonedDateTime refdate : range.iterator(interval)) {
+      refdates.add(refdate);
+    }
+    List<T> records = refdates.parallelStream()
+            .map((refdate) -> {
+              TimeStepValue xvalue = xseries.getTimeStepValue(refdate);
+              TimeStepValue yvalue = yseries.getTimeStepValue(refdate);
+              return supplier.apply(org.apache.commons.lang3.tuple.Pair.of(xvalue, yvalue));
+            })
+            .collect(Collectors.toList());
+    return new CustomTimeStepTimeSeries<>(interval, records);
+  }
+
+  /**
+   *
+   */
+  private static class DownsampleTask extends RecursiveTask<TimeSeriesColumns> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TimeSeriesColumns source;
+    private final int column;
+    private final Aggregator aggregator;
+    private final BucketSpliterator spliterator;
+
+    DownsampleTask(TimeSeriesColumns source, int column, Aggregator aggregator, BucketSpliterator spliterator) {
+      this.source = source;
+      this.column = column;
+      this.aggregator = aggregator;
+      this.spliterator = spliterator;
+    }
+
+    @Override
+    protected TimeSeriesColumns compute() {
+      BucketSpliterator prefix = this.spliterator.trySplit();
+      TimeSeriesColumns result;
+      if (prefix == null) {
+        result = new TimeSeriesColumns(this.source.getZoneId(), 1);
+        Resampler.downsampleRange(this.source, this.column, this.spliterator.getGrid(),
+                this.aggregator.newAccumulator(), this.spliterator.getLo(), this.spliterator.getHi(), result);
+      } else {
+        DownsampleTask left = new DownsampleTask(this.source, this.column, this.aggregator, prefix);
+        left.fork();
+        TimeSeriesColumns right = this.compute();
+        result = left.join();
+        result.appendAll(right);
+      }
+      return result;
+    }
+  }
+
+  /**
+   *
+   * @param <TS>
+   */
+  private static class AggregateTask<TS extends TimeStepValue<?>> extends RecursiveTask<List<TS>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<TS> sorted;
+    private final long[] times;
+    private final Function<Pair<ZonedDateTime, Set<TS>>, TS> averaging;
+    private final BucketSpliterator spliterator;
+
+    AggregateTask(List<TS> sorted, long[] times, Function<Pair<ZonedDateTime, Set<TS>>, TS> averaging,
+            BucketSpliterator spliterator) {
+      this.sorted = sorted;
+      this.times = times;
+      this.averaging = averaging;
+      this.spliterator = spliterator;
+    }
+
+    @Override
+    protected List<TS> compute() {
+      BucketSpliterator prefix = this.spliterator.trySplit();
+      List<TS> result;
+      if (prefix == null) {
+        result = new ArrayList<>();
+        Resampler.aggregateRange(this.sorted, this.times, this.spliterator.getGrid(), this.averaging,
+                this.spliterator.getLo(), this.spliterator.getHi(), result);
+      } else {
+        AggregateTask<TS> left = new AggregateTask<>(this.sorted, this.times, this.averaging, prefix);
+        left.fork();
+        List<TS> right = this.compute();
+        result = left.join();
+        result.addAll(right);
+      }
+      return result;
+    }
+  }
+
+  /**
+   *
+   */
+  private static class ReduceTask extends RecursiveTask<Aggregator.Accumulator> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long[] times;
+    private final double[] values;
+    private final Aggregator aggregator;
+    private final int lo;
+    private final int hi;
+
+    ReduceTask(long[] times, double[] values, Aggregator aggregator, int lo, int hi) {
+      this.times = times;
+      this.values = values;
+      this.aggregator = aggregator;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected Aggregator.Accumulator compute() {
+      Aggregator.Accumulator result;
+      if (this.hi - this.lo < 2 * DEFAULT_MIN_SPLIT_SIZE) {
+        result = this.aggregator.newAccumulator();
+        for (int i = this.lo; i < this.hi; i++) {
+          result.add(this.times[i], this.values[i]);
+        }
+      } else {
+        int mid = (this.lo + this.hi) >>> 1;
+        ReduceTask left = new ReduceTask(this.times, this.values, this.aggregator, this.lo, mid);
+        left.fork();
+        Aggregator.Accumulator right = new ReduceTask(this.times, this.values, this.aggregator, mid, this.hi).compute();
+        result = left.join();
+        result.merge(right);
+      }
+      return result;
+    }
+  }
+}
@@ -4,7 +4,9 @@ import common.timeseries.impl.CustomTimeStepTimeSeries;
 import common.types.DateTimeRange;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Function;
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -39,5 +41,135 @@ public class TimeSeriesUtils {
     }
     TimeSeries<T> result = new CustomTimeStepTimeSeries<>(xseries.getTimeInterval(), records);
     return result;
-  }  
+  }
+
+  /**
+   * Joins series of numbers into one buffer with a column per series.
+   *
+   * @param type
+   * @param toleranceMillis the maximum distance between matched time steps, zero for
+   * exact matches.
+   * @param series
+   * @return
+   * @see #join(JoinType, long, TimeSeriesColumns...)
+   */
+  public static TimeSeriesColumns join(JoinType type, long toleranceMillis,
+    List<? extends TimeSeries<? extends TimeStepValue<? extends Number>>> series) {
+    TimeSeriesColumns[] sources = new TimeSeriesColumns[series.size()];
+    for (int i = 0; i < sources.length; i++) {
+      sources[i] = TimeSeriesColumns.of(series.get(i));
+    }
+    return join(type, toleranceMillis, sources);
+  }
+
+  /**
+   * Joins sorted buffers in a single merge pass, keeping one cursor per source. The
+   * columns of the result are the columns of the sources, in order, and its zone is
+   * the zone of the first source. For {@linkplain JoinType#INNER} and
+   * {@linkplain JoinType#OUTER} a time step is matched with the closest time step of
+   * each other source within the tolerance, the earlier one on a tie; for
+   * {@linkplain JoinType#ASOF} with the latest time step at or before it.
+   *
+   * @param type
+   * @param toleranceMillis the maximum distance between matched time steps, zero for
+   * exact matches.
+   * @param sources
+   * @return
+   */
+  public static TimeSeriesColumns join(JoinType type, long toleranceMillis, TimeSeriesColumns... sources) {
+    Objects.requireNonNull(type, "join type cannot be null");
+    if (sources.length == 0) {
+      throw new IllegalArgumentException("At least one source is required");
+    }
+    if (toleranceMillis < 0) {
+      throw new IllegalArgumentException("tolerance cannot be negative");
+    }
+    int columnCount = 0;
+    for (TimeSeriesColumns source : sources) {
+      columnCount += source.getColumnCount();
+    }
+    TimeSeriesColumns result = new TimeSeriesColumns(sources[0].getZoneId(), columnCount);
+    double[] row = new double[columnCount];
+    int[] cursors = new int[sources.length];
+    if (type == JoinType.OUTER) {
+      int[] keyCursors = new int[sources.length];
+      while (true) {
+        long key = Long.MAX_VALUE;
+        for (int s = 0; s < sources.length; s++) {
+          if (keyCursors[s] < sources[s].size()) {
+            key = Math.min(key, sources[s].times()[keyCursors[s]]);
+          }
+        }
+        if (key == Long.MAX_VALUE) {
+          break;
+        }
+        for (int s = 0; s < sources.length; s++) {
+          if (keyCursors[s] < sources[s].size() && sources[s].times()[keyCursors[s]] == key) {
+            keyCursors[s]++;
+          }
+        }
+        fillRow(type, toleranceMillis, sources, cursors, key, row);
+        result.append(key, row);
+      }
+    } else {
+      TimeSeriesColumns driver = sources[0];
+      long[] keys = driver.times();
+      for (int i = 0; i < driver.size(); i++) {
+        if (fillRow(type, toleranceMillis, sources, cursors, keys[i], row) || type == JoinType.ASOF) {
+          result.append(keys[i], row);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Fills the row with the values of each source matching the key, advancing the
+   * cursors to the last time step at or before the key.
+   *
+   * @return true if every source matched.
+   */
+  private static boolean fillRow(JoinType type, long toleranceMillis, TimeSeriesColumns[] sources,
+    int[] cursors, long key, double[] row) {
+    boolean result = true;
+    int offset = 0;
+    for (int s = 0; s < sources.length; s++) {
+      TimeSeriesColumns source = sources[s];
+      long[] times = source.times();
+      int n = source.size();
+      int cursor = cursors[s];
+      while (cursor + 1 < n && times[cursor + 1] <= key) {
+        cursor++;
+      }
+      cursors[s] = cursor;
+      int match = -1;
+      if (n > 0) {
+        boolean hasPrevious = times[cursor] <= key;
+        int previous = hasPrevious ? cursor : -1;
+        int next = hasPrevious ? cursor + 1 : cursor;
+        if (type == JoinType.ASOF) {
+          match = previous >= 0 && key - times[previous] <= toleranceMillis ? previous : -1;
+        } else {
+          long previousDistance = previous >= 0 ? key - times[previous] : Long.MAX_VALUE;
+          long nextDistance = next < n ? times[next] - key : Long.MAX_VALUE;
+          if (previousDistance <= nextDistance && previousDistance <= toleranceMillis) {
+            match = previous;
+          } else if (nextDistance < previousDistance && nextDistance <= toleranceMillis) {
+            match = next;
+          }
+        }
+      }
+      int columns = source.getColumnCount();
+      if (match < 0) {
+        Arrays.fill(row, offset, offset + columns, Double.NaN);
+        result = false;
+      } else {
+        for (int c = 0; c < columns; c++) {
+          row[offset + c] = source.values(c)[match];
+        }
+      }
+      offset += columns;
+    }
+    return result;
+  }
 }
@@ -0,0 +1,403 @@
+package common.timeseries.impl;
+
+import common.timeseries.Resampler;
+import common.timeseries.TimeSeries;
+import common.timeseries.TimeStepValue;
+import common.types.DateRange;
+import common.types.DateTimeRange;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Regular time series that grows at its end, for one writer thread and any number of
+ * reader threads. Each append checks only that the new time step is one interval
+ * after the last one, then publishes the new size through a volatile write; readers
+ * never lock and always see a consistent prefix of the series.
+ *
+ * <p>
+ * Every read method works on a {@linkplain #snapshot()} taken when it is called. Take
+ * a snapshot explicitly to make several reads on the same time steps while appends
+ * continue. Unlike the immutable series, a live series may be empty, in which case
+ * {@linkplain #getFirst()} and {@linkplain #getLast()} return null.</p>
+ *
+ * @author Ricardo Marquez
+ * @param <R>
+ */
+public final class AppendableTimeSeries<R> implements TimeSeries<TimeStepValue<R>> {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final TemporalAmount timeInterval;
+  private final ZoneId zoneId;
+  private final long stepMillis;
+  private volatile Buffer buffer = new Buffer(INITIAL_CAPACITY);
+  private volatile int size = 0;
+
+  /**
+   *
+   * @param timeInterval the interval between time steps.
+   * @param zoneId the zone of the time steps.
+   */
+  public AppendableTimeSeries(TemporalAmount timeInterval, ZoneId zoneId) {
+    Objects.requireNonNull(timeInterval, "time interval cannot be null");
+    Objects.requireNonNull(zoneId, "zone id cannot be null");
+    this.timeInterval = timeInterval;
+    this.zoneId = zoneId;
+    long step = 0;
+    if (timeInterval instanceof Duration) {
+      Duration duration = (Duration) timeInterval;
+      if (!duration.isNegative() && !duration.isZero() && duration.getNano() % 1_000_000 == 0) {
+        step = duration.toMillis();
+      }
+    }
+    this.stepMillis = step;
+  }
+
+  /**
+   *
+   * @param dateTime
+   * @param userObject
+   */
+  public void append(ZonedDateTime dateTime, R userObject) {
+    this.append(new SimpleTimeStepValue<>(dateTime, userObject));
+  }
+
+  /**
+   * Appends a time step. Must only be called by the writer thread.
+   *
+   * @param timeStepValue must be one time interval after the last time step.
+   */
+  public void append(TimeStepValue<R> timeStepValue) {
+    ZonedDateTime dateTime = timeStepValue.getZoneDateTime();
+    int n = this.size;
+    Buffer current = this.buffer;
+    if (n == 0) {
+      if (!dateTime.getZone().equals(this.zoneId)) {
+        throw new IllegalArgumentException(String.format("Expected zone %s, found %s", this.zoneId, dateTime.getZone()));
+      }
+    } else {
+      ZonedDateTime expectedPreviousDateTime = dateTime.minus(this.timeInterval);
+      ZonedDateTime previousDateTime = current.records[n - 1].getZoneDateTime();
+      if (!expectedPreviousDateTime.equals(previousDateTime)) {
+        throw new IllegalArgumentException(
+          String.format("Invalid time step at index: %d, where expected previous date time is : %s ",
+            n, expectedPreviousDateTime)
+        );
+      }
+    }
+    if (n == current.times.length) {
+      // readers keep using the old buffer, whose first n entries are unchanged.
+      current = current.grow();
+      this.buffer = current;
+    }
+    current.times[n] = dateTime.toInstant().toEpochMilli();
+    current.records[n] = timeStepValue;
+    this.size = n + 1;
+  }
+
+  /**
+   *
+   * @return an immutable view of the time steps appended so far.
+   */
+  public Snapshot<R> snapshot() {
+    int n = this.size;
+    return new Snapshot<>(this, this.buffer, n);
+  }
+
+  @Override
+  public ZoneId getZoneId() {
+    return this.zoneId;
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public boolean contains(TimeStepValue<R> timeStepValue) {
+    return this.snapshot().contains(timeStepValue);
+  }
+
+  @Override
+  public boolean contains(ZonedDateTime zonedDateTime) {
+    return this.snapshot().contains(zonedDateTime);
+  }
+
+  @Override
+  public TimeStepValue<R> getFirst() {
+    return this.snapshot().getFirst();
+  }
+
+  @Override
+  public TimeStepValue<R> getLast() {
+    return this.snapshot().getLast();
+  }
+
+  @Override
+  public TimeStepValue<R> getNext(TimeStepValue<R> previous) {
+    return this.snapshot().getNext(previous);
+  }
+
+  @Override
+  public TimeStepValue<R> getPrevious(TimeStepValue<R> after) {
+    return this.snapshot().getPrevious(after);
+  }
+
+  @Override
+  public boolean isRegularTimeIntervaled() {
+    return true;
+  }
+
+  @Override
+  public TemporalAmount getTimeInterval() {
+    return this.timeInterval;
+  }
+
+  @Override
+  public TimeStepValue<R> getTimeStepValue(ZonedDateTime dateTime) {
+    return this.snapshot().getTimeStepValue(dateTime);
+  }
+
+  @Override
+  public DateTimeRange getDateTimeRange() {
+    return this.snapshot().getDateTimeRange();
+  }
+
+  @Override
+  public DateRange getDateRange() {
+    return this.snapshot().getDateRange();
+  }
+
+  @Override
+  public TimeSeries<TimeStepValue<R>> average(TemporalAmount timeInterval,
+    Function<Pair<ZonedDateTime, Set<TimeStepValue<R>>>, TimeStepValue<R>> averaging) {
+    return this.snapshot().average(timeInterval, averaging);
+  }
+
+  @Override
+  public Iterator<TimeStepValue<R>> iterator() {
+    return this.snapshot().iterator();
+  }
+
+  @Override
+  public String toString() {
+    return "AppendableTimeSeries{" + "timeInterval=" + timeInterval + ", zoneId=" + zoneId + ", size=" + size + '}';
+  }
+
+  /**
+   * The storage of the time steps, replaced by a larger copy when full.
+   */
+  private static final class Buffer {
+
+    private final long[] times;
+    private final TimeStepValue<?>[] records;
+
+    Buffer(int capacity) {
+      this.times = new long[capacity];
+      this.records = new TimeStepValue<?>[capacity];
+    }
+
+    private Buffer(long[] times, TimeStepValue<?>[] records) {
+      this.times = times;
+      this.records = records;
+    }
+
+    Buffer grow() {
+      int capacity = this.times.length << 1;
+      return new Buffer(Arrays.copyOf(this.times, capacity), Arrays.copyOf(this.records, capacity));
+    }
+  }
+
+  /**
+   * The first time steps of an {@linkplain AppendableTimeSeries}, fixed when the
+   * snapshot was taken.
+   *
+   * @param <R>
+   */
+  public static final class Snapshot<R> implements TimeSeries<TimeStepValue<R>> {
+
+    private final AppendableTimeSeries<R> host;
+    private final Buffer buffer;
+    private final int size;
+
+    private Snapshot(AppendableTimeSeries<R> host, Buffer buffer, int size) {
+      this.host = host;
+      this.buffer = buffer;
+      this.size = size;
+    }
+
+    /**
+     *
+     * @param index
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public TimeStepValue<R> get(int index) {
+      if (index < 0 || index >= this.size) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + this.size);
+      }
+      return (TimeStepValue<R>) this.buffer.records[index];
+    }
+
+    /**
+     *
+     * @param dateTime
+     * @return the index of the time step at the same instant, or -1 if there is none.
+     */
+    public int indexOf(ZonedDateTime dateTime) {
+      if (this.size == 0) {
+        return -1;
+      }
+      long target = dateTime.toInstant().toEpochMilli();
+      long[] times = this.buffer.times;
+      int result;
+      if (this.host.stepMillis > 0) {
+        long offset = target - times[0];
+        if (offset < 0 || offset % this.host.stepMillis != 0 || offset / this.host.stepMillis >= this.size) {
+          result = -1;
+        } else {
+          result = (int) (offset / this.host.stepMillis);
+        }
+      } else {
+        result = Arrays.binarySearch(times, 0, this.size, target);
+      }
+      return result >= 0 && times[result] == target ? result : -1;
+    }
+
+    /**
+     *
+     * @return the time steps of the snapshot.
+     */
+    public List<TimeStepValue<R>> asList() {
+      return new AbstractList<TimeStepValue<R>>() {
+        @Override
+        public TimeStepValue<R> get(int index) {
+          return Snapshot.this.get(index);
+        }
+
+        @Override
+        public int size() {
+          return Snapshot.this.size;
+        }
+      };
+    }
+
+    @Override
+    public ZoneId getZoneId() {
+      return this.host.zoneId;
+    }
+
+    @Override
+    public int size() {
+      return this.size;
+    }
+
+    @Override
+    public boolean contains(TimeStepValue<R> timeStepValue) {
+      return this.contains(timeStepValue.getZoneDateTime());
+    }
+
+    @Override
+    public boolean contains(ZonedDateTime zonedDateTime) {
+      long epochMilli = zonedDateTime.toInstant().toEpochMilli();
+      return this.size > 0 && epochMilli >= this.buffer.times[0] && epochMilli <= this.buffer.times[this.size - 1];
+    }
+
+    @Override
+    public TimeStepValue<R> getFirst() {
+      return this.size == 0 ? null : this.get(0);
+    }
+
+    @Override
+    public TimeStepValue<R> getLast() {
+      return this.size == 0 ? null : this.get(this.size - 1);
+    }
+
+    @Override
+    public TimeStepValue<R> getNext(TimeStepValue<R> previous) {
+      int i = this.indexOfStep(previous);
+      return i + 1 < this.size ? this.get(i + 1) : null;
+    }
+
+    @Override
+    public TimeStepValue<R> getPrevious(TimeStepValue<R> after) {
+      int i = this.indexOfStep(after);
+      return i > 0 ? this.get(i - 1) : null;
+    }
+
+    /**
+     *
+     * @param timeStepValue
+     * @return
+     */
+    private int indexOfStep(TimeStepValue<R> timeStepValue) {
+      int result = this.indexOf(timeStepValue.getZoneDateTime());
+      if (result < 0) {
+        throw new IllegalArgumentException("Not a time step of this series: " + timeStepValue);
+      }
+      return result;
+    }
+
+    @Override
+    public boolean isRegularTimeIntervaled() {
+      return true;
+    }
+
+    @Override
+    public TemporalAmount getTimeInterval() {
+      return this.host.timeInterval;
+    }
+
+    @Override
+    public TimeStepValue<R> getTimeStepValue(ZonedDateTime dateTime) {
+      TimeStepValue<R> result = null;
+      int i = this.indexOf(dateTime);
+      if (i >= 0 && Objects.equals(this.get(i).getZoneDateTime(), dateTime)) {
+        result = this.get(i);
+      }
+      return result;
+    }
+
+    @Override
+    public DateTimeRange getDateTimeRange() {
+      if (this.size == 0) {
+        throw new NoSuchElementException("Series is empty");
+      }
+      return new DateTimeRange(this.getFirst().getZoneDateTime(), this.getLast().getZoneDateTime());
+    }
+
+    @Override
+    public DateRange getDateRange() {
+      return this.getDateTimeRange().getDateRange();
+    }
+
+    @Override
+    public TimeSeries<TimeStepValue<R>> average(TemporalAmount timeInterval,
+      Function<Pair<ZonedDateTime, Set<TimeStepValue<R>>>, TimeStepValue<R>> averaging) {
+      List<TimeStepValue<R>> newRecords = Resampler.aggregate(this.asList(), timeInterval, averaging);
+      return new DefaultTimeSeries<>(timeInterval, newRecords);
+    }
+
+    @Override
+    public Iterator<TimeStepValue<R>> iterator() {
+      return this.asList().iterator();
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot{" + "timeInterval=" + this.host.timeInterval + ", size=" + size + '}';
+    }
+  }
+}
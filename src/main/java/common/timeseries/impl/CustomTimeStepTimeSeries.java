@@ -1,6 +1,8 @@
 package common.timeseries.impl;
 
+import common.timeseries.Resampler;
 import common.timeseries.TimeSeries;
+import common.timeseries.TimeSeriesParallel;
 import common.timeseries.TimeStepValue;
 import common.types.DateRange;
 import common.types.DateTimeRange;
@@ -9,13 +11,10 @@ import java.time.ZonedDateTime;
 import java.time.temporal.TemporalAmount;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.function.Function;
 import org.apache.commons.math3.util.Pair;
 
@@ -28,6 +27,7 @@ public class CustomTimeStepTimeSeries<T extends TimeStepValue<?>> implements Tim
   private final DateTimeRange dateTimeRange;
   private final TemporalAmount timeInterval;
   private final List<T> records;
+  private final TimeStepIndex index;
 
   /**
    *
@@ -48,6 +48,7 @@ public class CustomTimeStepTimeSeries<T extends TimeStepValue<?>> implements Tim
     this.dateTimeRange = new DateTimeRange(startDate, endDate);
     this.timeInterval = timeInterval;
     this.validate();
+    this.index = new TimeStepIndex(timeInterval, this.records);
   }
 
   /**
@@ -148,23 +149,23 @@ public class CustomTimeStepTimeSeries<T extends TimeStepValue<?>> implements Tim
   /**
    *
    * @param previous
-   * @return
+   * @return the time step after, or null if previous is the last time step.
    */
   @Override
   public T getNext(T previous) {
-    //To change body of generated methods, choose Tools | Templates.
-    throw new UnsupportedOperationException("Not supported yet.");
+    int i = this.indexOfStep(previous);
+    return i + 1 < this.records.size() ? this.records.get(i + 1) : null;
   }
 
   /**
    *
    * @param after
-   * @return
+   * @return the time step before, or null if after is the first time step.
    */
   @Override
   public T getPrevious(T after) {
-    //To change body of generated methods, choose Tools | Templates.
-    throw new UnsupportedOperationException("Not supported yet.");
+    int i = this.indexOfStep(after);
+    return i > 0 ? this.records.get(i - 1) : null;
   }
 
   /**
@@ -193,12 +194,22 @@ public class CustomTimeStepTimeSeries<T extends TimeStepValue<?>> implements Tim
   @Override
   public T getTimeStepValue(ZonedDateTime dateTime) {
     T result = null;
-    if (this.dateTimeRange.contains(dateTime)) {
-      for (T record : this.records) {
-        if (Objects.equals(record.getZoneDateTime(), dateTime)) {
-          result = record;
-        }
-      }
+    int i = this.index.indexOf(dateTime);
+    if (i >= 0 && Objects.equals(this.records.get(i).getZoneDateTime(), dateTime)) {
+      result = this.records.get(i);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param timeStepValue
+   * @return
+   */
+  private int indexOfStep(T timeStepValue) {
+    int result = this.index.indexOf(timeStepValue.getZoneDateTime());
+    if (result < 0) {
+      throw new IllegalArgumentException("Not a time step of this series: " + timeStepValue);
     }
     return result;
   }
@@ -220,25 +231,22 @@ public class CustomTimeStepTimeSeries<T extends TimeStepValue<?>> implements Tim
   @Override
   public TimeSeries<T> average(TemporalAmount timeInterval,
     Function<Pair<ZonedDateTime, Set<T>>, T> averaging) {
-    SortedSet<T> copy = new TreeSet<>(this.records);
-    Iterable<ZonedDateTime> iterator = this.dateTimeRange.iterator(timeInterval);
-    List<T> newRecords = new ArrayList<>();
-    for (ZonedDateTime current : iterator) {
-      ZonedDateTime nextDt = current.plus(timeInterval);
-      Set<T> toAverage = new HashSet<>();
-      Iterator<T> copyIterator = copy.iterator();
-      while (copyIterator.hasNext()) {
-        T r = copyIterator.next();
-        if ((current.isBefore(r.getZoneDateTime()) || current.isEqual(r.getZoneDateTime()))
-          && r.getZoneDateTime().isBefore(nextDt)) {
-          toAverage.add(r);
-          copyIterator.remove();
-        } else {
-          newRecords.add(averaging.apply(Pair.create(nextDt, toAverage)));
-          break;
-        }
-      }
-    }
+    List<T> newRecords = Resampler.aggregate(this.records, timeInterval, averaging);
+    TimeSeries<T> result = new CustomTimeStepTimeSeries<>(timeInterval, newRecords);
+    return result;
+  }
+
+  /**
+   * Same as {@linkplain #average(TemporalAmount, Function)}, with the buckets
+   * aggregated in parallel. The averaging function must be thread safe.
+   *
+   * @param timeInterval
+   * @param averaging
+   * @return
+   */
+  public TimeSeries<T> parallelAverage(TemporalAmount timeInterval,
+    Function<Pair<ZonedDateTime, Set<T>>, T> averaging) {
+    List<T> newRecords = TimeSeriesParallel.aggregate(this.records, timeInterval, averaging);
     TimeSeries<T> result = new CustomTimeStepTimeSeries<>(timeInterval, newRecords);
     return result;
   }
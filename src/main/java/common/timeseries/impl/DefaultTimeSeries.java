@@ -1,6 +1,8 @@
 package common.timeseries.impl;
 
+import common.timeseries.Resampler;
 import common.timeseries.TimeSeries;
+import common.timeseries.TimeSeriesParallel;
 import common.timeseries.TimeStepValue;
 import common.types.DateRange;
 import common.types.DateTimeRange;
@@ -10,13 +12,10 @@ import java.time.temporal.TemporalAmount;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.function.Function;
 import org.apache.commons.math3.util.Pair;
 
@@ -29,6 +28,7 @@ public final class DefaultTimeSeries<R> implements TimeSeries<TimeStepValue<R>>
   private final DateTimeRange dateTimeRange;
   private final TemporalAmount timeInterval;
   private final List<TimeStepValue<R>> records;
+  private final TimeStepIndex index;
 
   /**
    *
@@ -71,6 +71,7 @@ public final class DefaultTimeSeries<R> implements TimeSeries<TimeStepValue<R>>
     this.dateTimeRange = new DateTimeRange(startDate, endDate);
     this.timeInterval = timeInterval;
     this.validate();
+    this.index = new TimeStepIndex(timeInterval, this.records);
   }
 
   /**
@@ -171,23 +172,23 @@ public final class DefaultTimeSeries<R> implements TimeSeries<TimeStepValue<R>>
   /**
    *
    * @param previous
-   * @return
+   * @return the time step after, or null if previous is the last time step.
    */
   @Override
   public TimeStepValue<R> getNext(TimeStepValue<R> previous) {
-    //To change body of generated methods, choose Tools | Templates.
-    throw new UnsupportedOperationException("Not supported yet.");
+    int i = this.indexOfStep(previous);
+    return i + 1 < this.records.size() ? this.records.get(i + 1) : null;
   }
 
   /**
    *
    * @param after
-   * @return
+   * @return the time step before, or null if after is the first time step.
    */
   @Override
   public TimeStepValue<R> getPrevious(TimeStepValue<R> after) {
-    //To change body of generated methods, choose Tools | Templates.
-    throw new UnsupportedOperationException("Not supported yet.");
+    int i = this.indexOfStep(after);
+    return i > 0 ? this.records.get(i - 1) : null;
   }
 
   /**
@@ -216,12 +217,22 @@ public final class DefaultTimeSeries<R> implements TimeSeries<TimeStepValue<R>>
   @Override
   public TimeStepValue<R> getTimeStepValue(ZonedDateTime dateTime) {
     TimeStepValue<R> result = null;
-    if (this.dateTimeRange.contains(dateTime)) {
-      for (TimeStepValue<R> record : this.records) {
-        if (Objects.equals(record.getZoneDateTime(), dateTime)) {
-          result = record;
-        }
-      }
+    int i = this.index.indexOf(dateTime);
+    if (i >= 0 && Objects.equals(this.records.get(i).getZoneDateTime(), dateTime)) {
+      result = this.records.get(i);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param timeStepValue
+   * @return
+   */
+  private int indexOfStep(TimeStepValue<R> timeStepValue) {
+    int result = this.index.indexOf(timeStepValue.getZoneDateTime());
+    if (result < 0) {
+      throw new IllegalArgumentException("Not a time step of this series: " + timeStepValue);
     }
     return result;
   }
@@ -243,25 +254,22 @@ public final class DefaultTimeSeries<R> implements TimeSeries<TimeStepValue<R>>
   @Override
   public TimeSeries<TimeStepValue<R>> average(TemporalAmount timeInterval,
     Function<Pair<ZonedDateTime, Set<TimeStepValue<R>>>, TimeStepValue<R>> averaging) {
-    SortedSet<TimeStepValue<R>> copy = new TreeSet<>(this.records);
-    Iterable<ZonedDateTime> iterator = this.dateTimeRange.iterator(timeInterval);
-    List<TimeStepValue<R>> newRecords = new ArrayList<>();
-    for (ZonedDateTime current : iterator) {
-      ZonedDateTime nextDt = current.plus(timeInterval);
-      Set<TimeStepValue<R>> toAverage = new HashSet<>();
-      Iterator<TimeStepValue<R>> copyIterator = copy.iterator();
-      while (copyIterator.hasNext()) {
-        TimeStepValue<R> r = copyIterator.next();
-        if ((current.isBefore(r.getZoneDateTime()) || current.isEqual(r.getZoneDateTime()))
-          && r.getZoneDateTime().isBefore(nextDt)) {
-          toAverage.add(r);
-          copyIterator.remove();
-        } else {
-          newRecords.add(averaging.apply(Pair.create(nextDt, toAverage)));
-          break;
-        }
-      }
-    }
+    List<TimeStepValue<R>> newRecords = Resampler.aggregate(this.records, timeInterval, averaging);
+    TimeSeries<TimeStepValue<R>> result = new DefaultTimeSeries<>(timeInterval, newRecords);
+    return result;
+  }
+
+  /**
+   * Same as {@linkplain #average(TemporalAmount, Function)}, with the buckets
+   * aggregated in parallel. The averaging function must be thread safe.
+   *
+   * @param timeInterval
+   * @param averaging
+   * @return
+   */
+  public TimeSeries<TimeStepValue<R>> parallelAverage(TemporalAmount timeInterval,
+    Function<Pair<ZonedDateTime, Set<TimeStepValue<R>>>, TimeStepValue<R>> averaging) {
+    List<TimeStepValue<R>> newRecords = TimeSeriesParallel.aggregate(this.records, timeInterval, averaging);
     TimeSeries<TimeStepValue<R>> result = new DefaultTimeSeries<>(timeInterval, newRecords);
     return result;
   }
@@ -0,0 +1,441 @@
+package common.timeseries.impl;
+
+import common.timeseries.TimeSeries;
+import common.timeseries.TimeStepValue;
+import common.types.DateRange;
+import common.types.DateTimeRange;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Time series of doubles read from a segment file mapped into memory. Opening a segment
+ * reads only its header; the values are read from the mapped pages as they are accessed
+ * and are never copied onto the heap.
+ *
+ * <p>
+ * A segment is a header with the number of time steps, the start, the time interval
+ * and the zone, followed by fixed width columns in little endian order: the epoch
+ * millis of the time steps, present only when the interval is not a fixed number of
+ * milliseconds, then the values, NaN marking missing values. Files larger than 2GB are
+ * mapped in several regions.</p>
+ *
+ * <pre>
+ * MappedTimeSeries.write(series, path);
+ * MappedTimeSeries mapped = MappedTimeSeries.open(path);
+ * </pre>
+ *
+ * @author Ricardo Marquez
+ */
+public final class MappedTimeSeries implements TimeSeries<TimeStepValue<Double>> {
+
+  private static final int MAGIC = 0x54535347;
+  private static final int VERSION = 1;
+  private static final int REGION_BITS = 30;
+  private static final long REGION_SIZE = 1L << REGION_BITS;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  private final ByteBuffer[] regions;
+  private final int size;
+  private final long startMillis;
+  private final long stepMillis;
+  private final TemporalAmount timeInterval;
+  private final ZoneId zoneId;
+  private final long timesOffset;
+  private final long valuesOffset;
+
+  /**
+   *
+   * @param regions
+   * @param header
+   */
+  private MappedTimeSeries(ByteBuffer[] regions, ByteBuffer header) {
+    this.regions = regions;
+    if (header.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a time series segment");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IllegalArgumentException("Unsupported segment version: " + version);
+    }
+    this.size = (int) header.getLong();
+    this.startMillis = header.getLong();
+    this.stepMillis = header.getLong();
+    byte[] interval = new byte[header.getInt()];
+    byte[] zone = new byte[header.getInt()];
+    header.get(interval).get(zone);
+    this.timeInterval = parseInterval(new String(interval, StandardCharsets.UTF_8));
+    this.zoneId = ZoneId.of(new String(zone, StandardCharsets.UTF_8));
+    this.timesOffset = align(header.position());
+    this.valuesOffset = this.timesOffset + (this.stepMillis > 0 ? 0 : 8L * this.size);
+  }
+
+  /**
+   * Maps a segment file. The file must not be modified while the series is in use.
+   *
+   * @param path
+   * @return
+   */
+  public static MappedTimeSeries open(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long length = channel.size();
+      ByteBuffer[] regions = new ByteBuffer[(int) ((length + REGION_SIZE - 1) >>> REGION_BITS)];
+      for (int i = 0; i < regions.length; i++) {
+        long position = (long) i << REGION_BITS;
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                Math.min(REGION_SIZE, length - position));
+        regions[i] = region.order(ByteOrder.LITTLE_ENDIAN);
+      }
+      if (regions.length == 0) {
+        throw new IllegalArgumentException("Empty segment file: " + path);
+      }
+      return new MappedTimeSeries(regions, regions[0].duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Writes a series of numbers to a segment file, replacing the file if it exists. Null
+   * user objects are written as NaN.
+   *
+   * @param series a series with a {@linkplain Duration} or {@linkplain Period} interval.
+   * @param path
+   */
+  public static void write(TimeSeries<? extends TimeStepValue<? extends Number>> series, Path path) {
+    Objects.requireNonNull(series, "series cannot be null");
+    TemporalAmount interval = series.getTimeInterval();
+    if (!(interval instanceof Duration) && !(interval instanceof Period)) {
+      throw new IllegalArgumentException("Time interval must be a Duration or a Period, was: " + interval);
+    }
+    long step = 0;
+    if (interval instanceof Duration && ((Duration) interval).getNano() % 1_000_000 == 0) {
+      step = Math.max(0, ((Duration) interval).toMillis());
+    }
+    byte[] intervalBytes = interval.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] zoneBytes = series.getZoneId().getId().getBytes(StandardCharsets.UTF_8);
+    long start = series.getFirst().getZoneDateTime().toInstant().toEpochMilli();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION)
+              .putLong(series.size()).putLong(start).putLong(step)
+              .putInt(intervalBytes.length).putInt(zoneBytes.length)
+              .put(intervalBytes).put(zoneBytes);
+      while (buffer.position() % 8 != 0) {
+        buffer.put((byte) 0);
+      }
+      if (step == 0) {
+        for (TimeStepValue<? extends Number> timeStepValue : series) {
+          flushIfFull(channel, buffer);
+          buffer.putLong(timeStepValue.getZoneDateTime().toInstant().toEpochMilli());
+        }
+      }
+      if (series instanceof RegularTimeSeries) {
+        RegularTimeSeries regular = (RegularTimeSeries) series;
+        for (int i = 0; i < regular.size(); i++) {
+          flushIfFull(channel, buffer);
+          buffer.putDouble(regular.getValue(i));
+        }
+      } else {
+        for (TimeStepValue<? extends Number> timeStepValue : series) {
+          flushIfFull(channel, buffer);
+          Number value = timeStepValue.getUserObject();
+          buffer.putDouble(value == null ? Double.NaN : value.doubleValue());
+        }
+      }
+      flush(channel, buffer);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   *
+   * @param channel
+   * @param buffer
+   * @throws IOException
+   */
+  private static void flushIfFull(FileChannel channel, ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < 8) {
+      flush(channel, buffer);
+    }
+  }
+
+  /**
+   *
+   * @param channel
+   * @param buffer
+   * @throws IOException
+   */
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   *
+   * @param text
+   * @return
+   */
+  private static TemporalAmount parseInterval(String text) {
+    return text.startsWith("PT") ? Duration.parse(text) : Period.parse(text);
+  }
+
+  /**
+   *
+   * @param position
+   * @return
+   */
+  private static long align(long position) {
+    return (position + 7) & ~7L;
+  }
+
+  /**
+   * Columns start on an eight byte boundary and regions are a multiple of eight bytes,
+   * so no value spans two regions.
+   *
+   * @param offset
+   * @return
+   */
+  private long readLong(long offset) {
+    return this.regions[(int) (offset >>> REGION_BITS)].getLong((int) (offset & (REGION_SIZE - 1)));
+  }
+
+  /**
+   *
+   * @param offset
+   * @return
+   */
+  private double readDouble(long offset) {
+    return this.regions[(int) (offset >>> REGION_BITS)].getDouble((int) (offset & (REGION_SIZE - 1)));
+  }
+
+  /**
+   *
+   * @param index
+   * @return the epoch millis of the time step.
+   */
+  public long getEpochMilli(int index) {
+    this.checkIndex(index);
+    return this.stepMillis > 0
+            ? this.startMillis + index * this.stepMillis
+            : this.readLong(this.timesOffset + 8L * index);
+  }
+
+  /**
+   *
+   * @param index
+   * @return the value of the time step, NaN if missing.
+   */
+  public double getValue(int index) {
+    this.checkIndex(index);
+    return this.readDouble(this.valuesOffset + 8L * index);
+  }
+
+  /**
+   *
+   * @param epochMilli
+   * @return the index of the time step at the epoch millis, or -1 if it is not a time
+   * step of this series.
+   */
+  public int indexOf(long epochMilli) {
+    if (this.stepMillis > 0) {
+      long offset = epochMilli - this.startMillis;
+      if (offset < 0 || offset % this.stepMillis != 0 || offset / this.stepMillis >= this.size) {
+        return -1;
+      }
+      return (int) (offset / this.stepMillis);
+    }
+    int lo = 0;
+    int hi = this.size - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long time = this.readLong(this.timesOffset + 8L * mid);
+      if (time < epochMilli) {
+        lo = mid + 1;
+      } else if (time > epochMilli) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   *
+   * @param dateTime
+   * @return
+   */
+  public int indexOf(ZonedDateTime dateTime) {
+    return this.indexOf(dateTime.toInstant().toEpochMilli());
+  }
+
+  /**
+   *
+   * @param index
+   * @return a view of the time step.
+   */
+  public TimeStepValue<Double> get(int index) {
+    double value = this.getValue(index);
+    ZonedDateTime dateTime = ZonedDateTime.ofInstant(Instant.ofEpochMilli(this.getEpochMilli(index)), this.zoneId);
+    return new SimpleTimeStepValue<>(dateTime, Double.isNaN(value) ? null : value);
+  }
+
+  /**
+   *
+   * @param index
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + this.size);
+    }
+  }
+
+  @Override
+  public ZoneId getZoneId() {
+    return this.zoneId;
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public boolean contains(TimeStepValue<Double> timeStepValue) {
+    return this.contains(timeStepValue.getZoneDateTime());
+  }
+
+  @Override
+  public boolean contains(ZonedDateTime zonedDateTime) {
+    long epochMilli = zonedDateTime.toInstant().toEpochMilli();
+    return this.size > 0 && epochMilli >= this.getEpochMilli(0) && epochMilli <= this.getEpochMilli(this.size - 1);
+  }
+
+  @Override
+  public TimeStepValue<Double> getFirst() {
+    return this.get(0);
+  }
+
+  @Override
+  public TimeStepValue<Double> getLast() {
+    return this.get(this.size - 1);
+  }
+
+  /**
+   *
+   * @param previous
+   * @return the time step after, or null if previous is the last time step.
+   */
+  @Override
+  public TimeStepValue<Double> getNext(TimeStepValue<Double> previous) {
+    int index = this.indexOf(previous.getZoneDateTime());
+    if (index < 0) {
+      throw new IllegalArgumentException("Not a time step of this series: " + previous);
+    }
+    return index + 1 < this.size ? this.get(index + 1) : null;
+  }
+
+  /**
+   *
+   * @param after
+   * @return the time step before, or null if after is the first time step.
+   */
+  @Override
+  public TimeStepValue<Double> getPrevious(TimeStepValue<Double> after) {
+    int index = this.indexOf(after.getZoneDateTime());
+    if (index < 0) {
+      throw new IllegalArgumentException("Not a time step of this series: " + after);
+    }
+    return index > 0 ? this.get(index - 1) : null;
+  }
+
+  @Override
+  public boolean isRegularTimeIntervaled() {
+    return true;
+  }
+
+  @Override
+  public TemporalAmount getTimeInterval() {
+    return this.timeInterval;
+  }
+
+  @Override
+  public TimeStepValue<Double> getTimeStepValue(ZonedDateTime dateTime) {
+    int index = this.indexOf(dateTime);
+    return index < 0 ? null : this.get(index);
+  }
+
+  @Override
+  public DateTimeRange getDateTimeRange() {
+    return new DateTimeRange(this.getFirst().getZoneDateTime(), this.getLast().getZoneDateTime());
+  }
+
+  @Override
+  public DateRange getDateRange() {
+    return this.getDateTimeRange().getDateRange();
+  }
+
+  @Override
+  public TimeSeries<TimeStepValue<Double>> average(TemporalAmount timeInterval,
+          Function<Pair<ZonedDateTime, Set<TimeStepValue<Double>>>, TimeStepValue<Double>> averaging) {
+    List<TimeStepValue<Double>> records = new ArrayList<>(this.size);
+    for (TimeStepValue<Double> record : this) {
+      records.add(record);
+    }
+    return new DefaultTimeSeries<>(this.timeInterval, records).average(timeInterval, averaging);
+  }
+
+  /**
+   *
+   * @return an iterator creating the time step views as it advances.
+   */
+  @Override
+  public Iterator<TimeStepValue<Double>> iterator() {
+    return new Iterator<TimeStepValue<Double>>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return this.index < size;
+      }
+
+      @Override
+      public TimeStepValue<Double> next() {
+        if (this.index >= size) {
+          throw new NoSuchElementException();
+        }
+        return get(this.index++);
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "MappedTimeSeries{" + "timeInterval=" + timeInterval + ", zoneId=" + zoneId + ", size=" + size + '}';
+  }
+}
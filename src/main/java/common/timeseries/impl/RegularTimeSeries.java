@@ -0,0 +1,429 @@
+package common.timeseries.impl;
+
+import common.timeseries.TimeSeries;
+import common.timeseries.TimeStepValue;
+import common.types.DateRange;
+import common.types.DateTimeRange;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Time series of doubles at a fixed time step. Only the start instant, the step and the
+ * values are stored: the value of step <code>i</code> is at
+ * <code>start + i * step</code>. Missing values are kept in a bit mask and stored as
+ * NaN.
+ *
+ * <p>
+ * The {@linkplain TimeStepValue}s returned by the {@linkplain TimeSeries} methods are
+ * created on demand, with a null user object for missing values. Use
+ * {@linkplain #getValue(int)} and {@linkplain #getEpochMilli(int)} to scan the series
+ * without creating them.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public final class RegularTimeSeries implements TimeSeries<TimeStepValue<Double>> {
+
+  private final long startMillis;
+  private final long stepMillis;
+  private final Duration step;
+  private final ZoneId zoneId;
+  private final double[] values;
+  private final long[] missing;
+
+  /**
+   *
+   * @param startMillis
+   * @param stepMillis
+   * @param zoneId
+   * @param values stored as is, NaN marking missing values.
+   * @param missing the missing values bit mask, stored as is.
+   */
+  RegularTimeSeries(long startMillis, long stepMillis, ZoneId zoneId, double[] values, long[] missing) {
+    this.startMillis = startMillis;
+    this.stepMillis = stepMillis;
+    this.step = Duration.ofMillis(stepMillis);
+    this.zoneId = zoneId;
+    this.values = values;
+    this.missing = missing;
+  }
+
+  /**
+   * Creates a series from the values. NaN values are treated as missing.
+   *
+   * @param start the date time of the first value.
+   * @param step a fixed, positive duration of at least one millisecond.
+   * @param values
+   * @return
+   */
+  public static RegularTimeSeries create(ZonedDateTime start, Duration step, double[] values) {
+    Objects.requireNonNull(start, "start cannot be null");
+    Objects.requireNonNull(values, "values cannot be null");
+    long stepMillis = toStepMillis(step);
+    if (values.length == 0) {
+      throw new IllegalArgumentException("Values cannot be empty");
+    }
+    double[] copy = Arrays.copyOf(values, values.length);
+    long[] mask = new long[(copy.length + 63) >>> 6];
+    for (int i = 0; i < copy.length; i++) {
+      if (Double.isNaN(copy[i])) {
+        mask[i >>> 6] |= 1L << i;
+      }
+    }
+    return new RegularTimeSeries(start.toInstant().toEpochMilli(), stepMillis, start.getZone(), copy, mask);
+  }
+
+  /**
+   * Copies a regular series of numbers. Null user objects are treated as missing.
+   *
+   * @param series
+   * @return
+   */
+  public static RegularTimeSeries create(TimeSeries<? extends TimeStepValue<? extends Number>> series) {
+    TemporalAmount interval = series.getTimeInterval();
+    if (!(interval instanceof Duration)) {
+      throw new IllegalArgumentException("Time interval must be a Duration, was: " + interval);
+    }
+    Duration step = (Duration) interval;
+    long stepMillis = toStepMillis(step);
+    ZonedDateTime start = series.getFirst().getZoneDateTime();
+    long startMillis = start.toInstant().toEpochMilli();
+    double[] values = new double[series.size()];
+    Arrays.fill(values, Double.NaN);
+    for (TimeStepValue<? extends Number> timeStepValue : series) {
+      long offset = timeStepValue.getZoneDateTime().toInstant().toEpochMilli() - startMillis;
+      if (offset % stepMillis != 0 || offset / stepMillis >= values.length) {
+        throw new IllegalArgumentException("Time step not on the series interval: " + timeStepValue);
+      }
+      Number value = timeStepValue.getUserObject();
+      values[(int) (offset / stepMillis)] = value == null ? Double.NaN : value.doubleValue();
+    }
+    return create(start, step, values);
+  }
+
+  /**
+   *
+   * @param step
+   * @return
+   */
+  private static long toStepMillis(Duration step) {
+    Objects.requireNonNull(step, "step cannot be null");
+    long result = step.toMillis();
+    if (result < 1) {
+      throw new IllegalArgumentException("Step must be at least one millisecond, was: " + step);
+    }
+    if (!Duration.ofMillis(result).equals(step)) {
+      throw new IllegalArgumentException("Step must be a whole number of milliseconds, was: " + step);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public long getStartEpochMilli() {
+    return this.startMillis;
+  }
+
+  /**
+   *
+   * @return
+   */
+  public long getStepMillis() {
+    return this.stepMillis;
+  }
+
+  /**
+   *
+   * @param index
+   * @return the epoch millis of the time step.
+   */
+  public long getEpochMilli(int index) {
+    this.checkIndex(index);
+    return this.startMillis + index * this.stepMillis;
+  }
+
+  /**
+   *
+   * @param index
+   * @return the value of the time step, NaN if missing.
+   */
+  public double getValue(int index) {
+    this.checkIndex(index);
+    return this.values[index];
+  }
+
+  /**
+   *
+   * @param index
+   * @return
+   */
+  public boolean isMissing(int index) {
+    this.checkIndex(index);
+    return (this.missing[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   *
+   * @return a copy of the values, NaN marking missing values.
+   */
+  public double[] getValues() {
+    return Arrays.copyOf(this.values, this.values.length);
+  }
+
+  /**
+   *
+   * @param dateTime
+   * @return the index of the time step at the date time, or -1 if the date time is not
+   * a time step of this series.
+   */
+  public int indexOf(ZonedDateTime dateTime) {
+    return this.indexOf(dateTime.toInstant().toEpochMilli());
+  }
+
+  /**
+   *
+   * @param epochMilli
+   * @return the index of the time step at the epoch millis, or -1 if it is not a time
+   * step of this series.
+   */
+  public int indexOf(long epochMilli) {
+    long offset = epochMilli - this.startMillis;
+    int result;
+    if (offset < 0 || offset % this.stepMillis != 0 || offset / this.stepMillis >= this.values.length) {
+      result = -1;
+    } else {
+      result = (int) (offset / this.stepMillis);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param index
+   * @return a view of the time step.
+   */
+  public TimeStepValue<Double> get(int index) {
+    this.checkIndex(index);
+    ZonedDateTime dateTime = this.toDateTime(this.startMillis + index * this.stepMillis);
+    Double value = this.isMissing(index) ? null : this.values[index];
+    return new SimpleTimeStepValue<>(dateTime, value);
+  }
+
+  /**
+   *
+   * @param epochMilli
+   * @return
+   */
+  private ZonedDateTime toDateTime(long epochMilli) {
+    return ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), this.zoneId);
+  }
+
+  /**
+   *
+   * @param index
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= this.values.length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + this.values.length);
+    }
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public ZoneId getZoneId() {
+    return this.zoneId;
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public int size() {
+    return this.values.length;
+  }
+
+  /**
+   *
+   * @param timeStepValue
+   * @return
+   */
+  @Override
+  public boolean contains(TimeStepValue<Double> timeStepValue) {
+    return this.contains(timeStepValue.getZoneDateTime());
+  }
+
+  /**
+   *
+   * @param zonedDateTime
+   * @return
+   */
+  @Override
+  public boolean contains(ZonedDateTime zonedDateTime) {
+    long epochMilli = zonedDateTime.toInstant().toEpochMilli();
+    return epochMilli >= this.startMillis
+            && epochMilli <= this.startMillis + (this.values.length - 1) * this.stepMillis;
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public TimeStepValue<Double> getFirst() {
+    return this.get(0);
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public TimeStepValue<Double> getLast() {
+    return this.get(this.values.length - 1);
+  }
+
+  /**
+   *
+   * @param previous
+   * @return the time step after, or null if previous is the last time step.
+   */
+  @Override
+  public TimeStepValue<Double> getNext(TimeStepValue<Double> previous) {
+    int index = this.indexOf(previous.getZoneDateTime());
+    if (index < 0) {
+      throw new IllegalArgumentException("Not a time step of this series: " + previous);
+    }
+    return index + 1 < this.values.length ? this.get(index + 1) : null;
+  }
+
+  /**
+   *
+   * @param after
+   * @return the time step before, or null if after is the first time step.
+   */
+  @Override
+  public TimeStepValue<Double> getPrevious(TimeStepValue<Double> after) {
+    int index = this.indexOf(after.getZoneDateTime());
+    if (index < 0) {
+      throw new IllegalArgumentException("Not a time step of this series: " + after);
+    }
+    return index > 0 ? this.get(index - 1) : null;
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public boolean isRegularTimeIntervaled() {
+    return true;
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public TemporalAmount getTimeInterval() {
+    return this.step;
+  }
+
+  /**
+   *
+   * @param dateTime
+   * @return the time step at the date time, or null if the date time is not a time step
+   * of this series.
+   */
+  @Override
+  public TimeStepValue<Double> getTimeStepValue(ZonedDateTime dateTime) {
+    int index = this.indexOf(dateTime);
+    return index < 0 ? null : this.get(index);
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public DateTimeRange getDateTimeRange() {
+    ZonedDateTime startDate = this.toDateTime(this.startMillis);
+    ZonedDateTime endDate = this.toDateTime(this.startMillis + (this.values.length - 1) * this.stepMillis);
+    return new DateTimeRange(startDate, endDate);
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public DateRange getDateRange() {
+    return this.getDateTimeRange().getDateRange();
+  }
+
+  /**
+   *
+   * @param timeInterval
+   * @param averaging
+   * @return
+   */
+  @Override
+  public TimeSeries<TimeStepValue<Double>> average(TemporalAmount timeInterval,
+          Function<Pair<ZonedDateTime, Set<TimeStepValue<Double>>>, TimeStepValue<Double>> averaging) {
+    List<TimeStepValue<Double>> records = new ArrayList<>(this.values.length);
+    for (TimeStepValue<Double> record : this) {
+      records.add(record);
+    }
+    return new DefaultTimeSeries<>(this.step, records).average(timeInterval, averaging);
+  }
+
+  /**
+   *
+   * @return an iterator creating the time step views as it advances.
+   */
+  @Override
+  public Iterator<TimeStepValue<Double>> iterator() {
+    return new Iterator<TimeStepValue<Double>>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return this.index < values.length;
+      }
+
+      @Override
+      public TimeStepValue<Double> next() {
+        if (this.index >= values.length) {
+          throw new NoSuchElementException();
+        }
+        return get(this.index++);
+      }
+    };
+  }
+
+  /**
+   *
+   * @return
+   */
+  @Override
+  public String toString() {
+    return "RegularTimeSeries{" + "dateTimeRange=" + getDateTimeRange() + ", timeInterval=" + step
+            + ", size=" + values.length + '}';
+  }
+}
@@ -0,0 +1,62 @@
+package common.timeseries.impl;
+
+import common.timeseries.TimeStepValue;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of the epoch millis of sorted time steps. When the time interval is a fixed
+ * duration the position of a date time is computed from its offset to the first time
+ * step, otherwise it is found with a binary search.
+ *
+ * @author Ricardo Marquez
+ */
+final class TimeStepIndex {
+
+  private final long[] epochMillis;
+  private final long stepMillis;
+
+  /**
+   *
+   * @param timeInterval
+   * @param records sorted by date time.
+   */
+  TimeStepIndex(TemporalAmount timeInterval, List<? extends TimeStepValue<?>> records) {
+    this.epochMillis = new long[records.size()];
+    for (int i = 0; i < this.epochMillis.length; i++) {
+      this.epochMillis[i] = records.get(i).getZoneDateTime().toInstant().toEpochMilli();
+    }
+    long step = 0;
+    if (timeInterval instanceof Duration) {
+      Duration duration = (Duration) timeInterval;
+      if (!duration.isNegative() && !duration.isZero() && duration.getNano() % 1_000_000 == 0) {
+        step = duration.toMillis();
+      }
+    }
+    this.stepMillis = step;
+  }
+
+  /**
+   *
+   * @param dateTime
+   * @return the position of the time step at the same instant, or -1 if there is none.
+   */
+  int indexOf(ZonedDateTime dateTime) {
+    long target = dateTime.toInstant().toEpochMilli();
+    int result;
+    if (this.stepMillis > 0) {
+      long offset = target - this.epochMillis[0];
+      if (offset < 0 || offset % this.stepMillis != 0 || offset / this.stepMillis >= this.epochMillis.length) {
+        result = -1;
+      } else {
+        result = (int) (offset / this.stepMillis);
+      }
+    } else {
+      result = Arrays.binarySearch(this.epochMillis, target);
+    }
+    return result >= 0 && this.epochMillis[result] == target ? result : -1;
+  }
+}
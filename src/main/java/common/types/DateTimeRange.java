@@ -9,9 +9,15 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.TemporalAmount;
-import java.time.temporal.TemporalUnit;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -159,14 +165,11 @@ public class DateTimeRange {
   /**
    *
    * @param timeStep
-   * @return
+   * @return the number of time steps from the start date up to the end date,
+   * inclusive.
    */
   public int getNumberOfSteps(TemporalAmount timeStep) {
-    TemporalUnit unit = timeStep.getUnits().get(0);
-    long until = this.startDt.until(this.endDt, unit);
-    long amount = timeStep.get(unit);
-    long result = until / amount + 1l;
-    return (int) result;
+    return (int) new DateTimeStepper(this.startDt, timeStep).count(this.endDt);
   }
 
   /**
@@ -178,6 +181,37 @@ public class DateTimeRange {
     return () -> new DateTimeRangeIterator(this, temporalUnit);
   }
 
+  /**
+   * The epoch millis of the time steps, computed without creating date times for
+   * amounts of whole milliseconds and for periods.
+   *
+   * @param timeStep
+   * @return
+   */
+  public LongStream epochMillis(TemporalAmount timeStep) {
+    DateTimeStepper stepper = new DateTimeStepper(this.startDt, timeStep);
+    long count = stepper.count(this.endDt);
+    int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED
+      | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+    return StreamSupport.longStream(new Spliterators.AbstractLongSpliterator(count, characteristics) {
+      private long k = 0;
+
+      @Override
+      public boolean tryAdvance(LongConsumer action) {
+        if (this.k >= count) {
+          return false;
+        }
+        action.accept(stepper.epochMilli(this.k++));
+        return true;
+      }
+
+      @Override
+      public Comparator<? super Long> getComparator() {
+        return null;
+      }
+    }, false);
+  }
+
   /**
    *
    * @return
@@ -244,9 +278,9 @@ public class DateTimeRange {
    */
   private static class DateTimeRangeIterator implements Iterator<ZonedDateTime> {
 
-    private final DateTimeRange host;
-    private final TemporalAmount temporalUnit;
-    int count = 0;
+    private final DateTimeStepper stepper;
+    private final long count;
+    private long k = 0;
 
     /**
      *
@@ -254,8 +288,8 @@ public class DateTimeRange {
      * @param temporalUnit
      */
     public DateTimeRangeIterator(DateTimeRange host, TemporalAmount temporalUnit) {
-      this.host = host;
-      this.temporalUnit = temporalUnit;
+      this.stepper = new DateTimeStepper(host.startDt, temporalUnit);
+      this.count = this.stepper.count(host.endDt);
     }
 
     /**
@@ -264,14 +298,7 @@ public class DateTimeRange {
      */
     @Override
     public boolean hasNext() {
-      ZonedDateTime startDt = this.host.startDt;
-      ZonedDateTime endDt = this.host.endDt;
-      TemporalUnit unit = temporalUnit.getUnits().get(0);
-      long originalCount = temporalUnit.get(unit);
-      ZonedDateTime plus = startDt.plus(count * originalCount, unit);
-      boolean result = plus.isBefore(endDt)
-        || plus.isEqual(endDt);
-      return result;
+      return this.k < this.count;
     }
 
     /**
@@ -280,11 +307,10 @@ public class DateTimeRange {
      */
     @Override
     public ZonedDateTime next() {
-      TemporalUnit unit = temporalUnit.getUnits().get(0);
-      long originalCount = temporalUnit.get(unit);
-      ZonedDateTime result = this.host.startDt.plus(count * originalCount, unit);
-      count++;
-      return result;
+      if (this.k >= this.count) {
+        throw new NoSuchElementException();
+      }
+      return this.stepper.dateTime(this.k++);
     }
   }
 
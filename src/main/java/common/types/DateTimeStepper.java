@@ -0,0 +1,213 @@
+package common.types;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.time.temporal.TemporalUnit;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.List;
+
+/**
+ * Computes the date time <code>k</code> steps after a start, <code>start + k *
+ * amount</code>, without adding the amount <code>k</code> times. A {@linkplain Duration}
+ * is added to the epoch seconds of the start. A {@linkplain Period} is added to the
+ * local date time of the start, which is then converted to an instant with the offset
+ * of the zone, cached until the next zone transition. Other amounts are added one step
+ * at a time, from the last step computed.
+ *
+ * <p>
+ * Not thread safe.</p>
+ *
+ * @author Ricardo Marquez
+ */
+final class DateTimeStepper {
+
+  private final ZonedDateTime start;
+  private final TemporalAmount amount;
+  private final ZoneId zoneId;
+  private final ZoneRules rules;
+  private final long startSeconds;
+  private final int startNanos;
+  private final long startMillis;
+  private final Duration duration;
+  private final long stepMillis;
+  private final LocalDateTime startLocal;
+  private final long stepMonths;
+  private final long stepDays;
+  private final double approximateStepSeconds;
+  private LocalDateTime validFrom = null;
+  private LocalDateTime validUntil = null;
+  private ZoneOffset validOffset = null;
+  private long lastK = 0;
+  private ZonedDateTime lastDateTime;
+
+  /**
+   *
+   * @param start
+   * @param amount a positive amount.
+   */
+  DateTimeStepper(ZonedDateTime start, TemporalAmount amount) {
+    if (!start.plus(amount).isAfter(start)) {
+      throw new IllegalArgumentException("Time step must be positive, was: " + amount);
+    }
+    this.start = start;
+    this.amount = amount;
+    this.zoneId = start.getZone();
+    this.rules = this.zoneId.getRules();
+    Instant instant = start.toInstant();
+    this.startSeconds = instant.getEpochSecond();
+    this.startNanos = instant.getNano();
+    this.startMillis = instant.toEpochMilli();
+    this.startLocal = start.toLocalDateTime();
+    this.lastDateTime = start;
+    if (amount instanceof Duration) {
+      this.duration = (Duration) amount;
+      this.stepMillis = this.duration.getNano() % 1_000_000 == 0 ? this.duration.toMillis() : 0;
+      this.stepMonths = 0;
+      this.stepDays = 0;
+      this.approximateStepSeconds = this.duration.getSeconds() + this.duration.getNano() / 1e9;
+    } else {
+      this.duration = null;
+      this.stepMillis = 0;
+      if (amount instanceof Period) {
+        this.stepMonths = ((Period) amount).toTotalMonths();
+        this.stepDays = ((Period) amount).getDays();
+      } else {
+        this.stepMonths = 0;
+        this.stepDays = 0;
+      }
+      double seconds = 0;
+      for (TemporalUnit unit : amount.getUnits()) {
+        Duration unitDuration = unit.getDuration();
+        seconds += amount.get(unit) * (unitDuration.getSeconds() + unitDuration.getNano() / 1e9);
+      }
+      this.approximateStepSeconds = seconds;
+    }
+  }
+
+  /**
+   *
+   * @param k
+   * @return the date time k steps after the start.
+   */
+  ZonedDateTime dateTime(long k) {
+    ZonedDateTime result;
+    if (this.duration != null) {
+      result = ZonedDateTime.ofInstant(this.instant(k), this.zoneId);
+    } else if (this.amount instanceof Period) {
+      LocalDateTime local = this.local(k);
+      ZoneOffset offset = this.offset(local);
+      // in a gap or an overlap, resolve as ZonedDateTime.plus does.
+      result = ZonedDateTime.ofLocal(local, this.zoneId, offset == null ? this.start.getOffset() : offset);
+    } else {
+      if (k < this.lastK) {
+        this.lastK = 0;
+        this.lastDateTime = this.start;
+      }
+      while (this.lastK < k) {
+        this.lastDateTime = this.lastDateTime.plus(this.amount);
+        this.lastK++;
+      }
+      result = this.lastDateTime;
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param k
+   * @return the epoch millis of the date time k steps after the start.
+   */
+  long epochMilli(long k) {
+    if (this.stepMillis > 0) {
+      return this.startMillis + k * this.stepMillis;
+    }
+    if (this.amount instanceof Period) {
+      LocalDateTime local = this.local(k);
+      ZoneOffset offset = this.offset(local);
+      if (offset != null) {
+        return local.toEpochSecond(offset) * 1000 + local.getNano() / 1_000_000;
+      }
+    }
+    return this.dateTime(k).toInstant().toEpochMilli();
+  }
+
+  /**
+   *
+   * @param end
+   * @return the number of steps from the start up to the end, inclusive.
+   */
+  long count(ZonedDateTime end) {
+    if (end.isBefore(this.start)) {
+      return 0;
+    }
+    long k;
+    if (this.duration == null && !(this.amount instanceof Period)) {
+      k = 0;
+    } else {
+      Duration between = Duration.between(this.start, end);
+      k = (long) ((between.getSeconds() + between.getNano() / 1e9) / this.approximateStepSeconds);
+    }
+    while (!this.dateTime(k + 1).isAfter(end)) {
+      k++;
+    }
+    while (k > 0 && this.dateTime(k).isAfter(end)) {
+      k--;
+    }
+    return k + 1;
+  }
+
+  /**
+   *
+   * @param k
+   * @return
+   */
+  private Instant instant(long k) {
+    return Instant.ofEpochSecond(this.startSeconds + k * this.duration.getSeconds(),
+            this.startNanos + k * this.duration.getNano());
+  }
+
+  /**
+   * Adds the months, then the days, as {@linkplain Period#addTo} does.
+   *
+   * @param k
+   * @return
+   */
+  private LocalDateTime local(long k) {
+    return this.startLocal.plusMonths(k * this.stepMonths).plusDays(k * this.stepDays);
+  }
+
+  /**
+   *
+   * @param local
+   * @return the offset of the local date time, or null if it is in a gap or an
+   * overlap.
+   */
+  private ZoneOffset offset(LocalDateTime local) {
+    if (this.validUntil != null && !local.isBefore(this.validFrom) && local.isBefore(this.validUntil)) {
+      return this.validOffset;
+    }
+    List<ZoneOffset> offsets = this.rules.getValidOffsets(local);
+    if (offsets.size() != 1) {
+      return null;
+    }
+    ZoneOffset result = offsets.get(0);
+    ZoneOffsetTransition next = this.rules.nextTransition(local.toInstant(result));
+    this.validFrom = local;
+    this.validOffset = result;
+    if (next == null) {
+      this.validUntil = LocalDateTime.MAX;
+    } else if (next.isGap()) {
+      this.validUntil = next.getDateTimeBefore();
+    } else {
+      this.validUntil = next.getDateTimeAfter();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,193 @@
+package common.types;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves coordinates to {@linkplain ZoneId}s with the {@linkplain TimezoneMapper},
+ * without creating a zone id per lookup. There is one zone id per time zone of the
+ * mapper, optionally substituted by a preferred zone id with the same rules, as
+ * {@linkplain ZoneIdCollection#substitute(ZoneId)} does. Substitutions are computed
+ * once, when the resolver is created.
+ *
+ * <p>
+ * The last coordinates resolved are kept in a fixed size cache indexed by a hash of the
+ * coordinates, so repeated lookups of the same coordinates, such as those of a station,
+ * skip the polygon tests. Coordinates are compared at float precision, the precision of
+ * the mapper. Thread safe.</p>
+ *
+ * @author Ricardo Marquez
+ */
+public final class TimezoneResolver {
+
+  /**
+   * The default number of cached coordinates.
+   */
+  public static final int DEFAULT_CACHE_SIZE = 4096;
+
+  private final ZoneId[] zoneIds;
+  private final AtomicReferenceArray<Entry> cache;
+  private final int mask;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates a resolver without substitutions.
+   */
+  public TimezoneResolver() {
+    this(Collections.emptySet(), DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   *
+   * @param preferred the zone ids to use instead of the zone ids of the mapper with the
+   * same rules. The first one wins when several have the same rules.
+   * @param cacheSize the number of cached coordinates, rounded up to a power of two.
+   */
+  public TimezoneResolver(Collection<ZoneId> preferred, int cacheSize) {
+    Objects.requireNonNull(preferred, "preferred zone ids cannot be null");
+    if (cacheSize < 1) {
+      throw new IllegalArgumentException("cache size must be greater than zero");
+    }
+    Map<ZoneRules, ZoneId> byRules = new HashMap<>();
+    for (ZoneId zoneId : preferred) {
+      byRules.putIfAbsent(zoneId.getRules(), zoneId);
+    }
+    ZoneId[] interned = Interned.ZONE_IDS;
+    this.zoneIds = new ZoneId[interned.length];
+    for (int i = 0; i < interned.length; i++) {
+      ZoneId zoneId = interned[i];
+      this.zoneIds[i] = zoneId == null ? null : byRules.getOrDefault(zoneId.getRules(), zoneId);
+    }
+    int size = Integer.highestOneBit(Math.min(cacheSize, 1 << 30));
+    size = size < cacheSize ? size << 1 : size;
+    this.cache = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   *
+   * @param preferred
+   * @return a resolver substituting the zone ids of the collection, as they are now.
+   */
+  public static TimezoneResolver create(ZoneIdCollection preferred) {
+    return new TimezoneResolver(preferred.asSet(), DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   *
+   * @param lat
+   * @param lng
+   * @return the zone id, or null if the time zone is unknown.
+   */
+  public ZoneId resolve(double lat, double lng) {
+    return this.zoneIds[this.lookup((float) lat, (float) lng)];
+  }
+
+  /**
+   * Resolves the zone ids of many coordinates.
+   *
+   * @param lat
+   * @param lng
+   * @param out receives the zone id of each point, null if the time zone is unknown.
+   */
+  public void resolve(double[] lat, double[] lng, ZoneId[] out) {
+    if (lat.length != lng.length || out.length < lat.length) {
+      throw new IllegalArgumentException(String.format(
+              "Expected as many longitudes and outputs as latitudes: %d, %d, %d", lat.length, lng.length, out.length));
+    }
+    for (int i = 0; i < lat.length; i++) {
+      out[i] = this.zoneIds[this.lookup((float) lat[i], (float) lng[i])];
+    }
+  }
+
+  /**
+   *
+   * @param timezoneIndex an index returned by
+   * {@linkplain TimezoneMapper#latLngToTimezone(double, double)}.
+   * @return the zone id, or null if the time zone is unknown.
+   */
+  public ZoneId getZoneId(int timezoneIndex) {
+    return this.zoneIds[timezoneIndex];
+  }
+
+  /**
+   *
+   * @param lat
+   * @param lng
+   * @return the index of the time zone.
+   */
+  private int lookup(float lat, float lng) {
+    int latBits = Float.floatToIntBits(lat);
+    int lngBits = Float.floatToIntBits(lng);
+    int hash = 31 * latBits + lngBits;
+    int slot = (hash ^ (hash >>> 16)) & this.mask;
+    Entry entry = this.cache.get(slot);
+    if (entry != null && entry.latBits == latBits && entry.lngBits == lngBits) {
+      this.hits.increment();
+      return entry.timezone;
+    }
+    this.misses.increment();
+    int result = TimezoneMapper.latLngToTimezone(lat, lng);
+    this.cache.set(slot, new Entry(latBits, lngBits, result));
+    return result;
+  }
+
+  public long getHitCount() {
+    return this.hits.sum();
+  }
+
+  public long getMissCount() {
+    return this.misses.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "TimezoneResolver{" + "cacheSize=" + cache.length() + ", hits=" + hits + ", misses=" + misses + '}';
+  }
+
+  /**
+   * Cached coordinates and their time zone.
+   */
+  private static final class Entry {
+
+    private final int latBits;
+    private final int lngBits;
+    private final int timezone;
+
+    Entry(int latBits, int lngBits, int timezone) {
+      this.latBits = latBits;
+      this.lngBits = lngBits;
+      this.timezone = timezone;
+    }
+  }
+
+  /**
+   * One zone id per time zone of the mapper, null for the unknown time zone and for ids
+   * the runtime does not know.
+   */
+  private static final class Interned {
+
+    private static final ZoneId[] ZONE_IDS = create();
+
+    private static ZoneId[] create() {
+      ZoneId[] result = new ZoneId[TimezoneMapper.getTimezoneCount()];
+      for (int i = 1; i < result.length; i++) {
+        try {
+          result[i] = ZoneId.of(TimezoneMapper.getTimezoneString(i));
+        } catch (DateTimeException ex) {
+          result[i] = null;
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -2,9 +2,12 @@ package common.types;
 
 import java.time.ZoneId;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableSet;
+import javafx.collections.SetChangeListener;
 
 /**
  *
@@ -13,11 +16,13 @@ import javafx.collections.ObservableSet;
 public class ZoneIdCollection {
 
   private final ObservableSet<ZoneId> zoneIds = FXCollections.observableSet();
+  private final Map<ZoneId, ZoneId> substitutions = new ConcurrentHashMap<>();
 
   /**
    *
    */
   public ZoneIdCollection() {
+    this.zoneIds.addListener((SetChangeListener<ZoneId>) (change) -> this.substitutions.clear());
   }
 
   /**
@@ -65,15 +70,16 @@ public class ZoneIdCollection {
 
   
   /**
-   * 
+   * Substitutions are remembered until the collection changes.
+   *
    * @param of
-   * @return 
+   * @return a zone id of the collection with the same rules, or the zone id itself.
    */
   public ZoneId substitute(ZoneId of) {
-    return this.zoneIds.stream()
-      .filter((z)->z.getRules().equals(of.getRules()))
+    return this.substitutions.computeIfAbsent(of, (key) -> this.zoneIds.stream()
+      .filter((z)->z.getRules().equals(key.getRules()))
       .findAny()
-      .orElse(of);
+      .orElse(key));
   }
 
 }
@@ -0,0 +1,168 @@
+package common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class BoundedCacheTest {
+
+  /**
+   * Concurrent gets of a key share one load.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testSingleFlight() throws Exception {
+    BoundedCache<String, Integer> cache = new BoundedCache<>(100);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        results.add(executor.submit(() -> cache.get("a", () -> {
+          started.countDown();
+          Thread.sleep(50);
+          return loads.incrementAndGet();
+        })));
+      }
+      started.await();
+      for (Future<Integer> result : results) {
+        Assert.assertEquals(Integer.valueOf(1), result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(15, cache.getHitCount());
+  }
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testBoundsAndFailures() throws Exception {
+    BoundedCache<Integer, Integer> cache = new BoundedCache<>(10, 0, TimeUnit.SECONDS);
+    for (int i = 0; i < 100; i++) {
+      int value = i;
+      cache.get(i, () -> value);
+      cache.get(0, () -> -1);
+    }
+    Assert.assertEquals(10, cache.size());
+    Assert.assertEquals(10, cache.getWeight());
+    Assert.assertEquals(Integer.valueOf(0), cache.getIfPresent(0));
+    Assert.assertEquals(90, cache.getEvictionCount());
+
+    try {
+      cache.get(-1, () -> {
+        throw new IllegalStateException("failed");
+      });
+      Assert.fail();
+    } catch (IllegalStateException ex) {
+      Assert.assertEquals("failed", ex.getMessage());
+    }
+    Assert.assertEquals(Integer.valueOf(-1), cache.get(-1, () -> -1));
+    Assert.assertEquals(1, cache.getLoadFailureCount());
+
+    BoundedCache<Integer, Integer> expiring = new BoundedCache<>(10, 20, TimeUnit.MILLISECONDS);
+    expiring.get(1, () -> 1);
+    Thread.sleep(40);
+    Assert.assertNull(expiring.getIfPresent(1));
+    Assert.assertEquals(Integer.valueOf(2), expiring.get(1, () -> 2));
+    Assert.assertEquals(1, expiring.getExpirationCount());
+  }
+
+  /**
+   * Expired and invalidated entries do not pile up in the queue while the cache is
+   * under its maximum weight.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testQueueBoundedUnderExpiryAndInvalidation() throws Exception {
+    BoundedCache<Integer, byte[]> cache = new BoundedCache<>(1000, 1, TimeUnit.MILLISECONDS);
+    for (int round = 0; round < 500; round++) {
+      for (int key = 0; key < 10; key++) {
+        cache.get(key, () -> new byte[16]);
+      }
+      Thread.sleep(2);
+      cache.invalidate(round % 10);
+    }
+    Assert.assertTrue(cache.size() <= 10);
+    Assert.assertTrue("queue size: " + cache.getQueueSize(), cache.getQueueSize() <= 2 * 64 + 10);
+    cache.invalidateAll();
+    Assert.assertEquals(0, cache.getWeight());
+  }
+
+  /**
+   * A read past the refresh time returns the old value and reloads it.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testRefreshAfterWrite() throws Exception {
+    BoundedCache<String, Integer> cache = new BoundedCache.Builder<String, Integer>()
+            .refreshAfterWrite(10, TimeUnit.MILLISECONDS)
+            .executor(Runnable::run)
+            .build();
+    AtomicInteger loads = new AtomicInteger();
+    Assert.assertEquals(Integer.valueOf(1), cache.get("a", loads::incrementAndGet));
+    Thread.sleep(20);
+    Assert.assertEquals(Integer.valueOf(1), cache.get("a", loads::incrementAndGet));
+    Assert.assertEquals(Integer.valueOf(2), cache.getIfPresent("a"));
+    Assert.assertEquals(1, cache.getRefreshCount());
+    Assert.assertEquals(1, cache.size());
+  }
+
+  /**
+   * The nodes replaced by refreshes do not pile up in the queue.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testQueueBoundedUnderRefresh() throws Exception {
+    BoundedCache<Integer, byte[]> cache = new BoundedCache.Builder<Integer, byte[]>()
+            .maximumWeight(1000)
+            .refreshAfterWrite(1, TimeUnit.MILLISECONDS)
+            .executor(Runnable::run)
+            .build();
+    for (int round = 0; round < 500; round++) {
+      for (int key = 0; key < 10; key++) {
+        cache.get(key, () -> new byte[16]);
+      }
+      Thread.sleep(2);
+    }
+    Assert.assertTrue(cache.getRefreshCount() > 0);
+    Assert.assertEquals(10, cache.size());
+    Assert.assertTrue("queue size: " + cache.getQueueSize(), cache.getQueueSize() <= 2 * 64 + 10);
+  }
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testExpireAfterAccess() throws Exception {
+    BoundedCache<String, Integer> cache = new BoundedCache.Builder<String, Integer>()
+            .expireAfterAccess(30, TimeUnit.MILLISECONDS)
+            .build();
+    AtomicInteger loads = new AtomicInteger();
+    cache.get("a", loads::incrementAndGet);
+    Thread.sleep(40);
+    Assert.assertNull(cache.getIfPresent("a"));
+    Assert.assertEquals(Integer.valueOf(2), cache.get("a", loads::incrementAndGet));
+  }
+}
@@ -0,0 +1,200 @@
+package common.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class CacheInterceptUtilTest {
+
+  public interface Service {
+
+    String find(String id);
+
+    String findWithTrace(String id, String trace);
+
+    String count(String id);
+
+    String name(String id);
+
+    String expiring(String id);
+  }
+
+  public static class ServiceImpl implements Service {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @CacheIntercept
+    @Override
+    public String find(String id) {
+      return id + this.calls.incrementAndGet();
+    }
+
+    @CacheIntercept(keyArgs = {0})
+    @Override
+    public String findWithTrace(String id, String trace) {
+      return id + this.calls.incrementAndGet();
+    }
+
+    @CacheIntercept(region = "shared", maxEntries = 1)
+    @Override
+    public String count(String id) {
+      return id + this.calls.incrementAndGet();
+    }
+
+    @CacheIntercept(region = "shared", maxEntries = 1)
+    @Override
+    public String name(String id) {
+      return id + this.calls.incrementAndGet();
+    }
+
+    @CacheIntercept(expireAfterWrite = 500, timeUnit = TimeUnit.MILLISECONDS)
+    @Override
+    public String expiring(String id) {
+      return id + this.calls.incrementAndGet();
+    }
+  }
+
+  public interface AsyncService {
+
+    CompletableFuture<String> find(String id);
+
+    CompletableFuture<String> refreshing(String id);
+  }
+
+  public static class AsyncServiceImpl implements AsyncService {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile CompletableFuture<String> next;
+
+    @CacheIntercept
+    @Override
+    public CompletableFuture<String> find(String id) {
+      this.calls.incrementAndGet();
+      return this.next;
+    }
+
+    @CacheIntercept(refreshAfterWrite = 20, timeUnit = TimeUnit.MILLISECONDS)
+    @Override
+    public CompletableFuture<String> refreshing(String id) {
+      this.calls.incrementAndGet();
+      return this.next;
+    }
+  }
+
+  public static class InvalidKeyArgs implements Service {
+
+    @CacheIntercept(keyArgs = {1})
+    @Override
+    public String find(String id) {
+      return id;
+    }
+
+    @Override
+    public String findWithTrace(String id, String trace) {
+      return id;
+    }
+
+    @Override
+    public String count(String id) {
+      return id;
+    }
+
+    @Override
+    public String name(String id) {
+      return id;
+    }
+
+    @Override
+    public String expiring(String id) {
+      return id;
+    }
+  }
+
+  @Test
+  public void testKeyArgs() {
+    Service service = CacheInterceptUtil.intercept(new ServiceImpl(), Service.class);
+    String first = service.find("a");
+    Assert.assertEquals(first, service.find("a"));
+    Assert.assertNotEquals(first, service.find("b"));
+    String traced = service.findWithTrace("a", "t1");
+    Assert.assertEquals(traced, service.findWithTrace("a", "t2"));
+  }
+
+  @Test
+  public void testRegion() throws Exception {
+    Service service = CacheInterceptUtil.intercept(new ServiceImpl(), Service.class);
+    String count = service.count("a");
+    service.name("a");
+    Assert.assertNotEquals(count, service.count("a"));
+  }
+
+  @Test
+  public void testExpireAfterWrite() throws Exception {
+    Service service = CacheInterceptUtil.intercept(new ServiceImpl(), Service.class);
+    String first = service.expiring("a");
+    Assert.assertEquals(first, service.expiring("a"));
+    Thread.sleep(600);
+    Assert.assertNotEquals(first, service.expiring("a"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidKeyArgs() {
+    CacheInterceptUtil.intercept(new InvalidKeyArgs(), Service.class);
+  }
+
+  @Test
+  public void testAsyncSharesFutureInProgress() {
+    AsyncServiceImpl impl = new AsyncServiceImpl();
+    AsyncService service = CacheInterceptUtil.intercept(impl, AsyncService.class);
+    impl.next = new CompletableFuture<>();
+    CompletableFuture<String> first = service.find("a");
+    CompletableFuture<String> second = service.find("a");
+    Assert.assertFalse(first.isDone());
+    impl.next.complete("value");
+    Assert.assertEquals("value", first.join());
+    Assert.assertEquals("value", second.join());
+    Assert.assertEquals("value", service.find("a").join());
+    Assert.assertEquals(1, impl.calls.get());
+  }
+
+  @Test
+  public void testAsyncFailureNotCached() {
+    AsyncServiceImpl impl = new AsyncServiceImpl();
+    AsyncService service = CacheInterceptUtil.intercept(impl, AsyncService.class);
+    impl.next = new CompletableFuture<>();
+    impl.next.completeExceptionally(new IllegalStateException("failed"));
+    Assert.assertTrue(service.find("a").isCompletedExceptionally());
+    impl.next = CompletableFuture.completedFuture("value");
+    Assert.assertEquals("value", service.find("a").join());
+    Assert.assertEquals(2, impl.calls.get());
+  }
+
+  @Test
+  public void testAsyncRefreshDoesNotWait() throws Exception {
+    AsyncServiceImpl impl = new AsyncServiceImpl();
+    AsyncService service = CacheInterceptUtil.intercept(impl, AsyncService.class);
+    impl.next = CompletableFuture.completedFuture("old");
+    Assert.assertEquals("old", service.refreshing("a").join());
+    CompletableFuture<String> reload = new CompletableFuture<>();
+    impl.next = reload;
+    Thread.sleep(40);
+    CompletableFuture<String> stale = service.refreshing("a");
+    Assert.assertTrue(stale.isDone());
+    Assert.assertEquals("old", stale.join());
+    long deadline = System.currentTimeMillis() + 5000;
+    while (impl.calls.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    reload.complete("new");
+    while (!"new".equals(service.refreshing("a").join()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals("new", service.refreshing("a").join());
+  }
+}
@@ -0,0 +1,99 @@
+package common.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class AsyncDbConnectionTest {
+
+  private static final int MAX_CONCURRENCY = 3;
+
+  private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+  private final DbConnection db = new DbConnection(StubJdbc.pool(() -> StubJdbc.connection(this.calls,
+          StubJdbc.resultSet(this.calls, new String[]{"id"}, new Object[]{1}))));
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+
+  @Test
+  public void testMaxConcurrency() throws Exception {
+    List<CompletableFuture<List<Integer>>> futures = new ArrayList<>();
+    try (AsyncDbConnection async = new AsyncDbConnection(this.db, MAX_CONCURRENCY)) {
+      for (int i = 0; i < 4 * MAX_CONCURRENCY; i++) {
+        int id = i;
+        futures.add(async.executeQuery("select id from t", (rs) -> this.map(id)));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        Assert.assertEquals(Collections.singletonList(i), futures.get(i).get(10, TimeUnit.SECONDS));
+      }
+    }
+    Assert.assertEquals(MAX_CONCURRENCY, this.maxRunning.get());
+    Assert.assertEquals(4 * MAX_CONCURRENCY, Collections.frequency(this.calls, "close"));
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    try (AsyncDbConnection async = new AsyncDbConnection(this.db, MAX_CONCURRENCY)) {
+      CompletableFuture<List<Integer>> failed = async.executeQuery("select id from t", (rs) -> {
+        throw new IllegalStateException("mapping failed");
+      });
+      CompletableFuture<Integer> succeeded = async.supplyAsync((db) -> 7);
+      try {
+        failed.join();
+        Assert.fail("expected the mapper failure");
+      } catch (CompletionException ex) {
+        Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+        Assert.assertEquals("mapping failed", ex.getCause().getMessage());
+      }
+      Assert.assertTrue(failed.isCompletedExceptionally());
+      Assert.assertEquals(Integer.valueOf(7), succeeded.get(10, TimeUnit.SECONDS));
+      // the failed call does not hold a slot.
+      List<CompletableFuture<Integer>> after = new ArrayList<>();
+      for (int i = 0; i < MAX_CONCURRENCY; i++) {
+        after.add(async.supplyAsync((db) -> 1));
+      }
+      for (CompletableFuture<Integer> future : after) {
+        Assert.assertEquals(Integer.valueOf(1), future.get(10, TimeUnit.SECONDS));
+      }
+    }
+    Assert.assertTrue(this.calls.contains("close"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidConcurrency() {
+    new AsyncDbConnection(this.db, 0);
+  }
+
+  /**
+   * Counts the calls mapping at the same time, holding each one until the maximum
+   * number of calls overlap or a timeout elapses.
+   *
+   * @param id
+   * @return
+   */
+  private Integer map(int id) {
+    int now = this.running.incrementAndGet();
+    this.maxRunning.accumulateAndGet(now, Math::max);
+    try {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+      while (this.maxRunning.get() < MAX_CONCURRENCY && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      Thread.sleep(5);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.running.decrementAndGet();
+    }
+    return id;
+  }
+}
@@ -0,0 +1,104 @@
+package common.db;
+
+import java.sql.Types;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class BatchUpsertTest {
+
+  @Test
+  public void testStatement() {
+    String[] pk = {"id"};
+    List<String> columns = Arrays.asList("id", "name", "value");
+    List<String> updateColumns = Arrays.asList("name", "value");
+    String sql = BatchUpsert.getStatement("test_upsert", pk, columns, updateColumns, 2);
+    Assert.assertEquals("insert into test_upsert (id, name, value) values (?, ?, ?), (?, ?, ?) "
+            + "on conflict (id) do update set (name, value) = (excluded.name, excluded.value)", sql);
+    Assert.assertSame(sql, BatchUpsert.getStatement("test_upsert", pk, Arrays.asList("id", "name", "value"),
+            updateColumns, 2));
+    Assert.assertNotSame(sql, BatchUpsert.getStatement("test_upsert", pk, columns, updateColumns, 1));
+    Assert.assertEquals("insert into test_upsert (id, name) values (?, ?) "
+            + "on conflict (id) do update set name = excluded.name",
+            BatchUpsert.getStatement("test_upsert", pk, Arrays.asList("id", "name"),
+                    Collections.singletonList("name"), 1));
+    Assert.assertEquals("insert into test_upsert (id) values (?) on conflict (id) do nothing",
+            BatchUpsert.getStatement("test_upsert", pk, Collections.singletonList("id"),
+                    Collections.emptyList(), 1));
+  }
+
+  @Test
+  public void testStatementsEvicted() {
+    String[] pk = {"id"};
+    List<String> updateColumns = Collections.singletonList("name");
+    String sql = BatchUpsert.getStatement("test_evicted", pk, Arrays.asList("id", "name"), updateColumns, 3);
+    for (int i = 0; i < 1000; i++) {
+      BatchUpsert.getStatement("test_evicted", pk, Arrays.asList("id", "name", "c" + i), updateColumns, 3);
+    }
+    String rebuilt = BatchUpsert.getStatement("test_evicted", pk, Arrays.asList("id", "name"), updateColumns, 3);
+    Assert.assertEquals(sql, rebuilt);
+    Assert.assertNotSame(sql, rebuilt);
+  }
+
+  @Test
+  public void testPreparedBindsOtherValuesAsText() {
+    List<String> calls = new ArrayList<>();
+    DbConnection db = new DbConnection(StubJdbc.pool(() -> StubJdbc.connection(calls, null)));
+    Map<String, Object> values = new HashMap<>();
+    values.put("idpk", 7);
+    values.put("flag", true);
+    values.put("geom", new GeometryFactory().createPoint(new Coordinate(1, 2)));
+    values.put("name", "a");
+    values.put("note", null);
+    BatchUpsert upsert = new BatchUpsert(db, "test_upsert", BatchUpsert.Mode.PREPARED, 10, "idpk");
+    Assert.assertEquals(1, upsert.execute(Collections.singletonList(new RecordValue("idpk", values))));
+    Assert.assertEquals(Arrays.asList(
+            "setAutoCommit false",
+            "prepareStatement insert into test_upsert (flag, geom, idpk, name, note) values (?, ?, ?, ?, ?) "
+            + "on conflict (idpk) do update set (flag, geom, name, note) "
+            + "= (excluded.flag, excluded.geom, excluded.name, excluded.note)",
+            "setObject 1 true",
+            "setObject 2 POINT (1 2) " + Types.OTHER,
+            "setObject 3 7",
+            "setObject 4 a " + Types.OTHER,
+            "setObject 5 null",
+            "executeBatch 1",
+            "statement.close",
+            "commit",
+            "close"), calls);
+  }
+
+  @Test
+  public void testAppendCsv() {
+    Assert.assertEquals("", csv(null));
+    Assert.assertEquals("\"\"", csv(""));
+    Assert.assertEquals("12.5", csv(12.5));
+    Assert.assertEquals("true", csv(true));
+    Assert.assertEquals("plain text", csv("plain text"));
+    Assert.assertEquals("\"a,b\"", csv("a,b"));
+    Assert.assertEquals("\"say \"\"hi\"\"\"", csv("say \"hi\""));
+    Assert.assertEquals("\"two\nlines\"", csv("two\nlines"));
+    Assert.assertEquals("\"cr\r\"", csv("cr\r"));
+    Assert.assertEquals("2020-01-02T03:04:05-07:00",
+            csv(ZonedDateTime.of(2020, 1, 2, 3, 4, 5, 0, ZoneId.of("-07:00"))));
+  }
+
+  private static String csv(Object value) {
+    StringBuilder line = new StringBuilder();
+    BatchUpsert.appendCsv(line, value);
+    return line.toString();
+  }
+}
@@ -0,0 +1,137 @@
+package common.db;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.function.Consumer;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateXYM;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+
+/**
+ * Checks the field encodings against the binary formats of PostgreSQL.
+ *
+ * @author Ricardo Marquez
+ */
+@RunWith(JUnitParamsRunner.class)
+public class BinaryCopyWriterTest {
+
+  /**
+   * The expected encodings are ndigits, weight, sign, dscale and the base 10000
+   * digits, as <code>numeric_send</code> writes them.
+   *
+   * @param value
+   * @param expected
+   * @throws Exception
+   */
+  @Test
+  @Parameters({
+    "0, 0 0 0 0",
+    "0.00, 0 0 0 2",
+    "1, 1 0 0 0 1",
+    "12345.678, 3 1 0 3 1 2345 6780",
+    "-12345.678, 3 1 16384 3 1 2345 6780",
+    "10000, 1 1 0 0 1",
+    "1E+5, 1 1 0 0 10",
+    "-0.0001, 1 -1 16384 4 1",
+    "0.00012, 2 -1 0 5 1 2000",
+    "99999999.99990000, 3 1 0 8 9999 9999 9999"
+  })
+  public void testNumeric(String value, String expected) throws Exception {
+    ByteBuffer field = writeField((w) -> w.writeNumeric(new BigDecimal(value)));
+    String[] parts = expected.split(" ");
+    Assert.assertEquals(2 * parts.length, field.getInt());
+    for (String part : parts) {
+      Assert.assertEquals(value, Short.parseShort(part), field.getShort());
+    }
+    Assert.assertFalse(field.hasRemaining());
+  }
+
+  @Test
+  public void testTimestamps() throws Exception {
+    ByteBuffer field = writeField((w) -> w.writeTimestamp(ZonedDateTime.of(2000, 1, 1, 1, 0, 0, 0, ZoneId.of("+01:00"))));
+    Assert.assertEquals(8, field.getInt());
+    Assert.assertEquals(0L, field.getLong());
+    field = writeField((w) -> w.writeTimestampMillis(0));
+    field.getInt();
+    Assert.assertEquals(-946684800000000L, field.getLong());
+    field = writeField((w) -> w.writeTimestamp(LocalDateTime.of(2000, 1, 2, 0, 0, 0, 1_500)));
+    field.getInt();
+    Assert.assertEquals(86400000001L, field.getLong());
+  }
+
+  @Test
+  public void testArrays() throws Exception {
+    ByteBuffer field = writeField((w) -> w.writeIntArray(new int[]{1, -2}));
+    int[] expected = {36, 1, 0, 23, 2, 1, 4, 1, 4, -2};
+    for (int value : expected) {
+      Assert.assertEquals(value, field.getInt());
+    }
+    Assert.assertFalse(field.hasRemaining());
+    field = writeField((w) -> w.writeDoubleArray(new double[]{1.5}));
+    for (int value : new int[]{32, 1, 0, 701, 1, 1, 8}) {
+      Assert.assertEquals(value, field.getInt());
+    }
+    Assert.assertEquals(1.5, field.getDouble(), 0);
+    field = writeField((w) -> w.writeLongArray(new long[0]));
+    for (int value : new int[]{12, 0, 0, 20}) {
+      Assert.assertEquals(value, field.getInt());
+    }
+    Assert.assertFalse(field.hasRemaining());
+  }
+
+  @Test
+  public void testGeometry() throws Exception {
+    GeometryFactory factory = new GeometryFactory(new PrecisionModel(), 4326);
+    ByteBuffer field = writeField((w) -> w.writeGeometry(factory.createPoint(new Coordinate(1, 2))));
+    Assert.assertEquals(25, field.getInt());
+    Assert.assertEquals(0, field.get());
+    Assert.assertEquals(0x20000001, field.getInt());
+    Assert.assertEquals(4326, field.getInt());
+    field = writeField((w) -> w.writeGeometry(factory.createPoint(new Coordinate(1, 2, 3))));
+    Assert.assertEquals(33, field.getInt());
+    Assert.assertEquals(0, field.get());
+    // the EWKB Z and SRID flags.
+    Assert.assertEquals(0xA0000001, field.getInt());
+    Assert.assertEquals(4326, field.getInt());
+    Assert.assertEquals(1, field.getDouble(), 0);
+    Assert.assertEquals(2, field.getDouble(), 0);
+    Assert.assertEquals(3, field.getDouble(), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGeometryWithMeasures() throws Exception {
+    GeometryFactory factory = new GeometryFactory();
+    writeField((w) -> w.writeGeometry(factory.createPoint(new CoordinateXYM(1, 2, 3))));
+  }
+
+  /**
+   * Writes a row of one field.
+   *
+   * @param field
+   * @return the field, starting at its length.
+   * @throws SQLException
+   */
+  private static ByteBuffer writeField(Consumer<BinaryCopyWriter> field) throws SQLException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CopyInBuffer buffer = new CopyInBuffer(CapturingCopyIn.create(out), 16, null);
+    BinaryCopyWriter writer = new BinaryCopyWriter(buffer);
+    writer.startRow(1);
+    field.accept(writer);
+    writer.endRow();
+    buffer.flush();
+    ByteBuffer result = ByteBuffer.wrap(out.toByteArray());
+    Assert.assertEquals(1, result.getShort());
+    return result;
+  }
+}
@@ -0,0 +1,36 @@
+package common.db;
+
+import java.lang.reflect.Proxy;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class BulkLoaderTest {
+
+  @Test
+  public void testStagingTable() {
+    Assert.assertEquals("\"obs_bulk_1\"", BulkLoader.stagingTable("Obs", "_bulk_1"));
+    Assert.assertEquals("public.\"obs_bulk_1\"", BulkLoader.stagingTable("public.obs", "_bulk_1"));
+    Assert.assertEquals("\"My Table_bulk_1\"", BulkLoader.stagingTable("\"My Table\"", "_bulk_1"));
+    Assert.assertEquals("\"My.Schema\".\"a\"\"b_bulk_1\"",
+            BulkLoader.stagingTable("\"My.Schema\".\"a\"\"b\"", "_bulk_1"));
+    String longName = new String(new char[70]).replace('\0', 'x');
+    Assert.assertEquals(63 + 2, BulkLoader.stagingTable(longName, "_bulk_1").length());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeMaxPendingPartitions() {
+    ConnectionPool pool = (ConnectionPool) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+            new Class<?>[]{ConnectionPool.class}, (proxy, method, args) -> {
+              throw new UnsupportedOperationException(method.toString());
+            });
+    new BulkLoader.Builder()
+            .setPool(pool)
+            .setParallelism(2)
+            .setMaxPendingPartitions(-3)
+            .build();
+  }
+}
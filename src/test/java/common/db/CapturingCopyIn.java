@@ -0,0 +1,45 @@
+package common.db;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * A {@linkplain CopyIn} keeping the bytes written to it, for tests without a database.
+ *
+ * @author Ricardo Marquez
+ */
+final class CapturingCopyIn {
+
+  private CapturingCopyIn() {
+  }
+
+  /**
+   *
+   * @param out receives the bytes written to the copy.
+   * @return
+   */
+  static CopyIn create(ByteArrayOutputStream out) {
+    return (CopyIn) Proxy.newProxyInstance(CopyIn.class.getClassLoader(), new Class<?>[]{CopyIn.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "writeToCopy":
+                  if (args.length == 3 && args[0] instanceof byte[]) {
+                    out.write((byte[]) args[0], (Integer) args[1], (Integer) args[2]);
+                    return null;
+                  }
+                  throw new UnsupportedOperationException(method.toString());
+                case "endCopy":
+                case "getHandledRowCount":
+                  return -1L;
+                case "isActive":
+                  return true;
+                case "flushCopy":
+                case "cancelCopy":
+                  return null;
+                default:
+                  throw new UnsupportedOperationException(method.toString());
+              }
+            });
+  }
+}
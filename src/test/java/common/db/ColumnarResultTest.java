@@ -0,0 +1,112 @@
+package common.db;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class ColumnarResultTest {
+
+  private static final int ROWS = 2500;
+
+  @Test
+  public void testReadColumns() {
+    // labels in another order than the schema, with a column that is not read.
+    String[] labels = {"note", "ts", "count", "id", "value"};
+    Object[][] rows = new Object[ROWS][];
+    for (int r = 0; r < ROWS; r++) {
+      boolean isNull = r % 7 == 3;
+      rows[r] = new Object[]{
+        "row " + r,
+        isNull ? null : new Timestamp(1_600_000_000_000L + r * 1000L),
+        isNull ? null : r % 100,
+        isNull ? null : 10_000_000_000L + r,
+        isNull ? null : r / 4.0
+      };
+    }
+    List<String> calls = new ArrayList<>();
+    DbConnection db = new DbConnection(StubJdbc.pool(() -> StubJdbc.connection(calls,
+            StubJdbc.resultSet(calls, labels, rows))));
+    ColumnarResult.Schema schema = new ColumnarResult.Schema()
+            .add("value", ColumnarResult.Type.DOUBLE)
+            .add("id", ColumnarResult.Type.LONG)
+            .add("count", ColumnarResult.Type.INT)
+            .add("ts", ColumnarResult.Type.EPOCH_MILLIS);
+    ColumnarResult result = db.executeColumnarQuery("select * from t", schema);
+    Assert.assertEquals(ROWS, result.size());
+    Assert.assertEquals(2, result.getColumnIndex("count"));
+    double[] values = result.getDoubles("value");
+    long[] ids = result.getLongs("id");
+    int[] counts = result.getInts("count");
+    long[] times = result.getLongs("ts");
+    Assert.assertEquals(ROWS, values.length);
+    for (int r = 0; r < ROWS; r++) {
+      boolean isNull = r % 7 == 3;
+      for (int c = 0; c < 4; c++) {
+        Assert.assertEquals("row " + r + " column " + c, isNull, result.isNull(c, r));
+      }
+      if (isNull) {
+        Assert.assertTrue(Double.isNaN(values[r]));
+        Assert.assertEquals(0L, ids[r]);
+        Assert.assertEquals(0, counts[r]);
+        Assert.assertEquals(0L, times[r]);
+      } else {
+        Assert.assertEquals(r / 4.0, values[r], 0);
+        Assert.assertEquals(10_000_000_000L + r, ids[r]);
+        Assert.assertEquals(r % 100, counts[r]);
+        Assert.assertEquals(1_600_000_000_000L + r * 1000L, times[r]);
+        Assert.assertEquals(r / 4.0, result.getDouble(0, r), 0);
+        Assert.assertEquals(10_000_000_000L + r, result.getLong(1, r));
+        Assert.assertEquals(r % 100, result.getInt(2, r));
+        Assert.assertEquals(1_600_000_000_000L + r * 1000L, result.getLong(3, r));
+      }
+    }
+  }
+
+  @Test
+  public void testEmptyAndInvalidAccess() {
+    List<String> calls = new ArrayList<>();
+    DbConnection db = new DbConnection(StubJdbc.pool(() -> StubJdbc.connection(calls,
+            StubJdbc.resultSet(calls, new String[]{"value"}))));
+    ColumnarResult result = db.executeColumnarQuery("select value from t",
+            new ColumnarResult.Schema().add("value", ColumnarResult.Type.DOUBLE));
+    Assert.assertEquals(0, result.size());
+    Assert.assertEquals(0, result.getDoubles("value").length);
+    try {
+      result.getDouble(0, 0);
+      Assert.fail("expected an out of bounds row");
+    } catch (IndexOutOfBoundsException ex) {
+      // expected.
+    }
+    try {
+      result.getLongs("value");
+      Assert.fail("expected a type mismatch");
+    } catch (IllegalArgumentException ex) {
+      Assert.assertEquals("Column 'value' is of type DOUBLE, not LONG or EPOCH_MILLIS", ex.getMessage());
+    }
+    try {
+      result.getColumnIndex("missing");
+      Assert.fail("expected a missing column");
+    } catch (IllegalArgumentException ex) {
+      // expected.
+    }
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testMissingColumn() {
+    List<String> calls = new ArrayList<>();
+    DbConnection db = new DbConnection(StubJdbc.pool(() -> StubJdbc.connection(calls,
+            StubJdbc.resultSet(calls, new String[]{"value"}, new Object[]{1.0}))));
+    db.executeColumnarQuery("select value from t", new ColumnarResult.Schema().add("other", ColumnarResult.Type.LONG));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateColumn() {
+    new ColumnarResult.Schema().add("value", ColumnarResult.Type.DOUBLE).add("value", ColumnarResult.Type.LONG);
+  }
+}
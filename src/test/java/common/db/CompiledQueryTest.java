@@ -0,0 +1,50 @@
+package common.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class CompiledQueryTest {
+
+  @Test
+  public void testNamedParameters() {
+    CompiledQuery query = CompiledQuery.parse(
+            "select * from obs where station = :station and dt >= :start and dt < :end or station = :station");
+    Assert.assertEquals("select * from obs where station = ? and dt >= ? and dt < ? or station = ?", query.getSql());
+    Assert.assertArrayEquals(new int[]{1, 4}, query.getIndexes("station"));
+    Assert.assertArrayEquals(new int[]{2}, query.getIndexes("start"));
+    Assert.assertArrayEquals(new int[]{3}, query.getIndexes("end"));
+    Assert.assertArrayEquals(new int[0], query.getIndexes("other"));
+  }
+
+  @Test
+  public void testCasts() {
+    CompiledQuery query = CompiledQuery.parse("select :value::numeric, dt::date, :_id::int from obs");
+    Assert.assertEquals("select ?::numeric, dt::date, ?::int from obs", query.getSql());
+    Assert.assertArrayEquals(new int[]{1}, query.getIndexes("value"));
+    Assert.assertArrayEquals(new int[]{2}, query.getIndexes("_id"));
+    Assert.assertArrayEquals(new int[0], query.getIndexes("numeric"));
+    Assert.assertArrayEquals(new int[0], query.getIndexes("int"));
+  }
+
+  @Test
+  public void testQuotesAndComments() {
+    String sql = "select 'a:b', 'it''s :not', \"col:x\", :p -- :comment\n, a[1:2] from t where x = :q";
+    CompiledQuery query = CompiledQuery.parse(sql);
+    Assert.assertEquals("select 'a:b', 'it''s :not', \"col:x\", ? -- :comment\n, a[1:2] from t where x = ?",
+            query.getSql());
+    Assert.assertArrayEquals(new int[]{1}, query.getIndexes("p"));
+    Assert.assertArrayEquals(new int[]{2}, query.getIndexes("q"));
+    Assert.assertArrayEquals(new int[0], query.getIndexes("not"));
+    Assert.assertArrayEquals(new int[0], query.getIndexes("comment"));
+  }
+
+  @Test
+  public void testCompileReusesQuery() {
+    String sql = "select * from obs where id = :id";
+    Assert.assertSame(CompiledQuery.compile(sql), CompiledQuery.compile(sql));
+  }
+}
@@ -0,0 +1,81 @@
+package common.db;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class CopyInBufferTest {
+
+  /**
+   * Lines are sent as is, UTF-8 encoded, including characters split across flushes.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testUtf8Rows() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CopyInBuffer buffer = new CopyInBuffer(CapturingCopyIn.create(out), 16, null);
+    List<String> lines = Arrays.asList(
+            "1,\"a,b\",\"say \"\"hi\"\"\"",
+            "2,café,naïve",
+            "3,日本語日本語,😀😀",
+            "4,\"two\nlines\",",
+            "");
+    StringBuilder expected = new StringBuilder();
+    for (String line : lines) {
+      buffer.writeRow(line);
+      expected.append(line).append('\n');
+    }
+    buffer.flush();
+    Assert.assertEquals(expected.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    Assert.assertEquals(expected.toString().getBytes(StandardCharsets.UTF_8).length, buffer.getBytes());
+    Assert.assertEquals(5, buffer.getRows());
+  }
+
+  /**
+   * An unpaired surrogate is replaced rather than failing the copy.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testMalformedInput() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CopyInBuffer buffer = new CopyInBuffer(CapturingCopyIn.create(out), 16, null);
+    buffer.writeRow("x\ud83dy");
+    buffer.flush();
+    Assert.assertEquals("x?y\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Each flush reports the rows whose values were written before it, including the row
+   * whose new line did not fit.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testFlushRowCounts() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    List<Long> flushes = new ArrayList<>();
+    CopyInBuffer buffer = new CopyInBuffer(CapturingCopyIn.create(out), 16, flushes::add);
+    // 15 characters and the new line fill the buffer without flushing.
+    buffer.writeRow("aaaaaaaaaaaaaaa");
+    Assert.assertTrue(flushes.isEmpty());
+    // the next row flushes the first, then its 16 characters fill the buffer, so its
+    // new line flushes it too.
+    buffer.writeRow("bbbbbbbbbbbbbbbb");
+    Assert.assertEquals(Arrays.asList(1L, 2L), flushes);
+    buffer.writeRow("c");
+    buffer.flush();
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L), flushes);
+    Assert.assertEquals(3, buffer.getRows());
+    Assert.assertEquals(15 + 16 + 1 + 3, out.size());
+  }
+}
@@ -0,0 +1,75 @@
+package common.db;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class DefaultPoolMetricsTest {
+
+  /**
+   * Percentiles are the upper bound of their power of two bucket of microseconds,
+   * capped to the maximum.
+   */
+  @Test
+  public void testPercentiles() {
+    DefaultPoolMetrics metrics = new DefaultPoolMetrics(1000);
+    for (int i = 0; i < 90; i++) {
+      metrics.statementExecuted("select 1", TimeUnit.MILLISECONDS.toNanos(1), 1, 10, true);
+    }
+    for (int i = 0; i < 10; i++) {
+      metrics.statementExecuted("select 2", TimeUnit.MILLISECONDS.toNanos(100), 1, 10, i > 0);
+    }
+    DefaultPoolMetrics.LatencyHistogram latency = metrics.getStatementLatency();
+    Assert.assertEquals(100, latency.getCount());
+    Assert.assertEquals(10.9, latency.getMeanMillis(), 1e-9);
+    Assert.assertEquals(100.0, latency.getMaxMillis(), 1e-9);
+    // 1000 us falls in the bucket [512, 1024) us.
+    Assert.assertEquals(1.024, latency.getPercentileMillis(0.5), 1e-9);
+    Assert.assertEquals(1.024, latency.getPercentileMillis(0.9), 1e-9);
+    // 100000 us falls in the bucket [65536, 131072) us, capped to the maximum.
+    Assert.assertEquals(100.0, latency.getPercentileMillis(0.91), 1e-9);
+    Assert.assertEquals(100.0, metrics.getStatementP99Millis(), 1e-9);
+    Assert.assertEquals(1, metrics.getStatementFailures());
+    Assert.assertEquals(100, metrics.getRows());
+    Assert.assertEquals(1000, metrics.getBytes());
+  }
+
+  /**
+   * Latencies under a microsecond fall in the first bucket.
+   */
+  @Test
+  public void testSubMicrosecond() {
+    DefaultPoolMetrics metrics = new DefaultPoolMetrics(1000);
+    Assert.assertEquals(0.0, metrics.getAcquireP99Millis(), 0);
+    metrics.connectionAcquired(500, true);
+    metrics.connectionAcquired(700, false);
+    Assert.assertEquals(2, metrics.getAcquireCount());
+    Assert.assertEquals(1, metrics.getAcquireFailures());
+    Assert.assertEquals(0.0007, metrics.getAcquireP99Millis(), 1e-12);
+  }
+
+  /**
+   * The slow query ring keeps the most recent samples, newest first.
+   */
+  @Test
+  public void testSlowQueryRingWraps() {
+    DefaultPoolMetrics metrics = new DefaultPoolMetrics(10);
+    for (int i = 0; i < 40; i++) {
+      metrics.statementExecuted("fast" + i, TimeUnit.MILLISECONDS.toNanos(1), 0, 0, true);
+      metrics.statementExecuted("slow" + i, TimeUnit.MILLISECONDS.toNanos(20), 0, 0, true);
+    }
+    List<DefaultPoolMetrics.SlowQuery> samples = metrics.getSlowQuerySamples();
+    Assert.assertEquals(32, samples.size());
+    Assert.assertEquals("slow39", samples.get(0).getSql());
+    Assert.assertEquals("slow8", samples.get(31).getSql());
+    Assert.assertEquals(32, metrics.getSlowQueries().length);
+    metrics.reset();
+    Assert.assertTrue(metrics.getSlowQuerySamples().isEmpty());
+    Assert.assertEquals(0, metrics.getStatementCount());
+  }
+}
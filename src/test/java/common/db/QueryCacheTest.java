@@ -0,0 +1,124 @@
+package common.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import junitparams.JUnitParamsRunner;
+import junitparams.Parameters;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+@RunWith(JUnitParamsRunner.class)
+public class QueryCacheTest {
+
+  @Test
+  @Parameters({
+    "select * from station, station",
+    "select * from public.station where id = 1, station",
+    "select * from \"Public\".\"Station\", station",
+    "select * from \"My Table\" t, my table",
+    "select * from public . station, station",
+    "select * from station s join obs o on o.id = s.id left join public.region r on true, station;obs;region",
+    "SELECT * FROM Station JOIN \"Obs\".\"Data.Raw\" d ON true, station;data.raw"
+  })
+  public void testReadTables(String sql, String expected) {
+    Assert.assertEquals(tables(expected), QueryCache.readTables(sql));
+  }
+
+  @Test
+  @Parameters({
+    "insert into public.station (id) values (1), station",
+    "update \"Station\" set name = 'a', station",
+    "delete from obs where id = 1, obs",
+    "truncate table obs, obs",
+    "truncate obs, obs",
+    "alter table if exists public.obs add column x int, obs",
+    "drop table obs_bulk_1, obs_bulk_1",
+    "copy \"My Table\" (a\\, b) from stdin, my table",
+    "insert into station (id\\, name) values (?\\, ?) on conflict (id) do update set name = excluded.name, station",
+    "insert into station (id) values (?) on conflict (id) do update\n  set (name) = (excluded.name), station",
+    "insert into station (id) values (?) on conflict (id) DO UPDATE SET id = excluded.id, station"
+  })
+  public void testWriteTables(String sql, String expected) {
+    Assert.assertEquals(tables(expected), QueryCache.writeTables(sql));
+  }
+
+  /**
+   * Writes invalidate the queries reading the tables they touch.
+   */
+  @Test
+  public void testInvalidateStatement() {
+    QueryCache cache = new QueryCache(100, 60000);
+    AtomicInteger loads = new AtomicInteger();
+    cache.get("select * from public.station", null, loads::incrementAndGet);
+    cache.get("select * from obs", null, loads::incrementAndGet);
+    cache.invalidateStatement("insert into station (id) values (1) on conflict (id) do update set id = 1");
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals(1, cache.getInvalidationCount());
+    Assert.assertEquals(Integer.valueOf(3), cache.get("select * from public.station", null, loads::incrementAndGet));
+    Assert.assertEquals(Integer.valueOf(2), cache.get("select * from obs", null, loads::incrementAndGet));
+    cache.invalidateStatement("vacuum");
+    Assert.assertEquals(0, cache.size());
+  }
+
+  /**
+   * A result loaded while a write ran is returned but not cached.
+   */
+  @Test
+  public void testWriteDuringLoadNotCached() {
+    QueryCache cache = new QueryCache(100, 60000);
+    Integer result = cache.get("select * from station", null, () -> {
+      cache.invalidateTables(Collections.singletonList("other"));
+      return 1;
+    });
+    Assert.assertEquals(Integer.valueOf(1), result);
+    Assert.assertEquals(0, cache.size());
+  }
+
+  /**
+   * Entries are evicted in least recently used order by weight, and entries heavier
+   * than the maximum are not cached.
+   */
+  @Test
+  public void testWeightEviction() {
+    QueryCache cache = new QueryCache(5, 60000);
+    cache.get("select * from a", null, () -> Arrays.asList(1, 2));
+    cache.get("select * from b", null, () -> Arrays.asList(1, 2));
+    cache.get("select * from a", null, () -> Arrays.asList(9));
+    cache.get("select * from c", null, () -> Arrays.asList(1, 2));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(4, cache.getWeight());
+    Assert.assertEquals(1, cache.getEvictionCount());
+    List<Integer> a = cache.get("select * from a", null, () -> Arrays.asList(9));
+    Assert.assertEquals(Arrays.asList(1, 2), a);
+    cache.get("select * from d", null, () -> Arrays.asList(1, 2, 3, 4, 5, 6));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  /**
+   * Parameters are part of the key.
+   */
+  @Test
+  public void testParams() {
+    QueryCache cache = new QueryCache(100, 60000);
+    AtomicInteger loads = new AtomicInteger();
+    cache.get("select * from a where id = ?", Arrays.asList(1), loads::incrementAndGet);
+    cache.get("select * from a where id = ?", Arrays.asList(1), loads::incrementAndGet);
+    cache.get("select * from a where id = ?", Arrays.asList(2), loads::incrementAndGet);
+    Assert.assertEquals(2, loads.get());
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  private static Set<String> tables(String expected) {
+    return new HashSet<>(Arrays.asList(expected.split(";")));
+  }
+}
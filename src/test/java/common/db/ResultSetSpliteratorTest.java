@@ -0,0 +1,85 @@
+package common.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class ResultSetSpliteratorTest {
+
+  private static final List<String> RELEASED = Arrays.asList("resultSet.close", "statement.close", "commit", "close");
+
+  private final List<String> calls = new ArrayList<>();
+  private final DbConnection db = new DbConnection(StubJdbc.pool(() -> StubJdbc.connection(this.calls,
+          StubJdbc.resultSet(this.calls, new String[]{"name"}, new Object[]{"a"}, new Object[]{null},
+                  new Object[]{"c"}))));
+
+  @Test
+  public void testExhausted() {
+    List<String> names = this.db.stream("select name from station", ResultSetSpliteratorTest::name, 2)
+            .collect(Collectors.toList());
+    Assert.assertEquals(Arrays.asList("a", null, "c"), names);
+    Assert.assertEquals(RELEASED, this.released());
+  }
+
+  @Test
+  public void testEarlyExit() {
+    try (Stream<String> names = this.db.stream("select name from station", ResultSetSpliteratorTest::name, 2)) {
+      Assert.assertEquals("a", names.findFirst().get());
+      Assert.assertFalse(this.calls.contains("close"));
+    }
+    Assert.assertEquals(RELEASED, this.released());
+  }
+
+  @Test
+  public void testMapperFailure() {
+    Stream<String> names = this.db.stream("select name from station", (rs) -> {
+      String name = name(rs);
+      if (name == null) {
+        throw new IllegalStateException("null name");
+      }
+      return name;
+    }, 2);
+    List<String> read = new ArrayList<>();
+    try {
+      names.forEach(read::add);
+      Assert.fail("expected the mapper failure");
+    } catch (IllegalStateException ex) {
+      Assert.assertEquals("null name", ex.getMessage());
+    }
+    Assert.assertEquals(Arrays.asList("a"), read);
+    Assert.assertEquals(RELEASED, this.released());
+    names.close();
+    Assert.assertEquals(RELEASED, this.released());
+  }
+
+  /**
+   *
+   * @return the calls made after the query.
+   */
+  private List<String> released() {
+    return this.calls.subList(this.calls.indexOf("executeQuery") + 1, this.calls.size());
+  }
+
+  /**
+   *
+   * @param rs
+   * @return
+   */
+  private static String name(ResultSet rs) {
+    try {
+      return rs.getString("name");
+    } catch (SQLException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package common.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * JDBC objects for tests without a database. The stubs record the calls made on them
+ * as strings, e.g. <code>"setObject 2 POINT (1 2) 1111"</code> or
+ * <code>"commit"</code>, and fail on any call they do not support.
+ *
+ * @author Ricardo Marquez
+ */
+final class StubJdbc {
+
+  private StubJdbc() {
+  }
+
+  /**
+   *
+   * @param calls receives the calls made on the connection and its statements.
+   * @param resultSet returned by the queries of the statements, may be null.
+   * @return
+   */
+  static Connection connection(List<String> calls, ResultSet resultSet) {
+    return proxy(Connection.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "prepareStatement":
+        case "prepareCall":
+          calls.add(method.getName() + " " + args[0]);
+          return statement(calls, resultSet);
+        case "setAutoCommit":
+          calls.add("setAutoCommit " + args[0]);
+          return null;
+        case "getAutoCommit":
+          return false;
+        case "commit":
+        case "rollback":
+        case "close":
+          calls.add(method.getName());
+          return null;
+        default:
+          return unsupported(proxy, method.getName(), args);
+      }
+    });
+  }
+
+  /**
+   *
+   * @param connections called for every connection taken from the pool.
+   * @return
+   */
+  static ConnectionPool pool(Supplier<Connection> connections) {
+    return proxy(ConnectionPool.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getConnection":
+          return connections.get();
+        case "getMetrics":
+          return PoolMetrics.NONE;
+        case "properties":
+          return new Properties();
+        case "getConnectionUrl":
+          return "jdbc:postgresql://stub/stub";
+        case "close":
+          return null;
+        default:
+          return unsupported(proxy, method.getName(), args);
+      }
+    });
+  }
+
+  /**
+   * A result set over rows of values. The getters of numbers return zero for nulls and
+   * {@linkplain ResultSet#wasNull()} tells them apart, as with a driver.
+   *
+   * @param calls receives <code>"resultSet.close"</code>.
+   * @param labels the column labels.
+   * @param rows the values of each row, in column order.
+   * @return
+   */
+  static ResultSet resultSet(List<String> calls, String[] labels, Object[]... rows) {
+    int[] row = {-1};
+    boolean[] wasNull = {false};
+    return proxy(ResultSet.class, (proxy, method, args) -> {
+      String name = method.getName();
+      switch (name) {
+        case "next":
+          if (row[0] < rows.length) {
+            row[0]++;
+          }
+          return row[0] < rows.length;
+        case "findColumn":
+          return findColumn(labels, (String) args[0]);
+        case "wasNull":
+          return wasNull[0];
+        case "close":
+          calls.add("resultSet.close");
+          return null;
+        case "getObject":
+        case "getString":
+        case "getDouble":
+        case "getLong":
+        case "getInt":
+        case "getTimestamp":
+          int column = args[0] instanceof String ? findColumn(labels, (String) args[0]) : (Integer) args[0];
+          if (row[0] < 0 || row[0] >= rows.length) {
+            throw new SQLException("No current row");
+          }
+          Object value = rows[row[0]][column - 1];
+          wasNull[0] = value == null;
+          switch (name) {
+            case "getDouble":
+              return value == null ? 0d : ((Number) value).doubleValue();
+            case "getLong":
+              return value == null ? 0L : ((Number) value).longValue();
+            case "getInt":
+              return value == null ? 0 : ((Number) value).intValue();
+            case "getString":
+              return value == null ? null : String.valueOf(value);
+            default:
+              return value;
+          }
+        default:
+          return unsupported(proxy, name, args);
+      }
+    });
+  }
+
+  /**
+   *
+   * @param labels
+   * @param label
+   * @return the one based index of the column.
+   * @throws SQLException
+   */
+  private static int findColumn(String[] labels, String label) throws SQLException {
+    for (int i = 0; i < labels.length; i++) {
+      if (labels[i].equalsIgnoreCase(label)) {
+        return i + 1;
+      }
+    }
+    throw new SQLException("The column name " + label + " was not found in this ResultSet.");
+  }
+
+  /**
+   *
+   * @param calls
+   * @param resultSet
+   * @return a statement that is also callable, for {@linkplain Connection#prepareCall}.
+   */
+  private static CallableStatement statement(List<String> calls, ResultSet resultSet) {
+    int[] batches = {0};
+    return proxy(CallableStatement.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "setObject":
+        case "setTimestamp":
+        case "setNull":
+          StringBuilder call = new StringBuilder(method.getName());
+          for (Object arg : args) {
+            call.append(' ').append(arg);
+          }
+          calls.add(call.toString());
+          return null;
+        case "addBatch":
+          batches[0]++;
+          return null;
+        case "executeBatch":
+          int[] counts = new int[batches[0]];
+          Arrays.fill(counts, 1);
+          batches[0] = 0;
+          calls.add("executeBatch " + counts.length);
+          return counts;
+        case "executeQuery":
+          calls.add("executeQuery");
+          return resultSet;
+        case "setFetchSize":
+          return null;
+        case "close":
+          calls.add("statement.close");
+          return null;
+        default:
+          return unsupported(proxy, method.getName(), args);
+      }
+    });
+  }
+
+  /**
+   *
+   * @param <T>
+   * @param type
+   * @param handler
+   * @return
+   */
+  static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(StubJdbc.class.getClassLoader(), new Class<?>[]{type}, handler));
+  }
+
+  /**
+   * Answers the {@linkplain Object} methods and rejects everything else.
+   *
+   * @param proxy
+   * @param name
+   * @param args
+   * @return
+   */
+  private static Object unsupported(Object proxy, String name, Object[] args) {
+    switch (name) {
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "equals":
+        return proxy == args[0];
+      case "toString":
+        return "stub";
+      default:
+        throw new UnsupportedOperationException(name);
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package common.timeseries;
+
+import common.timeseries.impl.AppendableTimeSeries;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class AppendableTimeSeriesTest {
+
+  /**
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testConcurrentReaders() throws Exception {
+    ZonedDateTime start = ZonedDateTime.of(2023, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+    AppendableTimeSeries<Integer> series = new AppendableTimeSeries<>(Duration.ofMinutes(1), start.getZone());
+    Assert.assertNull(series.getFirst());
+    int count = 100_000;
+    AtomicReference<String> error = new AtomicReference<>();
+    Thread reader = new Thread(() -> {
+      int seen = 0;
+      while (seen < count && error.get() == null) {
+        AppendableTimeSeries.Snapshot<Integer> snapshot = series.snapshot();
+        int n = snapshot.size();
+        if (n > 0) {
+          TimeStepValue<Integer> last = snapshot.getLast();
+          if (last.getUserObject() != n - 1 || snapshot.indexOf(last.getZoneDateTime()) != n - 1) {
+            error.set("inconsistent snapshot of size " + n);
+          }
+        }
+        seen = n;
+      }
+    });
+    reader.start();
+    for (int i = 0; i < count; i++) {
+      series.append(start.plusMinutes(i), i);
+    }
+    reader.join();
+    Assert.assertNull(error.get());
+    Assert.assertEquals(count, series.size());
+    Assert.assertEquals(Integer.valueOf(500), series.getTimeStepValue(start.plusMinutes(500)).getUserObject());
+    try {
+      series.append(start.plusMinutes(count + 1), -1);
+      Assert.fail("gap was accepted");
+    } catch (IllegalArgumentException ex) {
+      Assert.assertEquals(count, series.size());
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package common.timeseries;
+
+import java.time.ZoneId;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class CompressedTimeSeriesTest {
+
+  /**
+   * Round trips irregular time steps, missing values and large jumps, decoding full and
+   * partial ranges across block boundaries.
+   */
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(5);
+    TimeSeriesColumns source = new TimeSeriesColumns(ZoneId.of("UTC"), 1);
+    long t = 1_500_000_000_000L;
+    double v = 20;
+    for (int i = 0; i < 5000; i++) {
+      int r = random.nextInt(100);
+      t += r < 80 ? 60_000 : r < 95 ? 1 + random.nextInt(5000) : 1L << (20 + random.nextInt(20));
+      v = r % 3 == 0 ? v : v + random.nextGaussian();
+      source.append(t, r == 7 ? Double.NaN : v);
+    }
+    CompressedTimeSeries compressed = CompressedTimeSeries.encode(source, 0);
+    Assert.assertEquals(source.size(), compressed.size());
+    Assert.assertTrue(compressed.getSizeInBytes() < 16L * source.size());
+    assertSame(source, 0, source.size(), compressed.decode());
+
+    long from = source.getEpochMilli(1234) - 1;
+    long to = source.getEpochMilli(3456);
+    assertSame(source, 1234, 3457, compressed.decode(from, to));
+    Assert.assertEquals(0, compressed.decode(t + 1, Long.MAX_VALUE).size());
+    Assert.assertEquals(0, compressed.decode(0, source.getEpochMilli(0) - 1).size());
+
+    int i = 0;
+    for (TimeStepValue<Double> timeStepValue : compressed) {
+      Assert.assertEquals(source.getEpochMilli(i), timeStepValue.getZoneDateTime().toInstant().toEpochMilli());
+      double expected = source.getValue(0, i++);
+      Assert.assertEquals(Double.isNaN(expected) ? null : expected, timeStepValue.getUserObject());
+    }
+    Assert.assertEquals(source.size(), i);
+  }
+
+  /**
+   *
+   * @param source
+   * @param from
+   * @param to
+   * @param decoded
+   */
+  private static void assertSame(TimeSeriesColumns source, int from, int to, TimeSeriesColumns decoded) {
+    Assert.assertEquals(to - from, decoded.size());
+    for (int i = from; i < to; i++) {
+      Assert.assertEquals(source.getEpochMilli(i), decoded.getEpochMilli(i - from));
+      Assert.assertEquals(Double.doubleToRawLongBits(source.getValue(0, i)),
+              Double.doubleToRawLongBits(decoded.getValue(0, i - from)));
+    }
+  }
+}
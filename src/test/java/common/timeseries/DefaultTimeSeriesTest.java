@@ -0,0 +1,38 @@
+package common.timeseries;
+
+import common.timeseries.impl.DefaultTimeSeries;
+import common.timeseries.impl.SimpleTimeStepValue;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class DefaultTimeSeriesTest {
+
+  /**
+   *
+   */
+  @Test
+  public void testLookup() {
+    ZonedDateTime start = ZonedDateTime.of(2023, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+    List<TimeStepValue<Integer>> records = new ArrayList<>();
+    for (int i = 0; i < 48; i++) {
+      records.add(new SimpleTimeStepValue<>(start.plusHours(i), i));
+    }
+    DefaultTimeSeries<Integer> series = DefaultTimeSeries.create(Duration.ofHours(1), records);
+    Assert.assertEquals(Integer.valueOf(30), series.getTimeStepValue(start.plusHours(30)).getUserObject());
+    Assert.assertNull(series.getTimeStepValue(start.plusMinutes(90)));
+    // same instant in another zone is not the same time step.
+    Assert.assertNull(series.getTimeStepValue(start.plusHours(30).withZoneSameInstant(ZoneId.of("Europe/Paris"))));
+    Assert.assertEquals(Integer.valueOf(31), series.getNext(series.getTimeStepValue(start.plusHours(30))).getUserObject());
+    Assert.assertNull(series.getNext(series.getLast()));
+    Assert.assertEquals(Integer.valueOf(0), series.getPrevious(records.get(1)).getUserObject());
+  }
+}
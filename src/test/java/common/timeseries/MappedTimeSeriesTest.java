@@ -0,0 +1,66 @@
+package common.timeseries;
+
+import common.timeseries.impl.DefaultTimeSeries;
+import common.timeseries.impl.MappedTimeSeries;
+import common.timeseries.impl.RegularTimeSeries;
+import common.timeseries.impl.SimpleTimeStepValue;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class MappedTimeSeriesTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    ZonedDateTime start = ZonedDateTime.of(2023, 1, 1, 0, 0, 0, 0, ZoneId.of("America/Los_Angeles"));
+    double[] values = new double[1000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i % 10 == 3 ? Double.NaN : i * 0.5;
+    }
+    RegularTimeSeries regular = RegularTimeSeries.create(start, Duration.ofMinutes(15), values);
+    Path path = folder.newFile().toPath();
+    MappedTimeSeries.write(regular, path);
+    MappedTimeSeries mapped = MappedTimeSeries.open(path);
+    Assert.assertEquals(regular.size(), mapped.size());
+    Assert.assertEquals(regular.getTimeInterval(), mapped.getTimeInterval());
+    Assert.assertEquals(regular.getZoneId(), mapped.getZoneId());
+    for (int i = 0; i < values.length; i++) {
+      Assert.assertEquals(regular.getEpochMilli(i), mapped.getEpochMilli(i));
+      Assert.assertEquals(regular.get(i).getUserObject(), mapped.get(i).getUserObject());
+    }
+    Assert.assertEquals(Double.valueOf(10.0), mapped.getTimeStepValue(start.plusMinutes(15 * 20)).getUserObject());
+    Assert.assertNull(mapped.getTimeStepValue(start.plusMinutes(1)));
+
+    List<TimeStepValue<Integer>> records = new ArrayList<>();
+    for (int i = 0; i < 24; i++) {
+      records.add(new SimpleTimeStepValue<>(start.plusMonths(i), i == 5 ? null : i));
+    }
+    DefaultTimeSeries<Integer> monthly = DefaultTimeSeries.create(Period.ofMonths(1), records);
+    MappedTimeSeries.write(monthly, path);
+    mapped = MappedTimeSeries.open(path);
+    Assert.assertEquals(Period.ofMonths(1), mapped.getTimeInterval());
+    Assert.assertEquals(monthly.getDateTimeRange().getEndDate(), mapped.getLast().getZoneDateTime());
+    Assert.assertNull(mapped.getTimeStepValue(start.plusMonths(5)).getUserObject());
+    Assert.assertEquals(Double.valueOf(12), mapped.getNext(mapped.getTimeStepValue(start.plusMonths(11))).getUserObject());
+  }
+}
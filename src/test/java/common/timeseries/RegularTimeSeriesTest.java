@@ -0,0 +1,38 @@
+package common.timeseries;
+
+import common.timeseries.impl.RegularTimeSeries;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class RegularTimeSeriesTest {
+
+  /**
+   *
+   */
+  @Test
+  public void test() {
+    ZonedDateTime start = ZonedDateTime.of(2023, 3, 12, 0, 0, 0, 0, ZoneId.of("America/Los_Angeles"));
+    double[] values = {1.0, Double.NaN, 3.0, 4.0};
+    RegularTimeSeries series = RegularTimeSeries.create(start, Duration.ofHours(1), values);
+    Assert.assertEquals(4, series.size());
+    Assert.assertTrue(series.isMissing(1));
+    Assert.assertNull(series.get(1).getUserObject());
+    // crosses the daylight saving time change at 2am.
+    ZonedDateTime third = start.plus(Duration.ofHours(3));
+    Assert.assertEquals(3, series.indexOf(third));
+    Assert.assertEquals(4.0, series.getTimeStepValue(third).getUserObject(), 0.0);
+    Assert.assertEquals(third, series.getLast().getZoneDateTime());
+    Assert.assertNull(series.getTimeStepValue(start.plusMinutes(30)));
+    Assert.assertEquals(3.0, series.getNext(series.get(1)).getUserObject(), 0.0);
+    Assert.assertNull(series.getPrevious(series.getFirst()));
+    RegularTimeSeries copy = RegularTimeSeries.create(series);
+    Assert.assertArrayEquals(values, copy.getValues(), 0.0);
+  }
+}
@@ -0,0 +1,216 @@
+package common.timeseries;
+
+import common.timeseries.impl.DefaultTimeSeries;
+import common.timeseries.impl.RegularTimeSeries;
+import common.timeseries.impl.SimpleTimeStepValue;
+import common.types.DateTimeRange;
+import java.time.Duration;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class ResamplerTest {
+
+  private final ZonedDateTime start = ZonedDateTime.of(2023, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+
+  /**
+   *
+   */
+  @Test
+  public void testDownsample() {
+    double[] values = {1, 2, 3, Double.NaN, 5, 6, 7};
+    RegularTimeSeries series = RegularTimeSeries.create(start, Duration.ofMinutes(30), values);
+    TimeSeriesColumns mean = Resampler.downsample(series, Duration.ofHours(1), Aggregator.mean());
+    Assert.assertArrayEquals(new double[]{1.5, 3, 5.5, 7}, mean.getColumn(0), 1e-12);
+    Assert.assertEquals(start.plusHours(1), mean.getDateTime(1));
+    TimeSeriesColumns count = Resampler.downsample(series, Duration.ofHours(1), Aggregator.count());
+    Assert.assertArrayEquals(new double[]{2, 1, 2, 1}, count.getColumn(0), 0);
+    TimeSeriesColumns median = Resampler.downsample(series, Duration.ofHours(2), Aggregator.percentile(0.5));
+    Assert.assertArrayEquals(new double[]{2, 6}, median.getColumn(0), 1e-12);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void testUpsample() {
+    RegularTimeSeries series = RegularTimeSeries.create(start, Duration.ofHours(1), new double[]{0, 4});
+    TimeSeriesColumns linear = Resampler.upsample(series, Duration.ofMinutes(15), FillPolicy.LINEAR);
+    Assert.assertArrayEquals(new double[]{0, 1, 2, 3, 4}, linear.getColumn(0), 1e-12);
+    TimeSeriesColumns previous = Resampler.upsample(series, Duration.ofMinutes(15), FillPolicy.PREVIOUS);
+    Assert.assertArrayEquals(new double[]{0, 0, 0, 0, 4}, previous.getColumn(0), 0);
+    TimeSeriesColumns nearest = Resampler.upsample(series, Duration.ofMinutes(15), FillPolicy.NEAREST);
+    Assert.assertArrayEquals(new double[]{0, 0, 0, 4, 4}, nearest.getColumn(0), 0);
+  }
+
+  /**
+   * Buckets are labeled with their end and the bucket holding the last time step is
+   * not emitted.
+   */
+  @Test
+  public void testAverageLabelsBucketEnds() {
+    DefaultTimeSeries<Double> series = DefaultTimeSeries.create(Duration.ofMinutes(30),
+      steps(start, Duration.ofMinutes(30), 6));
+    TimeSeries<TimeStepValue<Double>> average = series.average(Duration.ofHours(1), ResamplerTest::mean);
+    List<TimeStepValue<Double>> actual = toList(average);
+    assertSteps("average", Arrays.asList(
+      new SimpleTimeStepValue<>(start.plusHours(1), 0.5),
+      new SimpleTimeStepValue<>(start.plusHours(2), 2.5)), actual);
+  }
+
+  /**
+   * Gaps are passed as empty sets, one per missing bucket.
+   */
+  @Test
+  public void testAggregateEmptyBuckets() {
+    List<TimeStepValue<Double>> records = new ArrayList<>();
+    for (int minutes : new int[]{0, 30, 180, 210, 240}) {
+      records.add(new SimpleTimeStepValue<>(start.plusMinutes(minutes), minutes / 60.0));
+    }
+    List<TimeStepValue<Double>> actual = Resampler.aggregate(records, Duration.ofHours(1), ResamplerTest::mean);
+    assertSteps("aggregate", Arrays.asList(
+      new SimpleTimeStepValue<>(start.plusHours(1), 0.25),
+      new SimpleTimeStepValue<>(start.plusHours(2), Double.NaN),
+      new SimpleTimeStepValue<>(start.plusHours(3), Double.NaN),
+      new SimpleTimeStepValue<>(start.plusHours(4), 3.25)), actual);
+    assertSteps("previous", previousAverage(records, Duration.ofHours(1)), actual);
+  }
+
+  /**
+   * Compares {@linkplain Resampler#aggregate} with the loop it replaced in
+   * {@linkplain TimeSeries#average}.
+   */
+  @Test
+  public void testAggregateMatchesPreviousAverage() {
+    ZoneId newYork = ZoneId.of("America/New_York");
+    ZonedDateTime spring = ZonedDateTime.of(2023, 3, 11, 22, 0, 0, 0, newYork);
+    ZonedDateTime fall = ZonedDateTime.of(2023, 11, 4, 22, 0, 0, 0, newYork);
+    assertSameAsPrevious(steps(start, Duration.ofHours(1), 100), Duration.ofHours(6));
+    assertSameAsPrevious(steps(start, Duration.ofHours(1), 100), Duration.ofHours(1));
+    assertSameAsPrevious(steps(spring, Duration.ofMinutes(5), 120), Duration.ofHours(1));
+    assertSameAsPrevious(steps(fall, Duration.ofMinutes(5), 120), Duration.ofHours(1));
+    assertSameAsPrevious(steps(fall, Duration.ofMinutes(5), 120), Duration.ofMinutes(7));
+    assertSameAsPrevious(steps(spring, Duration.ofHours(1), 24 * 5), Period.ofDays(1));
+    assertSameAsPrevious(steps(fall, Duration.ofHours(1), 24 * 5), Period.ofDays(1));
+    assertSameAsPrevious(steps(start, Duration.ofHours(1), 1), Duration.ofHours(1));
+  }
+
+  /**
+   *
+   * @param records
+   * @param interval
+   */
+  private static void assertSameAsPrevious(List<TimeStepValue<Double>> records, TemporalAmount interval) {
+    List<TimeStepValue<Double>> expected = previousAverage(records, interval);
+    List<TimeStepValue<Double>> actual = Resampler.aggregate(records, interval, ResamplerTest::mean);
+    assertSteps(records.get(0).getZoneDateTime() + " by " + interval, expected, actual);
+  }
+
+  /**
+   * Compares date times and values, time step equality being on the date time only.
+   *
+   * @param message
+   * @param expected
+   * @param actual
+   */
+  private static void assertSteps(String message, List<? extends TimeStepValue<Double>> expected,
+    List<? extends TimeStepValue<Double>> actual) {
+    Assert.assertEquals(message, expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(message, expected.get(i).getZoneDateTime(), actual.get(i).getZoneDateTime());
+      Assert.assertEquals(message, expected.get(i).getUserObject(), actual.get(i).getUserObject(), 1e-12);
+    }
+  }
+
+  /**
+   * The loop {@linkplain DefaultTimeSeries#average} used before
+   * {@linkplain Resampler#aggregate}, kept as the reference for its semantics.
+   *
+   * @param records
+   * @param timeInterval
+   * @return
+   */
+  private static List<TimeStepValue<Double>> previousAverage(List<TimeStepValue<Double>> records,
+    TemporalAmount timeInterval) {
+    SortedSet<TimeStepValue<Double>> copy = new TreeSet<>(records);
+    DateTimeRange dateTimeRange = new DateTimeRange(copy.first().getZoneDateTime(), copy.last().getZoneDateTime());
+    Iterable<ZonedDateTime> iterator = dateTimeRange.iterator(timeInterval);
+    List<TimeStepValue<Double>> newRecords = new ArrayList<>();
+    for (ZonedDateTime current : iterator) {
+      ZonedDateTime nextDt = current.plus(timeInterval);
+      Set<TimeStepValue<Double>> toAverage = new HashSet<>();
+      Iterator<TimeStepValue<Double>> copyIterator = copy.iterator();
+      while (copyIterator.hasNext()) {
+        TimeStepValue<Double> r = copyIterator.next();
+        if ((current.isBefore(r.getZoneDateTime()) || current.isEqual(r.getZoneDateTime()))
+          && r.getZoneDateTime().isBefore(nextDt)) {
+          toAverage.add(r);
+          copyIterator.remove();
+        } else {
+          newRecords.add(mean(Pair.create(nextDt, toAverage)));
+          break;
+        }
+      }
+    }
+    return newRecords;
+  }
+
+  /**
+   *
+   * @param bucket
+   * @return the mean of the bucket labeled with its end, NaN when empty.
+   */
+  private static TimeStepValue<Double> mean(Pair<ZonedDateTime, Set<TimeStepValue<Double>>> bucket) {
+    double sum = 0;
+    for (TimeStepValue<Double> value : bucket.getSecond()) {
+      sum += value.getUserObject();
+    }
+    double mean = bucket.getSecond().isEmpty() ? Double.NaN : sum / bucket.getSecond().size();
+    return new SimpleTimeStepValue<>(bucket.getFirst(), mean);
+  }
+
+  /**
+   *
+   * @param first
+   * @param step
+   * @param count
+   * @return time steps valued with their index.
+   */
+  private static List<TimeStepValue<Double>> steps(ZonedDateTime first, Duration step, int count) {
+    List<TimeStepValue<Double>> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      result.add(new SimpleTimeStepValue<>(first.plus(step.multipliedBy(i)), (double) i));
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param series
+   * @return the time steps of the series in order.
+   */
+  private static List<TimeStepValue<Double>> toList(TimeSeries<TimeStepValue<Double>> series) {
+    List<TimeStepValue<Double>> result = new ArrayList<>();
+    for (TimeStepValue<Double> v = series.getFirst(); v != null; v = series.getNext(v)) {
+      result.add(v);
+    }
+    return result;
+  }
+}
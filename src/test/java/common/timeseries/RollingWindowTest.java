@@ -0,0 +1,81 @@
+package common.timeseries;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class RollingWindowTest {
+
+  /**
+   * Compares the incremental statistics with statistics recomputed for every window.
+   */
+  @Test
+  public void testAgainstRecomputed() {
+    Random random = new Random(11);
+    TimeSeriesColumns source = new TimeSeriesColumns(ZoneId.of("UTC"), 1);
+    long t = 0;
+    for (int i = 0; i < 2000; i++) {
+      t += 1000 * (1 + random.nextInt(5));
+      source.append(t, random.nextInt(10) == 0 ? Double.NaN : random.nextGaussian() * 10);
+    }
+    RollingWindow.Statistic[] statistics = RollingWindow.Statistic.values();
+    TimeSeriesColumns byTime = RollingWindow.rolling(source, 0, Duration.ofSeconds(30), statistics);
+    TimeSeriesColumns byCount = RollingWindow.rolling(source, 0, 7, statistics);
+    long[] times = source.getEpochMillis();
+    double[] values = source.getColumn(0);
+    for (int i = 0; i < times.length; i++) {
+      int lo = i;
+      while (lo > 0 && times[lo - 1] > times[i] - 30_000) {
+        lo--;
+      }
+      assertWindow(values, lo, i, byTime, i);
+      if (i >= 6) {
+        assertWindow(values, i - 6, i, byCount, i);
+      } else {
+        Assert.assertTrue(Double.isNaN(byCount.getValue(0, i)));
+      }
+    }
+  }
+
+  /**
+   *
+   * @param values
+   * @param lo
+   * @param hi inclusive.
+   * @param result
+   * @param row
+   */
+  private static void assertWindow(double[] values, int lo, int hi, TimeSeriesColumns result, int row) {
+    double sum = 0;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    int count = 0;
+    for (int j = lo; j <= hi; j++) {
+      if (!Double.isNaN(values[j])) {
+        sum += values[j];
+        min = Math.min(min, values[j]);
+        max = Math.max(max, values[j]);
+        count++;
+      }
+    }
+    double mean = sum / count;
+    double m2 = 0;
+    for (int j = lo; j <= hi; j++) {
+      if (!Double.isNaN(values[j])) {
+        m2 += (values[j] - mean) * (values[j] - mean);
+      }
+    }
+    Assert.assertEquals(count == 0 ? Double.NaN : mean, result.getValue(0, row), 1e-9);
+    Assert.assertEquals(count == 0 ? Double.NaN : sum, result.getValue(1, row), 1e-9);
+    Assert.assertEquals(count, result.getValue(2, row), 0);
+    Assert.assertEquals(count == 0 ? Double.NaN : min, result.getValue(3, row), 0);
+    Assert.assertEquals(count == 0 ? Double.NaN : max, result.getValue(4, row), 0);
+    Assert.assertEquals(count < 2 ? Double.NaN : m2 / (count - 1), result.getValue(5, row), 1e-9);
+  }
+}
@@ -0,0 +1,38 @@
+package common.timeseries;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class TimeSeriesParallelTest {
+
+  /**
+   *
+   */
+  @Test
+  public void testSameAsSequential() {
+    ZonedDateTime start = ZonedDateTime.of(2020, 1, 1, 0, 3, 0, 0, ZoneId.of("America/Denver"));
+    TimeSeriesColumns source = new TimeSeriesColumns(start.getZone(), 1);
+    Random random = new Random(7);
+    long t = start.toInstant().toEpochMilli();
+    for (int i = 0; i < 200_000; i++) {
+      // irregular steps with occasional gaps of several hours.
+      t += random.nextInt(20) == 0 ? 6 * 3_600_000L : 60_000L * (1 + random.nextInt(10));
+      source.append(t, random.nextGaussian());
+    }
+    for (Aggregator aggregator : new Aggregator[]{Aggregator.mean(), Aggregator.count(), Aggregator.percentile(0.9)}) {
+      TimeSeriesColumns sequential = Resampler.downsample(source, 0, start, Duration.ofHours(1), aggregator);
+      TimeSeriesColumns parallel = TimeSeriesParallel.downsample(source, 0, start, Duration.ofHours(1), aggregator);
+      Assert.assertArrayEquals(sequential.getEpochMillis(), parallel.getEpochMillis());
+      Assert.assertArrayEquals(sequential.getColumn(0), parallel.getColumn(0), 0.0);
+    }
+    Assert.assertEquals(source.size(), TimeSeriesParallel.reduce(source, 0, Aggregator.count()), 0.0);
+  }
+}
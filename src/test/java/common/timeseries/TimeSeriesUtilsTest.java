@@ -0,0 +1,52 @@
+package common.timeseries;
+
+import java.time.ZoneId;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class TimeSeriesUtilsTest {
+
+  /**
+   *
+   * @param times
+   * @param values
+   * @return
+   */
+  private static TimeSeriesColumns columns(long[] times, double[] values) {
+    TimeSeriesColumns result = new TimeSeriesColumns(ZoneId.of("UTC"), 1);
+    for (int i = 0; i < times.length; i++) {
+      result.append(times[i], values[i]);
+    }
+    return result;
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void testJoin() {
+    TimeSeriesColumns a = columns(new long[]{0, 10, 20, 30}, new double[]{1, 2, 3, 4});
+    TimeSeriesColumns b = columns(new long[]{10, 21, 40}, new double[]{20, 30, 50});
+    TimeSeriesColumns c = columns(new long[]{0, 20}, new double[]{100, 300});
+
+    TimeSeriesColumns inner = TimeSeriesUtils.join(JoinType.INNER, 0, a, b, c);
+    Assert.assertEquals(0, inner.size());
+    inner = TimeSeriesUtils.join(JoinType.INNER, 1, a, b);
+    Assert.assertArrayEquals(new long[]{10, 20}, inner.getEpochMillis());
+    Assert.assertArrayEquals(new double[]{20, 30}, inner.getColumn(1), 0);
+
+    TimeSeriesColumns outer = TimeSeriesUtils.join(JoinType.OUTER, 0, a, b);
+    Assert.assertArrayEquals(new long[]{0, 10, 20, 21, 30, 40}, outer.getEpochMillis());
+    Assert.assertArrayEquals(new double[]{1, 2, 3, Double.NaN, 4, Double.NaN}, outer.getColumn(0), 0);
+    Assert.assertArrayEquals(new double[]{Double.NaN, 20, Double.NaN, 30, Double.NaN, 50}, outer.getColumn(1), 0);
+
+    TimeSeriesColumns asof = TimeSeriesUtils.join(JoinType.ASOF, 9, a, b, c);
+    Assert.assertArrayEquals(new long[]{0, 10, 20, 30}, asof.getEpochMillis());
+    Assert.assertArrayEquals(new double[]{Double.NaN, 20, Double.NaN, 30}, asof.getColumn(1), 0);
+    Assert.assertArrayEquals(new double[]{100, Double.NaN, 300, Double.NaN}, asof.getColumn(2), 0);
+  }
+}
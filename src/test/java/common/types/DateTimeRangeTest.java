@@ -0,0 +1,79 @@
+package common.types;
+
+import java.time.Duration;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class DateTimeRangeTest {
+
+  /**
+   * Compares the steps with <code>start + k * amount</code> computed by
+   * {@linkplain ZonedDateTime#plus}, across daylight saving changes and month ends.
+   */
+  @Test
+  public void testStepsAcrossTransitions() {
+    ZoneId zone = ZoneId.of("America/New_York");
+    ZonedDateTime[] starts = {
+      ZonedDateTime.of(2020, 1, 31, 2, 30, 0, 0, zone),
+      ZonedDateTime.of(2020, 3, 7, 2, 0, 0, 0, zone),
+      ZonedDateTime.of(2020, 11, 1, 1, 30, 0, 0, zone).withLaterOffsetAtOverlap()
+    };
+    TemporalAmount[] amounts = {
+      Duration.ofMinutes(15), Duration.ofHours(1), Period.ofDays(1), Period.ofMonths(1), Period.of(0, 1, 3)
+    };
+    for (ZonedDateTime start : starts) {
+      DateTimeRange range = new DateTimeRange(start, start.plusYears(3));
+      for (TemporalAmount amount : amounts) {
+        List<ZonedDateTime> expected = new ArrayList<>();
+        for (int k = 0; !multiply(start, amount, k).isAfter(range.getEndDate()); k++) {
+          expected.add(multiply(start, amount, k));
+        }
+        List<ZonedDateTime> actual = new ArrayList<>();
+        range.iterator(amount).forEach(actual::add);
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.size(), range.getNumberOfSteps(amount));
+        Assert.assertArrayEquals(expected.stream().mapToLong((d) -> d.toInstant().toEpochMilli()).toArray(),
+                range.epochMillis(amount).toArray());
+      }
+    }
+    DateTimeRange empty = new DateTimeRange(starts[1], starts[0]);
+    Assert.assertEquals(0, empty.getNumberOfSteps(Duration.ofHours(1)));
+    Assert.assertFalse(empty.iterator(Period.ofDays(1)).iterator().hasNext());
+  }
+
+  /**
+   *
+   * @param start
+   * @param amount
+   * @param k
+   * @return
+   */
+  private static ZonedDateTime multiply(ZonedDateTime start, TemporalAmount amount, int k) {
+    return amount instanceof Duration
+            ? start.plus(((Duration) amount).multipliedBy(k))
+            : start.plus(((Period) amount).multipliedBy(k));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void testSingleUnitAmount() {
+    ZonedDateTime start = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
+    DateTimeRange range = new DateTimeRange(start, start.plusHours(10));
+    Assert.assertEquals(6, range.getNumberOfSteps(Duration.of(2, ChronoUnit.HOURS)));
+    Assert.assertEquals(start.plusHours(10).toInstant().toEpochMilli(),
+            range.epochMillis(Duration.ofHours(2)).max().getAsLong());
+  }
+}
@@ -0,0 +1,78 @@
+package common.types;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class TimezoneMapperTest {
+
+  /**
+   *
+   */
+  @Test
+  public void testLookup() {
+    double[] lat = {40.7128, 34.0522, 51.5074, -33.8688, 35.6762, 0, Double.NaN};
+    double[] lng = {-74.0060, -118.2437, -0.1278, 151.2093, 139.6503, -140, 0};
+    String[] expected = {
+      "America/New_York", "America/Los_Angeles", "Europe/London", "Australia/Sydney", "Asia/Tokyo",
+      TimezoneMapper.latLngToTimezoneString(0, -140), TimezoneMapper.latLngToTimezoneString(Double.NaN, 0)
+    };
+    int[] out = new int[lat.length];
+    TimezoneMapper.latLngToTimezone(lat, lng, out);
+    for (int i = 0; i < lat.length; i++) {
+      Assert.assertEquals(expected[i], TimezoneMapper.latLngToTimezoneString(lat[i], lng[i]));
+      Assert.assertEquals(expected[i], TimezoneMapper.getTimezoneString(out[i]));
+    }
+  }
+
+  /**
+   * Compares the lookups of a fixed grid, on, around and between the lookup cell
+   * boundaries, with the results of the generated source the resource was built from,
+   * see {@linkplain TimezoneResourceBuilder}.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void testGridMatchesGeneratedSource() throws IOException {
+    List<double[]> grid = TimezoneResourceBuilder.grid();
+    List<String> rows = new ArrayList<>();
+    try (InputStream in = TimezoneMapperTest.class.getResourceAsStream("timezones-expected.txt");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.startsWith("#")) {
+          rows.add(line);
+        }
+      }
+    }
+    Assert.assertEquals(grid.size(), rows.size());
+    for (int r = 0; r < grid.size(); r++) {
+      double[] row = grid.get(r);
+      double[] lat = new double[row.length - 1];
+      double[] lng = new double[row.length - 1];
+      List<String> zones = new ArrayList<>();
+      for (int i = 1; i < row.length; i++) {
+        lat[i - 1] = row[0];
+        lng[i - 1] = row[i];
+        zones.add(TimezoneMapper.latLngToTimezoneString(row[0], row[i]));
+      }
+      String expected = rows.get(r);
+      Assert.assertEquals(expected, row[0] + " " + row[1] + " " + TimezoneResourceBuilder.encodeRow(zones));
+      int[] out = new int[lat.length];
+      TimezoneMapper.latLngToTimezone(lat, lng, out);
+      for (int i = 0; i < out.length; i++) {
+        Assert.assertEquals(expected, zones.get(i), TimezoneMapper.getTimezoneString(out[i]));
+      }
+    }
+  }
+}
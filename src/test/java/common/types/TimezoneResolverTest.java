@@ -0,0 +1,34 @@
+package common.types;
+
+import java.time.ZoneId;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Ricardo Marquez
+ */
+public class TimezoneResolverTest {
+
+  /**
+   *
+   */
+  @Test
+  public void testResolve() {
+    TimezoneResolver resolver = new TimezoneResolver(Arrays.asList(ZoneId.of("US/Eastern")), 16);
+    Assert.assertEquals(ZoneId.of("US/Eastern"), resolver.resolve(40.7128, -74.0060));
+    Assert.assertSame(resolver.resolve(40.7128, -74.0060), resolver.resolve(40.7128, -74.0060));
+    Assert.assertEquals(ZoneId.of("America/Los_Angeles"), resolver.resolve(34.0522, -118.2437));
+    Assert.assertEquals(2, resolver.getHitCount());
+
+    double[] lat = {40.7128, 34.0522, 51.5074};
+    double[] lng = {-74.0060, -118.2437, -0.1278};
+    ZoneId[] out = new ZoneId[3];
+    resolver.resolve(lat, lng, out);
+    Assert.assertArrayEquals(new ZoneId[]{ZoneId.of("US/Eastern"), ZoneId.of("America/Los_Angeles"),
+      ZoneId.of("Europe/London")}, out);
+    Assert.assertEquals(ZoneId.of("Europe/London"),
+            resolver.getZoneId(TimezoneMapper.latLngToTimezone(51.5074, -0.1278)));
+  }
+}
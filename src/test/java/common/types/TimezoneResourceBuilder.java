@@ -0,0 +1,444 @@
+package common.types;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rebuilds the resources of {@linkplain TimezoneMapper} from the generated source it
+ * replaced. Not a test, run it from the test classpath:
+ *
+ * <pre>
+ * git show d00948d^:src/main/java/common/types/TimezoneMapper.java &gt; /tmp/TimezoneMapper.java
+ * java -cp target/test-classes common.types.TimezoneResourceBuilder resource \
+ *   /tmp/TimezoneMapper.java src/main/resources/common/types/timezones.bin.gz
+ * </pre>
+ *
+ * <p>
+ * The generated source has one method per subtree, made of if/else chains testing
+ * <code>lat &lt; c</code>, <code>lng &lt; c</code> or
+ * <code>poly[i].contains(lat, lng)</code> and returning a time zone index or the result
+ * of another method. Each condition becomes a node whose next node if true is the
+ * compiled branch and whose next node if false is the compiled rest of the chain and of
+ * the enclosing block, so the tree answers like the code.</p>
+ *
+ * <p>
+ * The <code>expected</code> command writes the time zones of {@linkplain #grid()} as
+ * looked up by the <code>TimezoneMapper</code> on the classpath, which is how
+ * <code>timezones-expected.txt</code> was produced with the generated source compiled
+ * in place of the current class:</p>
+ *
+ * <pre>
+ * javac -d /tmp/old /tmp/TimezoneMapper.java
+ * java -cp /tmp/old:target/test-classes common.types.TimezoneResourceBuilder expected \
+ *   src/test/resources/common/types/timezones-expected.txt
+ * </pre>
+ *
+ * @author Ricardo Marquez
+ */
+public class TimezoneResourceBuilder {
+
+  private static final Pattern POLYGON_TEST = Pattern.compile("poly\\[(\\d+)\\]\\.contains\\(lat, lng\\)");
+  private static final Pattern POLYGON = Pattern.compile("poly\\[(\\d+)\\] = new TzPolygon\\(([^)]*)\\);");
+  private static final String METHOD = "private static int call";
+  private static final String ROOT = "private static int getTzInt";
+
+  /**
+   * The latitudes and longitudes of each row of the grid are offset from multiples of
+   * {@linkplain #GRID_STEP} degrees, which are lookup cell boundaries, by these amounts:
+   * on the boundaries, just each side of them (within the cell margin), and in the
+   * middle of the cells.
+   */
+  static final double[] GRID_OFFSETS = {0, -0.0005, 0.0005, 0.25};
+  static final double GRID_STEP = 1.5;
+
+  private final List<String> lines;
+  private final Map<Integer, List<Object>> methods = new HashMap<>();
+  private final Map<Integer, Integer> compiledMethods = new HashMap<>();
+  private final List<Byte> kinds = new ArrayList<>();
+  private final List<Integer> values = new ArrayList<>();
+  private final List<Integer> ifTrue = new ArrayList<>();
+  private final List<Integer> ifFalse = new ArrayList<>();
+  private int pos;
+
+  /**
+   *
+   * @param lines the trimmed lines of the generated source.
+   */
+  private TimezoneResourceBuilder(List<String> lines) {
+    this.lines = lines;
+  }
+
+  /**
+   *
+   * @param args <code>resource &lt;generated source&gt; &lt;output&gt;</code> or
+   * <code>expected &lt;output&gt;</code>.
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length == 3 && args[0].equals("resource")) {
+      List<String> lines = new ArrayList<>();
+      for (String line : Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+        lines.add(line.trim());
+      }
+      try (OutputStream out = new FileOutputStream(args[2])) {
+        new TimezoneResourceBuilder(lines).write(out);
+      }
+    } else if (args.length == 2 && args[0].equals("expected")) {
+      Method lookup = Class.forName("common.types.TimezoneMapper")
+              .getMethod("latLngToTimezoneString", double.class, double.class);
+      try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8))) {
+        out.println("# Time zones of TimezoneResourceBuilder.grid(), one row per line: the latitude, the first");
+        out.println("# longitude, then the zones of the row as id or id*count for repeated ids.");
+        for (double[] row : grid()) {
+          List<String> zones = new ArrayList<>();
+          for (int i = 1; i < row.length; i++) {
+            zones.add((String) lookup.invoke(null, row[0], row[i]));
+          }
+          out.println(row[0] + " " + row[1] + " " + encodeRow(zones));
+        }
+      }
+    } else {
+      throw new IllegalArgumentException("Usage: resource <generated source> <output> | expected <output>");
+    }
+  }
+
+  /**
+   * The points checked against the generated source, row by row.
+   *
+   * @return the rows, each one the latitude followed by the longitudes of the row.
+   */
+  static List<double[]> grid() {
+    List<double[]> result = new ArrayList<>();
+    int rows = (int) (180 / GRID_STEP);
+    int columns = (int) (360 / GRID_STEP);
+    for (double offset : GRID_OFFSETS) {
+      for (int r = 0; r <= rows; r++) {
+        double[] row = new double[columns + 2];
+        row[0] = -90 + r * GRID_STEP + offset;
+        for (int c = 0; c <= columns; c++) {
+          row[c + 1] = -180 + c * GRID_STEP + offset;
+        }
+        result.add(row);
+      }
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param zones
+   * @return the zones separated by spaces, runs of the same zone written as id*count.
+   */
+  static String encodeRow(List<String> zones) {
+    StringBuilder result = new StringBuilder();
+    int i = 0;
+    while (i < zones.size()) {
+      int j = i + 1;
+      while (j < zones.size() && zones.get(j).equals(zones.get(i))) {
+        j++;
+      }
+      if (result.length() > 0) {
+        result.append(' ');
+      }
+      result.append(zones.get(i));
+      if (j - i > 1) {
+        result.append('*').append(j - i);
+      }
+      i = j;
+    }
+    return result.toString();
+  }
+
+  /**
+   * Writes the resource in the format read by {@linkplain TimezoneMapper}.
+   *
+   * @param target
+   * @throws IOException
+   */
+  private void write(OutputStream target) throws IOException {
+    List<String> zones = this.parseZones();
+    List<Object> rootBody = null;
+    for (int i = 0; i < this.lines.size(); i++) {
+      String line = this.lines.get(i);
+      if (line.startsWith(METHOD) || line.startsWith(ROOT)) {
+        this.pos = i + 1;
+        List<Object> body = this.parseBlock();
+        if (line.startsWith(ROOT)) {
+          rootBody = body;
+        } else {
+          this.methods.put(Integer.parseInt(line.substring(METHOD.length(), line.indexOf('('))), body);
+        }
+      }
+    }
+    if (rootBody == null) {
+      throw new IllegalStateException("Missing getTzInt method");
+    }
+    int root = this.compile(rootBody, 0);
+    List<float[]> polygons = this.parsePolygons();
+    GZIPOutputStream gzip = new GZIPOutputStream(target);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+    out.writeInt(0x545a4d50);
+    out.writeInt(1);
+    out.writeInt(zones.size());
+    for (String zone : zones) {
+      out.writeUTF(zone);
+    }
+    out.writeInt(polygons.size());
+    int total = 0;
+    ByteBuffer ends = littleEndian(polygons.size());
+    for (float[] polygon : polygons) {
+      total += polygon.length;
+      ends.putInt(total);
+    }
+    out.write(ends.array());
+    ByteBuffer points = littleEndian(total);
+    for (float[] polygon : polygons) {
+      for (float point : polygon) {
+        points.putFloat(point);
+      }
+    }
+    out.write(points.array());
+    int nodes = this.kinds.size();
+    out.writeInt(nodes);
+    for (byte kind : this.kinds) {
+      out.writeByte(kind);
+    }
+    out.write(toBytes(this.values));
+    out.write(toBytes(this.ifTrue));
+    out.write(toBytes(this.ifFalse));
+    out.writeInt(root);
+    out.flush();
+    gzip.finish();
+  }
+
+  /**
+   *
+   * @return the ids of the <code>timezoneStrings</code> array.
+   */
+  private List<String> parseZones() {
+    List<String> result = new ArrayList<>();
+    int i = this.lines.indexOf("static String[] timezoneStrings = {") + 1;
+    if (i == 0) {
+      throw new IllegalStateException("Missing timezoneStrings array");
+    }
+    while (!this.lines.get(i).equals("};")) {
+      String line = this.lines.get(i++);
+      result.add(line.substring(1, line.lastIndexOf('"')));
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @return the points of the polygons, in index order.
+   */
+  private List<float[]> parsePolygons() {
+    StringBuilder source = new StringBuilder();
+    for (String line : this.lines) {
+      source.append(line).append(' ');
+    }
+    TreeMap<Integer, float[]> polygons = new TreeMap<>();
+    Matcher m = POLYGON.matcher(source);
+    while (m.find()) {
+      String[] parts = m.group(2).split(",");
+      float[] points = new float[parts.length];
+      for (int i = 0; i < parts.length; i++) {
+        points[i] = Float.parseFloat(parts[i].trim());
+      }
+      polygons.put(Integer.parseInt(m.group(1)), points);
+    }
+    List<float[]> result = new ArrayList<>(polygons.values());
+    if (!polygons.isEmpty() && polygons.lastKey() != result.size() - 1) {
+      throw new IllegalStateException("Polygon indexes are not contiguous");
+    }
+    return result;
+  }
+
+  /**
+   * Parses the statements of a block up to its closing brace. A statement is an
+   * Integer for <code>return &lt;zone&gt;</code>, a String for
+   * <code>return callN(lat, lng)</code>, or an Object[] of the conditions, the blocks
+   * and the else block (null if none) of an if/else chain.
+   *
+   * @return
+   */
+  private List<Object> parseBlock() {
+    List<Object> result = new ArrayList<>();
+    while (true) {
+      String line = this.lines.get(this.pos);
+      if (line.startsWith("}")) {
+        return result;
+      } else if (line.startsWith("return call")) {
+        result.add(line.substring("return ".length(), line.indexOf('(')));
+        this.pos++;
+      } else if (line.startsWith("return ")) {
+        result.add(Integer.parseInt(line.substring("return ".length(), line.length() - 1)));
+        this.pos++;
+      } else if (line.startsWith("if (")) {
+        result.add(this.parseIfChain());
+      } else {
+        throw new IllegalStateException("Unexpected line: " + line);
+      }
+    }
+  }
+
+  /**
+   *
+   * @return
+   */
+  private Object[] parseIfChain() {
+    List<String> conditions = new ArrayList<>();
+    List<List<Object>> blocks = new ArrayList<>();
+    List<Object> elseBlock = null;
+    String line = this.lines.get(this.pos++);
+    conditions.add(line.substring("if (".length(), line.length() - ") {".length()));
+    blocks.add(this.parseBlock());
+    while (true) {
+      line = this.lines.get(this.pos++);
+      if (line.startsWith("} else if (")) {
+        conditions.add(line.substring("} else if (".length(), line.length() - ") {".length()));
+        blocks.add(this.parseBlock());
+      } else if (line.equals("} else {")) {
+        elseBlock = this.parseBlock();
+        if (!this.lines.get(this.pos++).equals("}")) {
+          throw new IllegalStateException("Unclosed else block at line " + this.pos);
+        }
+        break;
+      } else if (line.equals("}")) {
+        break;
+      } else {
+        throw new IllegalStateException("Unexpected line: " + line);
+      }
+    }
+    return new Object[]{conditions, blocks, elseBlock};
+  }
+
+  /**
+   *
+   * @param statements
+   * @param from
+   * @return the node evaluating the statements from an index, or ~zone for a return.
+   */
+  @SuppressWarnings("unchecked")
+  private int compile(List<Object> statements, int from) {
+    if (from >= statements.size()) {
+      throw new IllegalStateException("Block falls through without a return");
+    }
+    Object statement = statements.get(from);
+    if (statement instanceof Integer) {
+      return ~(Integer) statement;
+    }
+    if (statement instanceof String) {
+      return this.compileMethod(Integer.parseInt(((String) statement).substring("call".length())));
+    }
+    Object[] chain = (Object[]) statement;
+    List<String> conditions = (List<String>) chain[0];
+    List<List<Object>> blocks = (List<List<Object>>) chain[1];
+    List<Object> elseBlock = (List<Object>) chain[2];
+    int otherwise = elseBlock == null
+            ? this.compile(statements, from + 1)
+            : this.compile(concat(elseBlock, statements, from + 1), 0);
+    for (int c = conditions.size() - 1; c >= 0; c--) {
+      int then = this.compile(concat(blocks.get(c), statements, from + 1), 0);
+      otherwise = this.node(conditions.get(c), then, otherwise);
+    }
+    return otherwise;
+  }
+
+  /**
+   *
+   * @param k
+   * @return the node of method callK, compiled once.
+   */
+  private int compileMethod(int k) {
+    Integer result = this.compiledMethods.get(k);
+    if (result == null) {
+      List<Object> body = this.methods.get(k);
+      if (body == null) {
+        throw new IllegalStateException("Missing method call" + k);
+      }
+      result = this.compile(body, 0);
+      this.compiledMethods.put(k, result);
+    }
+    return result;
+  }
+
+  /**
+   *
+   * @param condition
+   * @param then
+   * @param otherwise
+   * @return the index of the new node.
+   */
+  private int node(String condition, int then, int otherwise) {
+    Matcher m = POLYGON_TEST.matcher(condition);
+    if (m.matches()) {
+      this.kinds.add((byte) 2);
+      this.values.add(Integer.parseInt(m.group(1)));
+    } else if (condition.startsWith("lat < ")) {
+      this.kinds.add((byte) 0);
+      this.values.add(Float.floatToRawIntBits(Float.parseFloat(condition.substring("lat < ".length()))));
+    } else if (condition.startsWith("lng < ")) {
+      this.kinds.add((byte) 1);
+      this.values.add(Float.floatToRawIntBits(Float.parseFloat(condition.substring("lng < ".length()))));
+    } else {
+      throw new IllegalStateException("Unexpected condition: " + condition);
+    }
+    this.ifTrue.add(then);
+    this.ifFalse.add(otherwise);
+    return this.kinds.size() - 1;
+  }
+
+  /**
+   *
+   * @param block
+   * @param rest
+   * @param from
+   * @return the block followed by the statements of rest from an index.
+   */
+  private static List<Object> concat(List<Object> block, List<Object> rest, int from) {
+    List<Object> result = new ArrayList<>(block);
+    result.addAll(rest.subList(from, rest.size()));
+    return result;
+  }
+
+  /**
+   *
+   * @param ints
+   * @return
+   */
+  private static ByteBuffer littleEndian(int ints) {
+    return ByteBuffer.allocate(4 * ints).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   *
+   * @param ints
+   * @return the ints as little endian bytes.
+   */
+  private static byte[] toBytes(List<Integer> ints) {
+    ByteBuffer result = littleEndian(ints.size());
+    for (int i : ints) {
+      result.putInt(i);
+    }
+    return result.array();
+  }
+}